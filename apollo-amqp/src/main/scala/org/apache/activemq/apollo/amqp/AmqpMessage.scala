@@ -26,8 +26,9 @@ import org.fusesource.hawtbuf.Buffer
 import org.fusesource.hawtbuf.AsciiBuffer
 import org.fusesource.hawtbuf.UTF8Buffer
 import org.apache.qpid.proton.amqp.{UnsignedByte, UnsignedShort, UnsignedLong, UnsignedInteger}
-import org.apache.qpid.proton.amqp.messaging.{Properties, Header}
+import org.apache.qpid.proton.amqp.messaging.{Footer, Properties, Header}
 import org.apache.qpid.proton.message.impl.MessageImpl
+import java.util.concurrent.atomic.AtomicReferenceArray
 
 object AmqpMessageCodecFactory extends MessageCodecFactory.Provider {
   def create = Array[MessageCodec](AmqpMessageCodec)
@@ -67,6 +68,40 @@ object AmqpMessage {
   val contentEncodingKey = prefixVendor +"ContentEncoding";
   val replyToGroupIDKey = prefixVendor +"ReplyToGroupID";
 
+  def decode(buffer:Buffer) = {
+    val amqp = new MessageImpl();
+    var offset = buffer.offset
+    var len = buffer.length
+    while( len > 0 ) {
+        var decoded = amqp.decode(buffer.data, offset, len);
+        assert(decoded > 0, "Make progress decoding the message")
+        offset += decoded;
+        len -= decoded;
+    }
+    amqp
+  }
+
+  def encode(message:org.apache.qpid.proton.message.Message) = {
+    var buffer = new Array[Byte](1024);
+    var c = message.asInstanceOf[MessageImpl].encode2(buffer, 0, buffer.length);
+    if( c >  buffer.length) {
+      buffer = new Array[Byte](c);
+      message.encode(buffer, 0, c);
+    }
+    new Buffer(buffer, 0, c)
+  }
+
+  /**
+   * @return the size of the leading header section, 0 if the message does
+   *         not have one or -1 if the encoding was not understood.
+   */
+  def header_section_size(buffer:Buffer):Int = {
+    val sections = AmqpSections.scan(buffer)
+    if( sections == null ) -1 else sections.size(AmqpSections.HEADER)
+  }
+
+  private val EMPTY_SECTION = new MessageImpl
+
 }
 import AmqpMessage._
 
@@ -79,36 +114,145 @@ class AmqpMessage(private var encoded_buffer:Buffer, private var decoded_message
 
   def decoded = {
     if( decoded_message==null ) {
-      val amqp = new MessageImpl();
-      var offset = encoded_buffer.offset
-      var len = encoded_buffer.length
-      while( len > 0 ) {
-          var decoded = amqp.decode(encoded_buffer.data, offset, len);
-          assert(decoded > 0, "Make progress decoding the message")
-          offset += decoded;
-          len -= decoded;
-      }
-      decoded_message = amqp
-
+      decoded_message = AmqpMessage.decode(encoded_buffer)
     }
     decoded_message
   }
 
+  // The location of the encoded sections, located on first use.  The
+  // caches get read by the threads of every consumer of the message, so
+  // they are decoded into locals and then published in a single write.
+  @volatile
+  private var encoded_sections:Option[AmqpSections] = null
+  // The individually decoded sections.
+  private val decoded_sections = new AtomicReferenceArray[MessageImpl](AmqpSections.SECTION_COUNT)
+
+  def sections = {
+    var rc = encoded_sections
+    if( rc == null ) {
+      rc = Option(AmqpSections.scan(encoded))
+      encoded_sections = rc
+    }
+    rc.getOrElse(null)
+  }
+
+  /**
+   * Decodes just the requested section of the message so that routing and
+   * selectors do not pay for decoding the body.  Falls back to decoding the
+   * whole message if it's already decoded or the sections could not be
+   * located.
+   *
+   * @return a message which only holds the requested section.
+   */
+  def decoded_section(code:Int):org.apache.qpid.proton.message.Message = {
+    if( decoded_message!=null || sections == null ) {
+      return decoded
+    }
+    val index = code - AmqpSections.HEADER
+    var rc = decoded_sections.get(index)
+    if( rc == null ) {
+      val section = sections.get(code)
+      rc = if( section == null ) EMPTY_SECTION else AmqpMessage.decode(section)
+      decoded_sections.set(index, rc)
+    }
+    rc
+  }
+
+  def header = decoded_section(AmqpSections.HEADER).getHeader
+  def properties = decoded_section(AmqpSections.PROPERTIES).getProperties
+  def application_properties = decoded_section(AmqpSections.APPLICATION_PROPERTIES).getApplicationProperties
+  def message_annotations = decoded_section(AmqpSections.MESSAGE_ANNOTATIONS).getMessageAnnotations
+  def delivery_annotations = decoded_section(AmqpSections.DELIVERY_ANNOTATIONS).getDeliveryAnnotations
+  def footer = decoded_section(AmqpSections.FOOTER).getFooter
+
   override def encoded = {
     if( encoded_buffer == null ) {
-      var buffer = new Array[Byte](1024);
-      var c = decoded_message.asInstanceOf[MessageImpl].encode2(buffer, 0, buffer.length);
-      if( c >  buffer.length) {
-        buffer = new Array[Byte](c);
-        decoded_message.encode(buffer, 0, c);
-      }
-      encoded_buffer = new Buffer(buffer, 0, c)
+      encoded_buffer = AmqpMessage.encode(decoded_message)
     }
     encoded_buffer
   }
 
+  /**
+   * Encodes the message as a redelivery: the header section is replaced with
+   * one holding the delivery count and a cleared first-acquirer flag while
+   * the rest of the original encoding is copied as is.  Neither the
+   * encoding nor the decoded form of this message get modified.
+   */
+  def encoded_redelivery(delivery_count:Int):Buffer = {
+    val original = encoded
+    val header_size = if( sections == null ) -1 else sections.size(AmqpSections.HEADER)
+    if( header_size < 0 ) {
+      // Don't know how to splice it, so use a private copy to update the header.
+      val message = AmqpMessage.decode(original)
+      message.setDeliveryCount(delivery_count)
+      message.setFirstAcquirer(false)
+      return AmqpMessage.encode(message)
+    }
 
-  override def message_group = decoded.getGroupId
+    val header = new Header
+    if( header_size > 0 ) {
+      val original_header = this.header
+      if( original_header != null ) {
+        header.setDurable(original_header.getDurable)
+        header.setPriority(original_header.getPriority)
+        header.setTtl(original_header.getTtl)
+      }
+    }
+    header.setDeliveryCount(UnsignedInteger.valueOf(delivery_count))
+    header.setFirstAcquirer(false)
+
+    val section = new MessageImpl
+    section.setHeader(header)
+    val header_buffer = AmqpMessage.encode(section)
+
+    val remaining = original.length - header_size
+    val rc = new Buffer(header_buffer.length + remaining)
+    System.arraycopy(header_buffer.data, header_buffer.offset, rc.data, 0, header_buffer.length)
+    System.arraycopy(original.data, original.offset + header_size, rc.data, header_buffer.length, remaining)
+    rc
+  }
+
+
+  /**
+   * Creates a copy of the message with an entry added to the footer.  The
+   * footer is the last section of the message so only it needs to be
+   * re-encoded.
+   */
+  def with_footer_property(key:AnyRef, value:AnyRef):AmqpMessage = {
+    val original = encoded
+    if( sections == null ) {
+      val message = AmqpMessage.decode(original)
+      if( message.getFooter == null ) {
+        message.setFooter(new Footer(new java.util.HashMap[AnyRef,AnyRef]))
+      }
+      message.getFooter.getValue.asInstanceOf[java.util.Map[AnyRef,AnyRef]].put(key, value)
+      return new AmqpMessage(null, message)
+    }
+
+    val map = new java.util.HashMap[AnyRef,AnyRef]
+    if( footer != null ) {
+      map.putAll(footer.getValue.asInstanceOf[java.util.Map[AnyRef,AnyRef]])
+    }
+    map.put(key, value)
+    val section = new MessageImpl
+    section.setFooter(new Footer(map))
+    val footer_buffer = AmqpMessage.encode(section)
+
+    val kept = if( sections.contains(AmqpSections.FOOTER) ) {
+      sections.offset(AmqpSections.FOOTER) - original.offset
+    } else {
+      original.length
+    }
+    val rc = new Buffer(kept + footer_buffer.length)
+    System.arraycopy(original.data, original.offset, rc.data, 0, kept)
+    System.arraycopy(footer_buffer.data, footer_buffer.offset, rc.data, kept, footer_buffer.length)
+    new AmqpMessage(rc, null)
+  }
+
+  override def message_group = {
+    val properties = this.properties
+    if( properties == null ) null else properties.getGroupId
+  }
 
   def getBodyAs[T](toType : Class[T]): T = {
     if (toType == classOf[Buffer]) {
@@ -125,8 +269,8 @@ class AmqpMessage(private var encoded_buffer:Buffer, private var decoded_message
   }.asInstanceOf[T]
 
   def getLocalConnectionId: AnyRef = {
-    if ( decoded.getDeliveryAnnotations!=null ) {
-      decoded.getDeliveryAnnotations.getValue.get(SENDER_CONTAINER_KEY) match {
+    if ( delivery_annotations!=null ) {
+      delivery_annotations.getValue.get(SENDER_CONTAINER_KEY) match {
         case x:String => x
         case _ => null
       }
@@ -136,16 +280,16 @@ class AmqpMessage(private var encoded_buffer:Buffer, private var decoded_message
   }
 
   def getApplicationProperty(name:String) = {
-    if( decoded.getApplicationProperties !=null ) {
-      decoded.getApplicationProperties.getValue.get(name).asInstanceOf[AnyRef]
+    if( application_properties !=null ) {
+      application_properties.getValue.get(name).asInstanceOf[AnyRef]
     } else {
       null
     }
   }
 
   def getMessageAnnotationProperty(name:String) = {
-    if( decoded.getMessageAnnotations !=null ) {
-      var ma = decoded.getMessageAnnotations
+    if( message_annotations !=null ) {
+      var ma = message_annotations
       var rc = ma.getValue.get(name)
       if( rc == null ) {
         rc = ma.getValue.get(org.apache.qpid.proton.amqp.Symbol.valueOf(name))
@@ -157,32 +301,34 @@ class AmqpMessage(private var encoded_buffer:Buffer, private var decoded_message
   }
 
   def getDeliveryAnnotationProperty(name:String) = {
-    if( decoded.getDeliveryAnnotations !=null ) {
-      decoded.getDeliveryAnnotations.getValue.get(name).asInstanceOf[AnyRef]
+    if( delivery_annotations !=null ) {
+      delivery_annotations.getValue.get(name).asInstanceOf[AnyRef]
     } else {
       null
     }
   }
   def getFooterProperty(name:AnyRef) = {
-    if( decoded.getFooter !=null ) {
-      decoded.getFooter.getValue.get(name).asInstanceOf[AnyRef]
+    if( footer !=null ) {
+      footer.getValue.get(name).asInstanceOf[AnyRef]
     } else {
       null
     }
   }
 
   def getHeader[T](default:T)(func: (Header)=>T) = {
-    if( decoded.getHeader == null ) {
+    val header = this.header
+    if( header == null ) {
       default
     } else {
-      func(decoded.getHeader)
+      func(header)
     }
   }
   def getProperties[T](default:T)(func: (Properties)=>T) = {
-    if( decoded.getProperties == null ) {
+    val properties = this.properties
+    if( properties == null ) {
       default
     } else {
-      func(decoded.getProperties)
+      func(properties)
     }
   }
 
@@ -198,7 +344,7 @@ class AmqpMessage(private var encoded_buffer:Buffer, private var decoded_message
       case "JMSDeliveryMode" =>
         getHeader[AnyRef](null)(header=> if(header.getDurable) "PERSISTENT" else "NON_PERSISTENT" )
       case "JMSPriority" =>
-        new java.lang.Integer(decoded.getPriority)
+        new java.lang.Integer(decoded_section(AmqpSections.HEADER).getPriority)
       case "JMSType" =>
         getMessageAnnotationProperty("x-opt-jms-type")
       case "JMSMessageID" =>
@@ -810,32 +810,24 @@ class AmqpProtocolHandler extends ProtocolHandler {
 
       // Update the message to attach some producer context to the footer..
       // of the message.
-      val dm = m.decoded
-      val footer_map:java.util.Map[AnyRef,AnyRef] = if( dm.getFooter == null ) {
-        val map = new java.util.HashMap[AnyRef,AnyRef]
-        dm.setFooter(new Footer(map))
-        map
-      } else {
-        dm.getFooter.getValue.asInstanceOf[java.util.Map[AnyRef,AnyRef]]
-      }
-      footer_map.put(ORIGIN, session_id)
-      val message = new AmqpMessage(null, dm)
+      val message = m.with_footer_property(ORIGIN, session_id)
 
       val d = new Delivery
       d.message = message
       d.size = message.encoded.length
-      var decoded = message.decoded
-      if (decoded.getProperties != null) {
-        if (decoded.getProperties.getAbsoluteExpiryTime != null) {
-          d.expiration = decoded.getProperties.getAbsoluteExpiryTime.getTime
+      val properties = message.properties
+      if (properties != null) {
+        if (properties.getAbsoluteExpiryTime != null) {
+          d.expiration = properties.getAbsoluteExpiryTime.getTime
         }
       }
-      if (decoded.getHeader != null) {
-        if (decoded.getHeader.getDurable != null) {
-          d.persistent = decoded.getHeader.getDurable.booleanValue()
+      val header = message.header
+      if (header != null) {
+        if (header.getDurable != null) {
+          d.persistent = header.getDurable.booleanValue()
         }
-        if (decoded.getHeader.getDeliveryCount != null) {
-          d.redeliveries = decoded.getHeader.getDeliveryCount.shortValue()
+        if (header.getDeliveryCount != null) {
+          d.redeliveries = header.getDeliveryCount.shortValue()
         }
       }
 
@@ -986,7 +978,7 @@ class AmqpProtocolHandler extends ProtocolHandler {
 
     var nextTagId = 0L;
     val tagCache = new util.HashSet[Array[Byte]]();
-    val unsettled = new HashMap[AsciiBuffer, org.apache.qpid.proton.engine.Delivery]()
+    val unsettled = new UnackedIndex[AsciiBuffer, org.apache.qpid.proton.engine.Delivery]()
 
     def nextTag: Array[Byte] = {
       var rc: Array[Byte] = null
@@ -1035,8 +1027,14 @@ class AmqpProtocolHandler extends ProtocolHandler {
             }
 
             val (session, apollo_delivery) = value
-            val message = if (apollo_delivery.message.codec == AmqpMessageCodec) {
-              apollo_delivery.message.asInstanceOf[AmqpMessage].decoded
+            val buffer = if (apollo_delivery.message.codec == AmqpMessageCodec) {
+              // Pass the original encoding through, only the header changes on redeliveries.
+              val message = apollo_delivery.message.asInstanceOf[AmqpMessage]
+              if (apollo_delivery.redeliveries > 0) {
+                message.encoded_redelivery(apollo_delivery.redeliveries)
+              } else {
+                message.encoded
+              }
             } else {
               val (body, content_type) = protocol_convert match {
                 case "body" => (apollo_delivery.message.getBodyAs(classOf[Buffer]), "protocol/" + apollo_delivery.message.codec.id + ";conv=body")
@@ -1053,15 +1051,13 @@ class AmqpProtocolHandler extends ProtocolHandler {
               if (apollo_delivery.expiration > 0) {
                 message.setExpiryTime(apollo_delivery.expiration)
               }
-              message
-            }
-
-            if (apollo_delivery.redeliveries > 0) {
-              message.setDeliveryCount(apollo_delivery.redeliveries)
-              message.setFirstAcquirer(false)
+              if (apollo_delivery.redeliveries > 0) {
+                message.setDeliveryCount(apollo_delivery.redeliveries)
+                message.setFirstAcquirer(false)
+              }
+              new AmqpMessage(null, message).encoded
             }
 
-            val buffer = new AmqpMessage(null, message).encoded;
             val proton_delivery = if (presettle) {
               sender.delivery(EMPTY_BYTE_ARRAY, 0, 0).asInstanceOf[DeliveryImpl];
             } else {
@@ -1162,6 +1158,7 @@ class AmqpProtocolHandler extends ProtocolHandler {
 
       val tag = delivery.getTag();
       if( tag !=null && tag.length>0 ) {
+          unsettled.remove(new AsciiBuffer(tag))
           checkinTag(tag);
       }
 
@@ -1173,6 +1170,9 @@ class AmqpProtocolHandler extends ProtocolHandler {
         if( apollo_delivery.ack != null ) {
           apollo_delivery.ack(ackType, uow)
         }
+        // we are done with the message, balance the retain done in offer.
+        delivery.setContext(null)
+        apollo_delivery.message.release()
         delivery.settle()
       }
       pump_out
@@ -1206,6 +1206,7 @@ class AmqpProtocolHandler extends ProtocolHandler {
           if( delivery.ack !=null ) {
             delivery.ack(Undelivered, null)
           }
+          delivery.message.release()
         })
       }
     }
@@ -1216,15 +1217,20 @@ class AmqpProtocolHandler extends ProtocolHandler {
         if( delivery.ack!=null ) {
           delivery.ack(result, null)
         }
+        delivery.message.release()
       }
 
-      for( v <- unsettled.values ) {
+      val batch = new AckBatch
+      unsettled.foreach { (_, v) =>
         val value = v.getContext.asInstanceOf[(Session[Delivery], Delivery)]
         if( value!=null ) {
           v.setContext(null)
-          reject(value, Delivered)
+          batch += value._2.ack
+          value._2.message.release()
         }
       }
+      unsettled.clear
+      batch.ack(Delivered, null)
 
       var next = session_manager.poll
       while( next!=null ) {
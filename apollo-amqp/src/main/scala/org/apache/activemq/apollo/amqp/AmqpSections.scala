@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.amqp
+
+import org.fusesource.hawtbuf.Buffer
+
+object AmqpSections {
+
+  // The descriptor codes of the message sections.
+  final val HEADER = 0x70
+  final val DELIVERY_ANNOTATIONS = 0x71
+  final val MESSAGE_ANNOTATIONS = 0x72
+  final val PROPERTIES = 0x73
+  final val APPLICATION_PROPERTIES = 0x74
+  final val DATA = 0x75
+  final val AMQP_SEQUENCE = 0x76
+  final val AMQP_VALUE = 0x77
+  final val FOOTER = 0x78
+
+  final val SECTION_COUNT = FOOTER - HEADER + 1
+
+  val SYMBOLS = Map(
+    "amqp:header:list" -> HEADER,
+    "amqp:delivery-annotations:map" -> DELIVERY_ANNOTATIONS,
+    "amqp:message-annotations:map" -> MESSAGE_ANNOTATIONS,
+    "amqp:properties:list" -> PROPERTIES,
+    "amqp:application-properties:map" -> APPLICATION_PROPERTIES,
+    "amqp:data:binary" -> DATA,
+    "amqp:amqp-sequence:list" -> AMQP_SEQUENCE,
+    "amqp:amqp-value:*" -> AMQP_VALUE,
+    "amqp:footer:map" -> FOOTER
+  )
+
+  /**
+   * Locates the sections of an encoded message by hopping over the
+   * encoded values without decoding them.
+   *
+   * @return null if the buffer does not hold a sequence of well known
+   *         message sections.
+   */
+  def scan(buffer:Buffer):AmqpSections = {
+    val rc = new AmqpSections(buffer)
+    val scanner = new Scanner(buffer)
+    var pos = buffer.offset
+    while( pos < scanner.end ) {
+      if( scanner.u8(pos) != 0x00 ) {
+        return null
+      }
+      val code = scanner.descriptor_code(pos+1)
+      val size = scanner.value_size(pos)
+      if( code < HEADER || code > FOOTER || size <= 0 ) {
+        return null
+      }
+      val index = code - HEADER
+      if( rc.offsets(index) < 0 ) {
+        rc.offsets(index) = pos
+        rc.sizes(index) = size
+      } else if( rc.offsets(index) + rc.sizes(index) == pos ) {
+        // data and sequence body sections can be repeated.
+        rc.sizes(index) += size
+      } else {
+        return null
+      }
+      pos += size
+    }
+    rc
+  }
+
+  private class Scanner(buffer:Buffer) {
+    val data = buffer.data
+    val end = buffer.offset + buffer.length
+
+    def u8(at:Int) = {
+      if( at >= end ) {
+        throw new IndexOutOfBoundsException
+      }
+      data(at) & 0xFF
+    }
+    def u32(at:Int) = (u8(at) << 24) | (u8(at+1) << 16) | (u8(at+2) << 8) | u8(at+3)
+
+    /**
+     * @return the section code of the descriptor at pos or -1.
+     */
+    def descriptor_code(pos:Int):Int = try {
+      u8(pos) match {
+        case 0x53 => // smallulong
+          u8(pos+1)
+        case 0x80 => // ulong
+          if( u32(pos+1) == 0 ) u32(pos+5) else -1
+        case 0xa3 | 0xb3 => // sym8, sym32
+          val size = value_size(pos)
+          val header = if( u8(pos) == 0xa3 ) 2 else 5
+          if( size < 0 ) {
+            -1
+          } else {
+            SYMBOLS.getOrElse(new String(data, pos+header, size-header, "US-ASCII"), -1)
+          }
+        case _ => -1
+      }
+    } catch {
+      case e:IndexOutOfBoundsException => -1
+    }
+
+    /**
+     * @return the number of bytes used to encode the value at pos or -1.
+     */
+    def value_size(pos:Int):Int = try {
+      val constructor = u8(pos)
+      val rc = if( constructor == 0x00 ) {
+        // described type: descriptor followed by the value.
+        val descriptor = value_size(pos+1)
+        if( descriptor < 0 ) {
+          return -1
+        }
+        val value = value_size(pos+1+descriptor)
+        if( value < 0 ) {
+          return -1
+        }
+        1 + descriptor + value
+      } else {
+        constructor >> 4 match {
+          case 0x4 => 1
+          case 0x5 => 2
+          case 0x6 => 3
+          case 0x7 => 5
+          case 0x8 => 9
+          case 0x9 => 17
+          case 0xa | 0xc | 0xe => 2 + u8(pos+1)
+          case 0xb | 0xd | 0xf =>
+            val size = u32(pos+1)
+            if( size < 0 ) {
+              return -1
+            }
+            5 + size
+          case _ => return -1
+        }
+      }
+      if( rc > end - pos ) -1 else rc
+    } catch {
+      case e:IndexOutOfBoundsException => -1
+    }
+  }
+
+}
+
+/**
+ * The location of the sections of an encoded AMQP message.
+ */
+class AmqpSections(val buffer:Buffer) {
+  import AmqpSections._
+
+  val offsets = Array.fill(SECTION_COUNT)(-1)
+  val sizes = new Array[Int](SECTION_COUNT)
+
+  def contains(code:Int) = offsets(code - HEADER) >= 0
+
+  /**
+   * @return the offset of the section in the buffer or -1.
+   */
+  def offset(code:Int) = offsets(code - HEADER)
+
+  /**
+   * @return the encoded size of the section, 0 if the message does not have it.
+   */
+  def size(code:Int) = sizes(code - HEADER)
+
+  /**
+   * @return the encoded section or null if the message does not have it.
+   */
+  def get(code:Int):Buffer = {
+    val index = code - HEADER
+    if( offsets(index) < 0 ) {
+      null
+    } else {
+      new Buffer(buffer.data, offsets(index), sizes(index))
+    }
+  }
+
+}
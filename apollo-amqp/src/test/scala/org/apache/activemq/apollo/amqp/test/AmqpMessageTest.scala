@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.amqp.test
+
+import org.apache.activemq.apollo.util.FunSuiteSupport
+import org.apache.activemq.apollo.amqp.{AmqpSections, AmqpMessage}
+import org.scalatest.matchers.ShouldMatchers
+import org.apache.qpid.proton.message.impl.MessageImpl
+import org.apache.qpid.proton.amqp.messaging.{ApplicationProperties, AmqpValue}
+
+class AmqpMessageTest extends FunSuiteSupport with ShouldMatchers {
+
+  def encode(durable:Boolean) = {
+    val message = new MessageImpl
+    if( durable ) {
+      message.setDurable(true)
+      message.setPriority(7)
+    }
+    message.setMessageId("id:1")
+    message.setSubject("hello")
+    message.setGroupId("group-1")
+    val app = new java.util.HashMap[AnyRef, AnyRef]()
+    app.put("color", "red")
+    message.setApplicationProperties(new ApplicationProperties(app))
+    message.setBody(new AmqpValue("world"))
+    AmqpMessage.encode(message)
+  }
+
+  test("redelivery splices in a new header and keeps the rest") {
+    val original = encode(true)
+    val header_size = AmqpMessage.header_section_size(original)
+    header_size should be > (0)
+
+    val message = new AmqpMessage(original, null)
+    val redelivery = AmqpMessage.decode(message.encoded_redelivery(3))
+    redelivery.getDeliveryCount.toInt should be (3)
+    redelivery.isFirstAcquirer should be (false)
+    redelivery.isDurable should be (true)
+    redelivery.getPriority.toInt should be (7)
+    redelivery.getMessageId should be ("id:1")
+    redelivery.getSubject should be ("hello")
+    redelivery.getBody.asInstanceOf[AmqpValue].getValue should be ("world")
+
+    // the original is not modified.
+    message.encoded should be theSameInstanceAs (original)
+    message.decoded.getDeliveryCount.toInt should be (0)
+  }
+
+  test("redelivery adds a header when the message did not have one") {
+    val original = encode(false)
+    AmqpMessage.header_section_size(original) should be (0)
+
+    val redelivery = AmqpMessage.decode(new AmqpMessage(original, null).encoded_redelivery(1))
+    redelivery.getDeliveryCount.toInt should be (1)
+    redelivery.getSubject should be ("hello")
+    redelivery.getBody.asInstanceOf[AmqpValue].getValue should be ("world")
+  }
+
+  test("sections are located and decoded one at a time") {
+    val original = encode(true)
+    val sections = AmqpSections.scan(original)
+    sections should not be (null)
+    sections.contains(AmqpSections.HEADER) should be (true)
+    sections.contains(AmqpSections.PROPERTIES) should be (true)
+    sections.contains(AmqpSections.APPLICATION_PROPERTIES) should be (true)
+    sections.contains(AmqpSections.AMQP_VALUE) should be (true)
+    sections.contains(AmqpSections.FOOTER) should be (false)
+
+    val message = new AmqpMessage(original, null)
+    message.message_group should be ("group-1")
+    message.getProperty("color") should be ("red")
+    message.getProperty("JMSPriority") should be (new java.lang.Integer(7))
+  }
+
+  test("footer properties are appended without re-encoding the message") {
+    val original = encode(false)
+    val message = new AmqpMessage(original, null).with_footer_property("origin", "session-1")
+    val encoded = message.encoded
+    encoded.length should be > (original.length)
+    new org.fusesource.hawtbuf.Buffer(encoded.data, encoded.offset, original.length) should be (original)
+
+    // adding to an existing footer replaces it.
+    val again = message.with_footer_property("hops", "2")
+    again.getFooterProperty("origin") should be ("session-1")
+    again.getFooterProperty("hops") should be ("2")
+    AmqpMessage.decode(again.encoded).getSubject should be ("hello")
+  }
+
+}
@@ -576,9 +576,9 @@ class BDBClient(store: BDBStore) {
     }
   }
 
-  def export_data(os:OutputStream):Option[String] = {
+  def export_data(os:OutputStream, options:ExportOptions):Option[String] = {
     try {
-      val manager = ExportStreamManager(os, 1)
+      val manager = ExportStreamManager(os, options)
 
       with_ctx() { ctx=>
         import ctx._
@@ -621,7 +621,7 @@ class BDBClient(store: BDBStore) {
   def import_data(is:InputStream):Option[String] = {
     try {
       val manager = ImportStreamManager(is)
-      if(manager.version!=1) {
+      if(manager.version!=1 && manager.version!=2) {
         return Some("Cannot import from an export file of version: "+manager.version)
       }
 
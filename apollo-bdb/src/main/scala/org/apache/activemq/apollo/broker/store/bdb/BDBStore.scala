@@ -241,8 +241,8 @@ class BDBStore(var config:BDBStoreDTO) extends DelayingStoreSupport {
    * Exports the contents of the store to the provided streams.  Each stream should contain
    * a list of framed protobuf objects with the corresponding object types.
    */
-  def export_data(os:OutputStream, cb:(Option[String])=>Unit) = write_executor {
-    cb(client.export_data(os))
+  def export_data(os:OutputStream, options:ExportOptions, cb:(Option[String])=>Unit) = write_executor {
+    cb(client.export_data(os, options))
   }
 
   /**
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.amqp.AmqpMessage;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.fusesource.hawtbuf.Buffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what the broker pays to look inside an encoded AMQP message:
+ * the full decode and the accessors used for routing and selectors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AmqpMessageBenchmark {
+
+    @Param({"64", "4096", "65536"})
+    int size;
+
+    Buffer encoded;
+
+    @Setup
+    public void setup() {
+        MessageImpl message = new MessageImpl();
+        message.setAddress("queue://benchmark");
+        message.setGroupId("group-1");
+        message.setDurable(true);
+        HashMap<String, Object> properties = new HashMap<String, Object>();
+        properties.put("color", "red");
+        properties.put("weight", 5);
+        message.setApplicationProperties(new ApplicationProperties(properties));
+        message.setBody(new Data(new Binary(Payloads.body(size).toByteArray())));
+        encoded = new AmqpMessage(null, message).encoded();
+    }
+
+    @Benchmark
+    public Object decode() {
+        return new AmqpMessage(encoded, null).decoded();
+    }
+
+    @Benchmark
+    public String message_group() {
+        return new AmqpMessage(encoded, null).message_group();
+    }
+
+    @Benchmark
+    public Object get_property() {
+        return new AmqpMessage(encoded, null).getProperty("color");
+    }
+
+    @Benchmark
+    public Buffer re_encode() {
+        return new AmqpMessage(null, new AmqpMessage(encoded, null).decoded()).encoded();
+    }
+
+}
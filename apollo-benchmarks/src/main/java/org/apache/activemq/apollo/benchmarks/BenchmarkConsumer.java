@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.broker.*;
+import org.apache.activemq.apollo.util.Scala2Java;
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.Task;
+import scala.Tuple2;
+
+import java.util.concurrent.Semaphore;
+
+import static org.fusesource.hawtdispatch.Dispatch.createQueue;
+
+/**
+ * A consumer which acks every delivery as soon as it arrives and releases
+ * a permit on a semaphore shared with the benchmark thread, so that the
+ * benchmark can wait for a batch to be fully dispatched.
+ */
+class BenchmarkConsumer extends AbstractRetainedDeliveryConsumer {
+
+    final DispatchQueue queue;
+    final Semaphore received;
+    final SessionSinkMux<Delivery> session_manager;
+
+    BenchmarkConsumer(String name, Semaphore received) {
+        this.queue = createQueue(name);
+        this.received = received;
+        this.session_manager = new SessionSinkMux<Delivery>(sink, queue, Delivery$.MODULE$, Integer.MAX_VALUE / 2, receive_buffer_size());
+    }
+
+    final Sink<Tuple2<Session<Delivery>, Delivery>> sink = new Sink<Tuple2<Session<Delivery>, Delivery>>() {
+        Task refiller;
+
+        public boolean full() {
+            return false;
+        }
+
+        public boolean offer(Tuple2<Session<Delivery>, Delivery> event) {
+            Delivery delivery = event._2();
+            session_manager.delivered(event._1(), delivery.size());
+            if (delivery.ack() != null) {
+                delivery.ack().apply(Consumed$.MODULE$, null);
+            }
+            delivery.message().release();
+            received.release();
+            return true;
+        }
+
+        public Task refiller() {
+            return refiller;
+        }
+
+        public void refiller_$eq(Task value) {
+            refiller = value;
+        }
+    };
+
+
+    public DispatchQueue dispatch_queue() {
+        return queue;
+    }
+
+    @Override
+    public boolean is_persistent() {
+        return false;
+    }
+
+    @Override
+    public boolean matches(Delivery message) {
+        return true;
+    }
+
+    public DeliverySession connect(DeliveryProducer producer) {
+        return new BenchmarkSession(producer);
+    }
+
+    class BenchmarkSession extends AbstractSessionSinkFilter<Delivery> implements DeliverySession {
+
+        final DeliveryProducer producer;
+        final SessionSink<Delivery> downstream;
+        boolean closed = false;
+
+        BenchmarkSession(DeliveryProducer producer) {
+            producer.dispatch_queue().assertExecuting();
+            this.producer = producer;
+            downstream = session_manager.open(producer.dispatch_queue());
+            retain();
+        }
+
+        @Override
+        public SessionSink<Delivery> downstream_session_sink() {
+            return downstream;
+        }
+
+        @Override
+        public DeliveryProducer producer() {
+            return producer;
+        }
+
+        @Override
+        public DeliveryConsumer consumer() {
+            return BenchmarkConsumer.this;
+        }
+
+        public void close() {
+            producer.dispatch_queue().assertExecuting();
+            if (!closed) {
+                closed = true;
+                session_manager.close(downstream, Scala2Java.<Delivery>noopFn1());
+                release();
+            }
+        }
+
+        @Override
+        public boolean offer(Delivery delivery) {
+            if (full()) {
+                return false;
+            } else {
+                delivery.message().retain();
+                return downstream.offer(delivery);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.broker.Delivery;
+import org.apache.activemq.apollo.broker.DeliveryProducerRoute;
+import org.apache.activemq.apollo.broker.Router;
+import org.apache.activemq.apollo.broker.protocol.RawMessage;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.Task;
+
+import static org.fusesource.hawtdispatch.Dispatch.createQueue;
+
+/**
+ * A producer route that sends fixed size raw messages as fast as the
+ * route's flow control allows.
+ */
+class BenchmarkProducer extends DeliveryProducerRoute {
+
+    final DispatchQueue queue;
+    final Buffer payload;
+    long remaining = 0;
+
+    BenchmarkProducer(Router router, String name, Buffer payload) {
+        super(router);
+        this.queue = createQueue(name);
+        this.payload = payload;
+        this.refiller_$eq(new Task() {
+            public void run() {
+                pump();
+            }
+        });
+    }
+
+    @Override
+    public DispatchQueue dispatch_queue() {
+        return queue;
+    }
+
+    @Override
+    public int send_buffer_size() {
+        return 1024 * 64;
+    }
+
+    /**
+     * Asynchronously sends the given number of messages.
+     */
+    void send(final long count) {
+        queue.execute(new Task() {
+            public void run() {
+                remaining += count;
+                pump();
+            }
+        });
+    }
+
+    private void pump() {
+        while (remaining > 0 && !full()) {
+            Delivery delivery = new Delivery();
+            delivery.message_$eq(new RawMessage(payload));
+            delivery.size_$eq(payload.length());
+            offer(delivery);
+            remaining--;
+        }
+    }
+
+}
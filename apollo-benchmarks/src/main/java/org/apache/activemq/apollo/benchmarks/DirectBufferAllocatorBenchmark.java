@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.broker.store.AllocatorStats;
+import org.apache.activemq.apollo.broker.store.DirectBuffer;
+import org.apache.activemq.apollo.broker.store.FileDirectBufferAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the tree and the size class allocation strategies of the
+ * FileDirectBufferAllocator used to hold large message bodies off heap.
+ * The churn benchmark keeps a window of live buffers of mixed sizes and
+ * frees them in random order, the fragmentation it leaves behind is
+ * printed when the trial ends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DirectBufferAllocatorBenchmark {
+
+    static final int WINDOW = 1024;
+
+    @Param({"tree", "size-class"})
+    String strategy;
+
+    @Param({"1024", "65536"})
+    int size;
+
+    File file;
+    FileDirectBufferAllocator allocator;
+    DirectBuffer[] live = new DirectBuffer[WINDOW];
+    Random random = new Random(0);
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("direct-buffer", "-benchmark");
+        allocator = new FileDirectBufferAllocator(file, "size-class".equals(strategy));
+        for (int i = 0; i < live.length; i++) {
+            live[i] = allocator.alloc(nextSize());
+        }
+    }
+
+    @TearDown
+    public void teardown() {
+        AllocatorStats stats = allocator.stats();
+        System.out.println(String.format("%s: internal fragmentation %.3f, external fragmentation %.3f, high water %d",
+                strategy, stats.internal_fragmentation(), stats.external_fragmentation(), stats.high_water()));
+        for (DirectBuffer buffer : live) {
+            buffer.release();
+        }
+        allocator.close();
+        file.delete();
+    }
+
+    private int nextSize() {
+        // spread the requests between half and the full size.
+        return size / 2 + random.nextInt(size / 2) + 1;
+    }
+
+    @Benchmark
+    public DirectBuffer allocRelease() {
+        DirectBuffer rc = allocator.alloc(size);
+        rc.release();
+        return rc;
+    }
+
+    @Benchmark
+    public DirectBuffer churn() {
+        int i = random.nextInt(live.length);
+        live[i].release();
+        live[i] = allocator.alloc(nextSize());
+        return live[i];
+    }
+
+}
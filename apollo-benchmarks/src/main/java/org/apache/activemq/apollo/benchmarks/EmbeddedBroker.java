@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.broker.*;
+import org.apache.activemq.apollo.broker.security.SecurityContext;
+import org.apache.activemq.apollo.dto.BrokerDTO;
+import org.apache.activemq.apollo.dto.VirtualHostDTO;
+import org.apache.activemq.apollo.util.Scala2Java;
+import org.apache.activemq.apollo.util.UnitFn1;
+import org.fusesource.hawtdispatch.Task;
+import scala.Option;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A broker without connectors or a store whose router the benchmarks
+ * attach producers and consumers to directly, so that the measurements
+ * isolate the destination dispatch paths from protocol handling.
+ */
+class EmbeddedBroker {
+
+    final Broker broker = new Broker();
+    final SecurityContext security = new SecurityContext();
+    // can be customized before the broker is started.
+    final VirtualHostDTO host_config = new VirtualHostDTO();
+    VirtualHost host;
+
+    void start() throws InterruptedException {
+        host_config.id = "default";
+        host_config.host_names.add("localhost");
+
+        BrokerDTO config = new BrokerDTO();
+        config.virtual_hosts.add(host_config);
+        broker.config_$eq(config);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        broker.start(new Task() {
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+        host = broker.default_virtual_host();
+    }
+
+    void stop() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        broker.stop(new Task() {
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    void bind(final BindAddress address, final DeliveryConsumer consumer) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Option<String>> error = new AtomicReference<Option<String>>();
+        host.dispatch_queue().execute(new Task() {
+            public void run() {
+                host.router().bind(new BindAddress[]{address}, consumer, security, Scala2Java.toScala(new UnitFn1<Option<String>>() {
+                    @Override
+                    public void call(Option<String> rc) {
+                        error.set(rc);
+                        done.countDown();
+                    }
+                }));
+            }
+        });
+        done.await();
+        check(error.get());
+    }
+
+    void unbind(final BindAddress address, final DeliveryConsumer consumer) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        host.dispatch_queue().execute(new Task() {
+            public void run() {
+                host.router().unbind(new BindAddress[]{address}, consumer, false, security);
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    void connect(final ConnectAddress address, final DeliveryProducerRoute producer) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Option<String>> error = new AtomicReference<Option<String>>();
+        host.dispatch_queue().execute(new Task() {
+            public void run() {
+                error.set(host.router().connect(new ConnectAddress[]{address}, producer, security));
+                done.countDown();
+            }
+        });
+        done.await();
+        check(error.get());
+    }
+
+    private static void check(Option<String> error) {
+        if (error != null && error.isDefined()) {
+            throw new IllegalStateException(error.get());
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.openwire.codec.OpenWireFormat;
+import org.apache.activemq.apollo.openwire.command.ActiveMQQueue;
+import org.apache.activemq.apollo.openwire.command.ActiveMQTextMessage;
+import org.apache.activemq.apollo.openwire.command.MessageId;
+import org.apache.activemq.apollo.openwire.command.ProducerId;
+import org.fusesource.hawtbuf.Buffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures OpenWire marshaling and unmarshaling of a text message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OpenwireFormatBenchmark {
+
+    @Param({"64", "4096"})
+    int size;
+
+    @Param({"true", "false"})
+    boolean tight;
+
+    OpenWireFormat format;
+    ActiveMQTextMessage message;
+    Buffer marshalled;
+
+    @Setup
+    public void setup() throws Exception {
+        format = new OpenWireFormat();
+        format.setTightEncodingEnabled(tight);
+
+        ProducerId producer = new ProducerId("ID:benchmark-1:1:1");
+        message = new ActiveMQTextMessage();
+        message.setProducerId(producer);
+        message.setMessageId(new MessageId(producer, 1));
+        message.setDestination(new ActiveMQQueue("benchmark"));
+        message.setPersistent(true);
+        message.setProperty("color", "red");
+        message.setProperty("weight", 5);
+        message.setText(Payloads.body(size).ascii().toString());
+
+        marshalled = format.marshal(message);
+    }
+
+    @Benchmark
+    public Buffer marshal() throws Exception {
+        return format.marshal(message);
+    }
+
+    @Benchmark
+    public Object unmarshal() throws Exception {
+        return format.unmarshal(marshalled);
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.util.path.Path;
+import org.apache.activemq.apollo.util.path.PathMap;
+import org.apache.activemq.apollo.util.path.PathParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures PathMap lookups, which the router and the wildcard
+ * subscription matching perform for every new destination or message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PathMapBenchmark {
+
+    @Param({"100", "10000"})
+    int destinations;
+
+    @Param({"0", "10"})
+    int wildcards;
+
+    PathMap<String> map;
+    Path[] lookups;
+    int next;
+
+    @Setup
+    public void setup() {
+        PathParser parser = new PathParser();
+        map = new PathMap<String>();
+        for (int i = 0; i < destinations; i++) {
+            map.put(parser.decode_path("benchmark.region" + (i % 10) + ".dest" + i), "dest" + i);
+        }
+        for (int i = 0; i < wildcards; i++) {
+            map.put(parser.decode_path("benchmark.region" + i + ".*"), "wildcard" + i);
+        }
+        map.put(parser.decode_path("benchmark.**"), "all");
+
+        lookups = new Path[1024];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = parser.decode_path("benchmark.region" + (i % 10) + ".dest" + (i % destinations));
+        }
+    }
+
+    @Benchmark
+    public Set<String> get() {
+        return map.get(lookups[next++ & (lookups.length - 1)]);
+    }
+
+}
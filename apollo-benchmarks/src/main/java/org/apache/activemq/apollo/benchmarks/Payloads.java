@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.fusesource.hawtbuf.AsciiBuffer;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.ByteArrayOutputStream;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Builds the message bodies and frames shared by the benchmarks.
+ */
+class Payloads {
+
+    static Buffer body(int size) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) 'x');
+        return new Buffer(data);
+    }
+
+    /**
+     * @return an encoded STOMP SEND frame carrying a few application
+     *         headers that the selector benchmarks can filter on.
+     */
+    static Buffer stomp_send(String destination, int size) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(size + 256);
+        new AsciiBuffer(
+            "SEND\n" +
+            "destination:" + destination + "\n" +
+            "content-length:" + size + "\n" +
+            "persistent:true\n" +
+            "receipt:1\n" +
+            "color:red\n" +
+            "region:us-east-1\n" +
+            "\n").writeTo(os);
+        body(size).writeTo(os);
+        os.write(0);
+        return os.toBuffer();
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.broker.SimpleAddress;
+import org.apache.activemq.apollo.util.path.Path$;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Queue enqueue to consumer dispatch path: a producer route
+ * sends batches of messages to a queue which load balances them across
+ * the bound consumers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QueueBenchmark {
+
+    static final int BATCH = 1000;
+
+    @Param({"256", "4096"})
+    int size;
+
+    @Param({"1", "4"})
+    int consumers;
+
+    EmbeddedBroker broker;
+    BenchmarkProducer producer;
+    Semaphore received = new Semaphore(0);
+
+    @Setup
+    public void setup() throws Exception {
+        broker = new EmbeddedBroker();
+        broker.start();
+
+        SimpleAddress address = new SimpleAddress("queue", Path$.MODULE$.create("benchmark"));
+        for (int i = 0; i < consumers; i++) {
+            broker.bind(address, new BenchmarkConsumer("benchmark consumer " + i, received));
+        }
+        producer = new BenchmarkProducer(broker.host.router(), "benchmark producer", Payloads.body(size));
+        broker.connect(address, producer);
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        broker.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void enqueue_dispatch() throws InterruptedException {
+        producer.send(BATCH);
+        received.acquire(BATCH);
+    }
+
+}
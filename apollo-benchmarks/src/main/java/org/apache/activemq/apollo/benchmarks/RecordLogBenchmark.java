@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.broker.store.leveldb.RecordLog;
+import org.apache.activemq.apollo.broker.store.leveldb.RecordLog$;
+import org.apache.activemq.apollo.util.Fn1;
+import org.apache.activemq.apollo.util.Scala2Java;
+import org.fusesource.hawtbuf.Buffer;
+import org.openjdk.jmh.annotations.*;
+import scala.Option;
+import scala.Tuple2;
+import scala.collection.JavaConversions;
+import scala.collection.Seq;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the LevelDB store journal: appending units of work and reading
+ * records back out of completed and current log files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecordLogBenchmark {
+
+    static final int LOG_SIZE = 1024 * 1024 * 16;
+    static final int PRELOADED = LOG_SIZE * 4;
+
+    @Param({"256", "4096", "102400"})
+    int size;
+
+    File directory;
+    RecordLog log;
+    Seq<Buffer> record;
+    long[] positions;
+    Random random = new Random(0);
+
+    @Setup
+    public void setup() {
+        record = JavaConversions.asScalaBuffer(Arrays.asList(Payloads.body(size)));
+    }
+
+    // Every iteration gets a new log so that the appends of the earlier
+    // iterations don't keep growing the journal on disk.
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        directory = File.createTempFile("record-log", "-benchmark");
+        directory.delete();
+        log = new RecordLog(directory, ".log");
+        log.logSize_$eq(LOG_SIZE);
+        log.open();
+
+        // Preload a few log files worth of records so that the reads
+        // are mostly served from completed log files.
+        positions = new long[PRELOADED / (size + RecordLog$.MODULE$.LOG_HEADER_SIZE())];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = append();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        log.close();
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public long append() {
+        return log.appender(Scala2Java.toScala(new Fn1<RecordLog.LogAppender, Long>() {
+            @Override
+            public Long apply(RecordLog.LogAppender appender) {
+                Tuple2<?, ?> rc = appender.append((byte) 1, record);
+                return (Long) rc._1();
+            }
+        }));
+    }
+
+    @Benchmark
+    public Option<Buffer> read() {
+        return log.read(positions[random.nextInt(positions.length)], size);
+    }
+
+}
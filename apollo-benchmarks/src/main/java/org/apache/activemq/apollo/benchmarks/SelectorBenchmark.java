@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.filter.BooleanExpression;
+import org.apache.activemq.apollo.selector.SelectorParser;
+import org.apache.activemq.apollo.stomp.StompCodec$;
+import org.apache.activemq.apollo.stomp.StompFrameMessage;
+import org.fusesource.hawtbuf.Buffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures JMS selector evaluation against a STOMP message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SelectorBenchmark {
+
+    @Param({
+        "color = 'red'",
+        "color = 'red' AND region LIKE 'us-%'",
+        "color IN ('blue', 'green', 'red') OR region = 'eu-west-1'",
+        "missing IS NULL AND NOT (color <> 'red')"
+    })
+    String selector;
+
+    BooleanExpression expression;
+    StompFrameMessage message;
+
+    @Setup
+    public void setup() throws Exception {
+        expression = SelectorParser.parse(selector);
+        Buffer frame = Payloads.stomp_send("/queue/benchmark", 64);
+        message = new StompFrameMessage(StompCodec$.MODULE$.decode_frame(frame, null, true));
+        if (!expression.matches(message)) {
+            throw new IllegalStateException("Selector should match the benchmark message: " + selector);
+        }
+    }
+
+    @Benchmark
+    public boolean matches() throws Exception {
+        return expression.matches(message);
+    }
+
+}
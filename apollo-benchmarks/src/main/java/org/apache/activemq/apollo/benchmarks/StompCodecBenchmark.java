@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.broker.store.MessageRecord;
+import org.apache.activemq.apollo.stomp.StompCodec;
+import org.apache.activemq.apollo.stomp.StompCodec$;
+import org.apache.activemq.apollo.stomp.StompFrame;
+import org.apache.activemq.apollo.stomp.StompFrameMessage;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures STOMP frame decoding and encoding, both the wire encoding done
+ * by the StompCodec and the MessageRecord encoding used when storing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StompCodecBenchmark {
+
+    @Param({"64", "4096"})
+    int size;
+
+    Buffer encoded;
+    StompFrame frame;
+    StompCodec codec;
+    DataByteArrayOutputStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        encoded = Payloads.stomp_send("/queue/benchmark", size);
+        frame = decode();
+        codec = new StompCodec();
+        out = new DataByteArrayOutputStream(size + 1024);
+    }
+
+    @Benchmark
+    public StompFrame decode() {
+        // decode_frame consumes the buffer it is handed, so give it a slice.
+        return StompCodec$.MODULE$.decode_frame(encoded.slice(0, encoded.length()), null, true);
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        out.reset();
+        codec.encode(frame, out);
+        return out.position();
+    }
+
+    @Benchmark
+    public MessageRecord encode_message_record() {
+        return StompCodec$.MODULE$.encode(new StompFrameMessage(frame));
+    }
+
+    @Benchmark
+    public StompFrameMessage decode_message_record() {
+        MessageRecord record = new MessageRecord();
+        record.buffer_$eq(encoded.slice(0, encoded.length() - 1));
+        return StompCodec$.MODULE$.decode(record);
+    }
+
+}
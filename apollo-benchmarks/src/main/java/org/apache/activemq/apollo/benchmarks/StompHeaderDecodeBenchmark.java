@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.stomp.Stomp$;
+import org.apache.activemq.apollo.stomp.StompCodec$;
+import org.apache.activemq.apollo.stomp.StompFrame;
+import org.fusesource.hawtbuf.AsciiBuffer;
+import org.fusesource.hawtbuf.Buffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding STOMP frames and looking up the headers the protocol
+ * handler needs, mostly to track the bytes allocated per decoded frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StompHeaderDecodeBenchmark {
+
+    static final Stomp$ STOMP = Stomp$.MODULE$;
+
+    Buffer ack;
+    Buffer send;
+
+    @Setup
+    public void setup() throws IOException {
+        ack = new AsciiBuffer(
+            "ACK\n" +
+            "subscription:0\n" +
+            "message-id:ID:broker-1:1:1\n" +
+            "\n" +
+            "\u0000");
+        send = Payloads.stomp_send("/queue/benchmark", 64);
+    }
+
+    static StompFrame decode(Buffer frame) {
+        // decode_frame consumes the buffer it is handed, so give it a slice.
+        return StompCodec$.MODULE$.decode_frame(frame.slice(0, frame.length()), null, true);
+    }
+
+    @Benchmark
+    public void decode_ack(Blackhole bh) {
+        StompFrame frame = decode(ack);
+        bh.consume(frame.header(STOMP.CREDIT()));
+        bh.consume(frame.header(STOMP.MESSAGE_ID()));
+        bh.consume(frame.header(STOMP.SUBSCRIPTION()));
+        bh.consume(frame.header(STOMP.TRANSACTION()));
+        bh.consume(frame.header(STOMP.RECEIPT_REQUESTED()));
+    }
+
+    @Benchmark
+    public void decode_send(Blackhole bh) {
+        StompFrame frame = decode(send);
+        bh.consume(frame.header(STOMP.DESTINATION()));
+        bh.consume(frame.header(STOMP.TRANSACTION()));
+        bh.consume(frame.header(STOMP.RECEIPT_REQUESTED()));
+        bh.consume(frame.header(STOMP.REPLY_TO()));
+        bh.consume(frame.header(STOMP.TTL()));
+        bh.consume(frame.header(STOMP.MESSAGE_ID()));
+        bh.consume(frame.header(STOMP.RETAIN()));
+        bh.consume(frame.size());
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.broker.*;
+import org.apache.activemq.apollo.broker.store.QueueEntryRecord;
+import org.apache.activemq.apollo.util.list.LinkedNodeList;
+import org.apache.activemq.apollo.util.path.Path$;
+import org.openjdk.jmh.annotations.*;
+import scala.Tuple2;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the heap a deep persistent queue spends per swapped out message:
+ * `swapped` keeps a QueueEntry in the Swapped state per message like the
+ * lazy swap collapse does close to the consumers, `packed` keeps the same
+ * messages in the PackedEntries of an aggressively collapsed swapped range.
+ * With the GC profiler, `gc.alloc.rate.norm` is the number of bytes each
+ * message costs.  The packed figure includes the garbage of growing the
+ * arrays so it is an upper bound.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SwappedEntryMemoryBenchmark {
+
+    static final int MESSAGES = 10000;
+
+    EmbeddedBroker broker;
+    Queue queue;
+    QueueEntryRecord[] records = new QueueEntryRecord[MESSAGES];
+
+    @Setup
+    public void setup() throws Exception {
+        broker = new EmbeddedBroker();
+        broker.start();
+
+        SimpleAddress address = new SimpleAddress("queue", Path$.MODULE$.create("benchmark"));
+        broker.connect(address, new BenchmarkProducer(broker.host.router(), "benchmark producer", Payloads.body(256)));
+        queue = (Queue) ((LocalRouter) broker.host.router()).local_queue_domain().destination_index().get("benchmark");
+
+        long position = 0;
+        for (int i = 0; i < MESSAGES; i++) {
+            QueueEntryRecord record = new QueueEntryRecord();
+            record.entry_seq_$eq(i + 1);
+            record.message_key_$eq(i + 1);
+            record.message_locator_$eq(new AtomicReference<Object>(new Tuple2<Object, Object>(position, 1024)));
+            record.size_$eq(1024);
+            record.sender_$eq(scala.collection.immutable.List$.MODULE$.<org.fusesource.hawtbuf.Buffer>empty());
+            records[i] = record;
+            position += 1024;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void reset() {
+        // the swapped entries count themselves on the queue.
+        queue.individual_swapped_items_$eq(0);
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        broker.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public Object swapped() {
+        LinkedNodeList<QueueEntry> entries = new LinkedNodeList<QueueEntry>();
+        for (QueueEntryRecord record : records) {
+            entries.addLast(new QueueEntry(queue, record.entry_seq()).init(record));
+        }
+        return entries;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public Object packed() {
+        PackedEntries packed = new PackedEntries(16);
+        for (QueueEntryRecord record : records) {
+            packed.add(record);
+        }
+        return packed;
+    }
+
+}
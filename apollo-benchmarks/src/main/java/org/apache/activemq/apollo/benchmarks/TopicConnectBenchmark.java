@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.broker.SimpleAddress;
+import org.apache.activemq.apollo.dto.TopicDTO;
+import org.apache.activemq.apollo.util.path.Path$;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to subscribe to and unsubscribe from a topic
+ * which already has many producers and subscriptions.  With the direct fan
+ * out every subscription gets linked to every producer, with the shared fan
+ * out it only gets linked to the topic's fan out stage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TopicConnectBenchmark {
+
+    @Param({"10", "1000"})
+    int producers;
+
+    @Param({"10", "1000"})
+    int consumers;
+
+    @Param({"direct", "shared"})
+    String fan_out;
+
+    EmbeddedBroker broker;
+    SimpleAddress address = new SimpleAddress("topic", Path$.MODULE$.create("benchmark"));
+
+    @Setup
+    public void setup() throws Exception {
+        broker = new EmbeddedBroker();
+        TopicDTO topic = new TopicDTO();
+        topic.id = "benchmark";
+        topic.fan_out = fan_out;
+        broker.host_config.topics.add(topic);
+        broker.start();
+
+        for (int i = 0; i < consumers; i++) {
+            broker.bind(address, new BenchmarkConsumer("benchmark consumer " + i, new Semaphore(0)));
+        }
+        for (int i = 0; i < producers; i++) {
+            broker.connect(address, new BenchmarkProducer(broker.host.router(), "benchmark producer " + i, Payloads.body(256)));
+        }
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        broker.stop();
+    }
+
+    @Benchmark
+    public void subscribe() throws InterruptedException {
+        // a new subscriber each time so its links do not race with the
+        // unbinding of the previous one.
+        BenchmarkConsumer consumer = new BenchmarkConsumer("benchmark subscriber", new Semaphore(0));
+        broker.bind(address, consumer);
+        broker.unbind(address, consumer);
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.benchmarks;
+
+import org.apache.activemq.apollo.broker.SimpleAddress;
+import org.apache.activemq.apollo.dto.TopicDTO;
+import org.apache.activemq.apollo.util.path.Path$;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures DeliveryProducerRoute fan out: the producer routes connected to a
+ * topic deliver every message to all of the topic's consumers, either
+ * directly or through the topic's shared fan out stage.  The score is in
+ * messages sent, each of which results in one delivery per consumer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TopicFanoutBenchmark {
+
+    static final int BATCH = 1000;
+
+    @Param({"256", "4096"})
+    int size;
+
+    @Param({"1", "10", "100"})
+    int consumers;
+
+    @Param({"1", "10"})
+    int producers;
+
+    @Param({"direct", "shared"})
+    String fan_out;
+
+    EmbeddedBroker broker;
+    BenchmarkProducer[] producer;
+    Semaphore received = new Semaphore(0);
+
+    @Setup
+    public void setup() throws Exception {
+        broker = new EmbeddedBroker();
+        TopicDTO topic = new TopicDTO();
+        topic.id = "benchmark";
+        topic.fan_out = fan_out;
+        broker.host_config.topics.add(topic);
+        broker.start();
+
+        SimpleAddress address = new SimpleAddress("topic", Path$.MODULE$.create("benchmark"));
+        for (int i = 0; i < consumers; i++) {
+            broker.bind(address, new BenchmarkConsumer("benchmark consumer " + i, received));
+        }
+        producer = new BenchmarkProducer[producers];
+        for (int i = 0; i < producers; i++) {
+            producer[i] = new BenchmarkProducer(broker.host.router(), "benchmark producer " + i, Payloads.body(size));
+            broker.connect(address, producer[i]);
+        }
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        broker.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void fan_out() throws InterruptedException {
+        for (BenchmarkProducer p : producer) {
+            p.send(BATCH / producers);
+        }
+        received.acquire(BATCH * consumers);
+    }
+
+}
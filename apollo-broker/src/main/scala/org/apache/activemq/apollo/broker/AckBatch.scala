@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker
+
+import collection.mutable.{ListBuffer, HashMap}
+import org.apache.activemq.apollo.broker.store.StoreUOW
+
+/**
+ * <p>
+ * Collects the ack callbacks of deliveries so that they can be acked
+ * together.  The acks of deliveries acquired by the same queue subscription
+ * are processed in a single queue task using a single store unit of work,
+ * the other acks are invoked one by one.
+ * </p>
+ * <p>
+ * Protocol handlers use it when a single client ack covers many deliveries.
+ * </p>
+ */
+class AckBatch {
+
+  private val acquired = HashMap[Subscription, ListBuffer[Subscription#AcquiredQueueEntry]]()
+  private val others = ListBuffer[(DeliveryResult, StoreUOW)=>Unit]()
+
+  def isEmpty = acquired.isEmpty && others.isEmpty
+
+  def +=(ack:(DeliveryResult, StoreUOW)=>Unit):Unit = ack match {
+    case null =>
+    case x:AcquiredAck =>
+      acquired.getOrElseUpdate(x.entry.subscription, ListBuffer()) += x.entry
+    case x =>
+      others += x
+  }
+
+  def ack(consumed:DeliveryResult, uow:StoreUOW):Unit = {
+    for( (sub, entries) <- acquired ) {
+      sub.ack_all(entries, consumed, uow)
+    }
+    for( ack <- others ) {
+      ack(consumed, uow)
+    }
+    acquired.clear
+    others.clear
+  }
+
+}
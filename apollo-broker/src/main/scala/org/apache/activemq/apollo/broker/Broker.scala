@@ -291,6 +291,27 @@ class Broker() extends BaseService with SecuredResource with PluginStateSupport
 
   @volatile
   var default_virtual_host: VirtualHost = null
+
+  /**
+   * The latency of 1 out of every this many deliveries is sampled.
+   * 0 disables sampling.  Can be changed at runtime.
+   */
+  @volatile
+  var latency_sample_rate = DeliveryLatency.DEFAULT_SAMPLE_RATE
+
+  val swap_coordinator = new SwapCoordinator(this)
+
+  /**
+   * Merges the latency histograms of all the virtual hosts.
+   */
+  def get_latency:FutureResult[DeliveryLatency] = sync(this) {
+    val latencies = sync_all(virtual_hosts.values) { host =>
+      host.get_latency
+    }
+    latencies.map( x => Success {
+      x.flatMap(_.success_option).foldLeft(new DeliveryLatency)(_.add(_))
+    })
+  }
   val virtual_hosts = LinkedHashMap[AsciiBuffer, VirtualHost]()
   val virtual_hosts_by_hostname = new LinkedHashMap[AsciiBuffer, VirtualHost]()
 
@@ -387,6 +408,7 @@ class Broker() extends BaseService with SecuredResource with PluginStateSupport
     }
     schedule_reoccurring(1, SECONDS) {
       virtualhost_maintenance
+      swap_coordinator.balance
       roll_current_period
       tune_send_receive_buffers
     }
@@ -505,6 +527,9 @@ class Broker() extends BaseService with SecuredResource with PluginStateSupport
 
     SecurityFactory.install(this)
 
+    latency_sample_rate = config.latency_sample_rate.getOrElse(DeliveryLatency.DEFAULT_SAMPLE_RATE).max(0)
+    swap_coordinator.budget = Option(config.memory_budget).map(MemoryPropertyEditor.parse(_)).getOrElse(0L)
+
     val host_config_by_id = HashMap[AsciiBuffer, VirtualHostDTO]()
     config.virtual_hosts.foreach{ value =>
       host_config_by_id += ascii(value.id) -> value
@@ -244,6 +244,17 @@ class Delivery {
    */
   var retain:RetainAction = RetainIgnore
 
+  /**
+   * The System.nanoTime when the broker received the delivery from the
+   * producer.  Only set on deliveries sampled for latency tracking.
+   */
+  var received_at:Long = 0
+
+  /**
+   * The System.nanoTime when a queue enqueued the sampled delivery.
+   * Not copied since it's only meaningful to the queue which set it.
+   */
+  var enqueued_at:Long = 0
 
   def copy() = (new Delivery).set(this)
 
@@ -259,6 +270,7 @@ class Delivery {
     storeLocator = other.storeLocator
     redeliveries = other.redeliveries
     retain = other.retain
+    received_at = other.received_at
     this
   }
 
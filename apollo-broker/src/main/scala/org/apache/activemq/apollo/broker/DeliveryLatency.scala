@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker
+
+import java.util.concurrent.TimeUnit
+import org.apache.activemq.apollo.util.LatencyHistogram
+import org.apache.activemq.apollo.dto.{LatencyMetricDTO, DeliveryLatencyDTO}
+
+object DeliveryLatency {
+
+  final val ENQUEUE = 0
+  final val STORE_FLUSH = 1
+  final val DISPATCH = 2
+  final val ACK = 3
+  final val STORE_LOAD = 4
+
+  final val STAGES = 5
+
+  final val DEFAULT_SAMPLE_RATE = 100
+
+  // Latencies are kept in microseconds, up to 10 minutes with ~3% precision
+  // so that a histogram stays around 7k.
+  final val HIGHEST_TRACKABLE = TimeUnit.MINUTES.toMicros(10)
+  final val SUB_BUCKET_BITS = 6
+
+  def to_dto(histogram:LatencyHistogram) = {
+    val rc = new LatencyMetricDTO
+    if( histogram!=null ) {
+      rc.count = histogram.count
+      rc.min = histogram.min
+      rc.mean = histogram.mean
+      rc.p50 = histogram.percentile(50)
+      rc.p90 = histogram.percentile(90)
+      rc.p99 = histogram.percentile(99)
+      rc.p999 = histogram.percentile(99.9)
+      rc.max = histogram.max
+    }
+    rc
+  }
+}
+
+/**
+ * <p>
+ * Latency histograms of the stages sampled messages go through on the
+ * queues of a virtual host.  Recording is thread safe so that all the
+ * queues of the host can share one set of histograms.  Use copy and add
+ * to merge the histograms of several hosts on read.
+ * </p>
+ */
+class DeliveryLatency {
+  import DeliveryLatency._
+
+  val histograms = Array.fill(STAGES)(new LatencyHistogram(HIGHEST_TRACKABLE, SUB_BUCKET_BITS))
+
+  def record_micros(stage:Int, micros:Long):Unit = histograms(stage).record(micros)
+
+  def copy = {
+    val rc = new DeliveryLatency
+    rc.add(this)
+    rc
+  }
+
+  def add(other:DeliveryLatency) = {
+    for( stage <- 0 until STAGES ) {
+      histograms(stage).add(other.histograms(stage))
+    }
+    this
+  }
+
+  def to_dto(sample_rate:Int) = {
+    val rc = new DeliveryLatencyDTO
+    rc.current_time = Broker.now
+    rc.sample_rate = sample_rate
+    rc.enqueue = DeliveryLatency.to_dto(histograms(ENQUEUE))
+    rc.store_flush = DeliveryLatency.to_dto(histograms(STORE_FLUSH))
+    rc.dispatch = DeliveryLatency.to_dto(histograms(DISPATCH))
+    rc.ack = DeliveryLatency.to_dto(histograms(ACK))
+    rc.store_load = DeliveryLatency.to_dto(histograms(STORE_LOAD))
+    rc
+  }
+}
+
+/**
+ * <p>
+ * The latency samples of one queue.  Only accessed from the queue's
+ * dispatch queue.  The samples are recorded in the virtual host's
+ * histograms and the queue itself only keeps the count, min, mean and
+ * max of every stage, so a queue with many samples still stays small.
+ * </p>
+ */
+class QueueLatency(val host_latency:DeliveryLatency) {
+  import DeliveryLatency._
+
+  // The count, total, min and max of each stage.  Allocated with the
+  // first sample so that idle queues do not pay for them.
+  private var counters:Array[Long] = null
+
+  /**
+   * Records the time elapsed since the System.nanoTime based
+   * start time.
+   */
+  def record(stage:Int, start:Long):Unit = record_elapsed(stage, System.nanoTime() - start)
+
+  def record_elapsed(stage:Int, nanos:Long):Unit = {
+    val micros = TimeUnit.NANOSECONDS.toMicros(nanos).max(0)
+    if( host_latency!=null ) {
+      host_latency.record_micros(stage, micros)
+    }
+    if( counters == null ) {
+      counters = new Array[Long](STAGES * 4)
+    }
+    val i = stage * 4
+    if( counters(i) == 0 || micros < counters(i + 2) ) {
+      counters(i + 2) = micros
+    }
+    if( micros > counters(i + 3) ) {
+      counters(i + 3) = micros
+    }
+    counters(i) += 1
+    counters(i + 1) += micros
+  }
+
+  private def stage_dto(stage:Int) = {
+    val rc = new LatencyMetricDTO
+    if( counters!=null && counters(stage * 4) > 0 ) {
+      val i = stage * 4
+      rc.count = counters(i)
+      rc.mean = counters(i + 1).toDouble / counters(i)
+      rc.min = counters(i + 2)
+      rc.max = counters(i + 3)
+    }
+    rc
+  }
+
+  def to_dto(sample_rate:Int) = {
+    val rc = new DeliveryLatencyDTO
+    rc.current_time = Broker.now
+    rc.sample_rate = sample_rate
+    rc.enqueue = stage_dto(ENQUEUE)
+    rc.store_flush = stage_dto(STORE_FLUSH)
+    rc.dispatch = stage_dto(DISPATCH)
+    rc.ack = stage_dto(ACK)
+    rc.store_load = stage_dto(STORE_LOAD)
+    rc
+  }
+}
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker
+
+import java.util.concurrent.TimeUnit
+import org.fusesource.hawtdispatch._
+import org.apache.activemq.apollo.dto.{AggregateDestMetricsDTO, DestMetricsDTO}
+import scala.collection.mutable.HashMap
+
+object DestMetricsSnapshot {
+  // How often a slice of the queues gets refreshed.
+  val REFRESH_INTERVAL = 1000L
+  // A full refresh cycle should take about this many ticks.
+  val REFRESH_TICKS = 10
+  val MIN_BATCH_SIZE = 100
+  // Stop refreshing once no one has read the snapshot in this long.
+  val IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(1)
+}
+
+/**
+ * <p>
+ * Keeps a copy of the metrics of all the queues in a domain along with their
+ * running total so that monitoring requests can be answered without visiting
+ * every queue.  The copy is refreshed a slice of queues at a time so that
+ * large hosts do not see a burst of tasks on all their queues.  Refreshing
+ * only runs while someone is reading the snapshot.
+ * </p>
+ *
+ * Only accessed from the virtual host's dispatch queue.
+ */
+class DestMetricsSnapshot(val host:VirtualHost, domain: => LocalRouter#Domain[Queue]) {
+  import DestMetricsSnapshot._
+
+  val metrics = HashMap[Queue, DestMetricsDTO]()
+  var total = new DestMetricsDTO
+
+  // the id of the last queue refreshed.
+  var cursor:String = null
+  // set once every queue has been visited at least once.
+  var complete = false
+  var refreshing = false
+  var last_read = 0L
+
+  def dispatch_queue = host.dispatch_queue
+
+  def update(queue:Queue, value:DestMetricsDTO) = {
+    dispatch_queue.assertExecuting()
+    // the queue could have been destroyed while we were getting its metrics.
+    if( domain.destination_index.get(queue.id) eq queue ) {
+      metrics.put(queue, value).foreach { previous =>
+        DestinationMetricsSupport.subtract_destination_metrics(total, previous)
+      }
+      DestinationMetricsSupport.add_destination_metrics(total, value)
+    }
+  }
+
+  def remove(queue:Queue) = {
+    dispatch_queue.assertExecuting()
+    metrics.remove(queue).foreach { previous =>
+      DestinationMetricsSupport.subtract_destination_metrics(total, previous)
+    }
+  }
+
+  /**
+   * @return the snapshot or None if it has not covered every queue yet
+   *         in which case a refresh cycle gets started.
+   */
+  def get(dead:DestMetricsDTO):Option[AggregateDestMetricsDTO] = {
+    dispatch_queue.assertExecuting()
+    last_read = Broker.now
+    if( !refreshing ) {
+      refreshing = true
+      complete = false
+      cursor = null
+      schedule_refresh(0)
+    }
+    if( complete ) {
+      val rc = new AggregateDestMetricsDTO
+      DestinationMetricsSupport.add_destination_metrics(rc, total)
+      DestinationMetricsSupport.add_destination_metrics(rc, dead)
+      rc.objects = metrics.size
+      rc.current_time = Broker.now
+      Some(rc)
+    } else {
+      None
+    }
+  }
+
+  def schedule_refresh(delay:Long):Unit = dispatch_queue.after(delay, TimeUnit.MILLISECONDS) {
+    if( !host.service_state.is_started || Broker.now - last_read > IDLE_TIMEOUT ) {
+      // Drop the copy so we don't hold on to it while no one is looking.
+      refreshing = false
+      complete = false
+      metrics.clear()
+      total = new DestMetricsDTO
+    } else {
+      refresh
+      schedule_refresh(REFRESH_INTERVAL)
+    }
+  }
+
+  def refresh = {
+    val batch_size = (domain.destination_index.size / REFRESH_TICKS).max(MIN_BATCH_SIZE)
+    val batch = domain.destinations_after(cursor).take(batch_size).toArray
+    if( batch.size < batch_size ) {
+      cursor = null
+    } else {
+      cursor = batch.last.id
+    }
+    var remaining = batch.size
+    val last_of_cycle = cursor == null
+    for( queue <- batch ) {
+      queue.dispatch_queue {
+        val value = queue.get_queue_metrics
+        dispatch_queue {
+          update(queue, value)
+          remaining -= 1
+          if( remaining==0 && last_of_cycle ) {
+            complete = true
+          }
+        }
+      }
+    }
+    if( batch.isEmpty ) {
+      complete = true
+    }
+  }
+
+}
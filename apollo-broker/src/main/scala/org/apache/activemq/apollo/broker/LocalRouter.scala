@@ -83,6 +83,42 @@ object DestinationMetricsSupport {
     to.swapped_in_size_max += from.swapped_in_size_max
   }
 
+  /**
+   * Undoes a previous add_destination_metrics.  The timestamps are left
+   * alone since they only move forward.
+   */
+  def subtract_destination_metrics(to:DestMetricsDTO, from:DestMetricsDTO) = {
+    to.enqueue_item_counter -= from.enqueue_item_counter
+    to.enqueue_size_counter -= from.enqueue_size_counter
+    to.dequeue_item_counter -= from.dequeue_item_counter
+    to.dequeue_size_counter -= from.dequeue_size_counter
+
+    to.producer_counter -= from.producer_counter
+    to.consumer_counter -= from.consumer_counter
+    to.producer_count -= from.producer_count
+    to.consumer_count -= from.consumer_count
+
+    to.nack_item_counter -= from.nack_item_counter
+    to.nack_size_counter -= from.nack_size_counter
+    to.expired_item_counter -= from.expired_item_counter
+    to.expired_size_counter -= from.expired_size_counter
+
+    to.queue_size -= from.queue_size
+    to.queue_items -= from.queue_items
+
+    to.swap_out_item_counter -= from.swap_out_item_counter
+    to.swap_out_size_counter -= from.swap_out_size_counter
+    to.swap_in_item_counter -= from.swap_in_item_counter
+    to.swap_in_size_counter -= from.swap_in_size_counter
+
+    to.swapping_in_size -= from.swapping_in_size
+    to.swapping_out_size -= from.swapping_out_size
+
+    to.swapped_in_items -= from.swapped_in_items
+    to.swapped_in_size -= from.swapped_in_size
+    to.swapped_in_size_max -= from.swapped_in_size_max
+  }
+
 }
 
 /**
@@ -245,6 +281,9 @@ class LocalRouter(val virtual_host:VirtualHost) extends BaseService with Router
 
     // holds all the destinations in the domain by id
     var destination_by_id = LinkedHashMap[String, D]()
+    // holds all the destinations in the domain sorted by id so that they can
+    // be walked a page at a time.
+    val destination_index = new java.util.TreeMap[String, D]()
     // holds all the destinations in the domain by path
     var destination_by_path = new PathMap[D]()
     // Can store consumers on wild cards paths
@@ -255,6 +294,27 @@ class LocalRouter(val virtual_host:VirtualHost) extends BaseService with Router
 
     def destinations:Iterable[D] = JavaConversions.collectionAsScalaIterable(destination_by_path.get(ALL))
 
+    /**
+     * Iterates the destinations in id order starting after the `cursor` id
+     * and stopping at the first id that does not start with `prefix`.
+     */
+    def destinations_after(cursor:String, prefix:String=null):Iterator[D] = {
+      import JavaConversions._
+      val tail = if( cursor!=null && (prefix==null || cursor.compareTo(prefix) >= 0) ) {
+        destination_index.tailMap(cursor, false)
+      } else if( prefix!=null ) {
+        destination_index.tailMap(prefix, true)
+      } else {
+        destination_index
+      }
+      val rc = tail.entrySet().iterator()
+      if( prefix==null ) {
+        rc.map(_.getValue)
+      } else {
+        rc.takeWhile(_.getKey.startsWith(prefix)).map(_.getValue)
+      }
+    }
+
     def get_destination_matches(path:Path) = {
       import JavaConversions._
       collectionAsScalaIterable(destination_by_path.get( path ))
@@ -282,6 +342,7 @@ class LocalRouter(val virtual_host:VirtualHost) extends BaseService with Router
     var add_destination = (path:Path, dest:D) => {
       destination_by_path.put(path, dest)
       destination_by_id.put(dest.id, dest)
+      destination_index.put(dest.id, dest)
 
       // binds any matching wild card subs and producers...
       import JavaConversions._
@@ -301,6 +362,7 @@ class LocalRouter(val virtual_host:VirtualHost) extends BaseService with Router
     var remove_destination = (path:Path, dest:D) => {
       destination_by_path.remove(path, dest)
       destination_by_id.remove(dest.id)
+      destination_index.remove(dest.id)
     }
 
     def can_destroy_destination(address:DestinationAddress, security:SecurityContext):Option[String] = {
@@ -1353,6 +1415,8 @@ class LocalRouter(val virtual_host:VirtualHost) extends BaseService with Router
           DestinationMetricsSupport.clear_non_counters(metrics)
           DestinationMetricsSupport.add_destination_metrics(aggreator, metrics)
         }
+        virtual_host.queue_metrics_snapshot.remove(queue)
+        virtual_host.dsub_metrics_snapshot.remove(queue)
 
         queues_by_store_id.remove(queue.store_id)
         if (queue.tune_persistent) {
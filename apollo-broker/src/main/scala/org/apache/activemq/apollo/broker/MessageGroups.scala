@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker
+
+import collection.mutable.{ListBuffer, HashMap, HashSet}
+import org.apache.activemq.apollo.util.HashRing
+
+object MessageGroups {
+  // groups getting fewer messages per second than this are placed by the hash ring.
+  val HOT_RATE = 1.0
+}
+
+/**
+ * <p>
+ * Tracks which subscription each message group of a queue is assigned to.
+ * New groups get placed using a consistent hash ring, and the assignment
+ * then sticks.  When subscriptions are added or removed only the groups
+ * which need to move get reassigned: idle groups follow the hash ring while
+ * the groups with a high message rate get spread so that each subscription
+ * gets a fair share of the load.
+ * </p>
+ * <p>
+ * A group which moves while it has acquired messages which have not been
+ * acked yet stops being dispatched until they are so that the messages of a
+ * group are never processed by two subscriptions at the same time.
+ * </p>
+ * <p>
+ * Should only be accessed from the queue's dispatch queue.
+ * </p>
+ */
+class MessageGroups(val queue:Queue) {
+  import MessageGroups._
+
+  val ring = new HashRing[GroupBucket, String]()
+  val groups = HashMap[String, Group]()
+
+  class Group(val name:String) {
+    var owner:Subscription = null
+    // set while waiting for the acquired messages to drain before moving to next.
+    var moving = false
+    var next:Subscription = null
+    var in_flight = 0
+    var count = 0L
+    var rate = 0.0
+
+    def hot = rate >= HOT_RATE
+
+    /**
+     * @return the subscription the group's messages should be dispatched
+     *         to or None if they should not be dispatched yet.
+     */
+    def target(delivery:Delivery):Option[Subscription] = {
+      if( moving ) {
+        None
+      } else {
+        if( owner == null ) {
+          owner = place(name)
+        }
+        if( owner != null && owner.matches(delivery) ) {
+          Some(owner)
+        } else {
+          // the owner's selector does not match, fall back to the next
+          // subscription on the ring which does.
+          val iterator = ring.iterator(name)
+          var rc:Option[Subscription] = None
+          while( rc.isEmpty && iterator.hasNext ) {
+            val bucket = iterator.next()
+            if( bucket.sub.matches(delivery) ) {
+              rc = Some(bucket.sub)
+            }
+          }
+          rc
+        }
+      }
+    }
+
+    def acquired = {
+      in_flight += 1
+      count += 1
+    }
+
+    def released = {
+      in_flight -= 1
+      if( in_flight == 0 && moving ) {
+        complete(this, next)
+        rewind_moved
+      }
+    }
+  }
+
+  def get(name:String) = groups.getOrElseUpdate(name, new Group(name))
+
+  private def place(name:String) = {
+    val bucket = ring.get(name)
+    if( bucket == null ) null else bucket.sub
+  }
+
+  def add(sub:Subscription) = {
+    ring.add(GroupBucket(sub), 10)
+    val subs = ring.getNodes.size
+
+    // The idle groups which hash to the new subscription.
+    for( group <- groups.values if !group.hot && place(group.name) == sub ) {
+      move(group, sub)
+    }
+
+    // Then take the hottest groups off the busiest subscriptions
+    // until the new subscription has its share of the load.
+    val loads = hot_loads
+    val share = loads.values.sum / subs
+    var load = 0.0
+    for( group <- groups.values.filter(_.hot).toSeq.sortBy(- _.rate) ) {
+      val from = if( group.moving ) group.next else group.owner
+      if( from != null && load + group.rate <= share && loads.getOrElse(from, 0.0) > share ) {
+        loads.put(from, loads(from) - group.rate)
+        load += group.rate
+        move(group, sub)
+      }
+    }
+    rewind_moved
+  }
+
+  def remove(sub:Subscription) = {
+    ring.remove(GroupBucket(sub))
+    val loads = hot_loads
+    loads.remove(sub)
+    for( group <- groups.values.toSeq.sortBy(- _.rate) ) {
+      val from = if( group.moving ) group.next else group.owner
+      if( from == sub ) {
+        val to = if( group.hot && !loads.isEmpty ) {
+          // the least loaded subscription.
+          val (least, load) = loads.minBy(_._2)
+          loads.put(least, load + group.rate)
+          least
+        } else {
+          place(group.name)
+        }
+        move(group, to)
+      }
+    }
+    rewind_moved
+  }
+
+  def isEmpty = ring.getNodes.isEmpty && groups.isEmpty
+
+  /**
+   * Called once a second to update the group message rates and
+   * to forget the idle groups.
+   */
+  def maintenance = {
+    val idle = ListBuffer[String]()
+    for( group <- groups.values ) {
+      group.rate = (group.rate + group.count) / 2
+      group.count = 0
+      if( group.in_flight == 0 && !group.moving && group.rate < 0.01 ) {
+        idle += group.name
+      }
+    }
+    groups --= idle
+  }
+
+  private def hot_loads = {
+    val rc = HashMap[Subscription, Double]()
+    for( bucket <- collection.JavaConversions.asScalaBuffer(ring.getNodes) ) {
+      rc.put(bucket.sub, 0.0)
+    }
+    for( group <- groups.values if group.hot ) {
+      val owner = if( group.moving ) group.next else group.owner
+      if( owner != null && rc.contains(owner) ) {
+        rc.put(owner, rc(owner) + group.rate)
+      }
+    }
+    rc
+  }
+
+  private def move(group:Group, to:Subscription) = {
+    if( group.owner eq to ) {
+      group.moving = false
+      group.next = null
+    } else if( group.in_flight == 0 || !queue.message_group_graceful_handoff ) {
+      complete(group, to)
+    } else {
+      group.moving = true
+      group.next = to
+    }
+  }
+
+  private val moved_to = HashSet[Subscription]()
+
+  private def complete(group:Group, to:Subscription) = {
+    group.owner = to
+    group.moving = false
+    group.next = null
+    if( to == null ) {
+      groups.remove(group.name)
+    } else {
+      moved_to += to
+    }
+  }
+
+  // The subscriptions which got groups assigned may have already skipped
+  // past messages of those groups, so they have to go back over the queue.
+  private def rewind_moved = {
+    for( sub <- moved_to if sub.pos != null && !sub.consumer.start_from_tail ) {
+      sub.rewind(queue.head_entry)
+    }
+    moved_to.clear()
+  }
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker
+
+import java.util.concurrent.atomic.AtomicReference
+import collection.mutable.ListBuffer
+import org.apache.activemq.apollo.broker.store.QueueEntryRecord
+
+/**
+ * <p>
+ * Holds the entries combined into a SwappedRange in primitive arrays so
+ * that the range can be turned back into swapped entries without querying
+ * the store.  The entry sequences, message keys and log positions are kept
+ * as deltas from the previous entry.  The expirations and redelivery
+ * counters only get an array once an entry needs one.
+ * </p>
+ * <p>
+ * Only entries without senders whose locators are the (position, length)
+ * pairs of log based stores, or which have no locator, can be packed.  add
+ * returns false for the others in which case the range has to be loaded
+ * from the store.
+ * </p>
+ */
+class PackedEntries(initial_capacity:Int=16) {
+
+  var count = 0
+
+  private var capacity = initial_capacity max 1
+  private var has_locators = false
+
+  private var first_seq = 0L
+  private var first_key = 0L
+  private var first_position = 0L
+  private var last_seq = 0L
+  private var last_key = 0L
+  private var last_position = 0L
+
+  private var seq_deltas = new Array[Int](capacity)
+  private var key_deltas = new Array[Int](capacity)
+  private var position_deltas:Array[Int] = null
+  private var lengths:Array[Int] = null
+  private var sizes = new Array[Int](capacity)
+  private var expirations:Array[Long] = null
+  private var redeliveries:Array[Short] = null
+
+  def add(record:QueueEntryRecord):Boolean = {
+    add(record.entry_seq, record.message_key, record.message_locator, record.size, record.expiration, record.redeliveries, record.sender!=null && !record.sender.isEmpty)
+  }
+
+  def add(seq:Long, key:Long, locator:AtomicReference[Object], size:Int, expiration:Long, redelivery_count:Short, has_sender:Boolean):Boolean = {
+    if( has_sender || (count > 0 && has_locators != (locator!=null)) ) {
+      return false
+    }
+    var position = 0L
+    var length = 0
+    if( locator!=null ) {
+      locator.get match {
+        case (p:Long, l:Int) =>
+          position = p
+          length = l
+        case _ =>
+          return false
+      }
+    }
+
+    if( count == 0 ) {
+      has_locators = locator!=null
+      first_seq = seq
+      first_key = key
+      first_position = position
+      last_seq = seq
+      last_key = key
+      last_position = position
+    } else if( seq <= last_seq || !fits(seq - last_seq) || !fits(key - last_key) || !fits(position - last_position) ) {
+      return false
+    }
+
+    if( count == capacity ) {
+      grow
+    }
+    seq_deltas(count) = (seq - last_seq).toInt
+    key_deltas(count) = (key - last_key).toInt
+    sizes(count) = size
+    if( has_locators ) {
+      if( position_deltas == null ) {
+        position_deltas = new Array[Int](capacity)
+        lengths = new Array[Int](capacity)
+      }
+      position_deltas(count) = (position - last_position).toInt
+      lengths(count) = length
+    }
+    if( expiration != 0 ) {
+      if( expirations == null ) {
+        expirations = new Array[Long](capacity)
+      }
+      expirations(count) = expiration
+    }
+    if( redelivery_count != 0 ) {
+      if( redeliveries == null ) {
+        redeliveries = new Array[Short](capacity)
+      }
+      redeliveries(count) = redelivery_count
+    }
+
+    last_seq = seq
+    last_key = key
+    last_position = position
+    count += 1
+    true
+  }
+
+  /**
+   * Appends the entries of a range which follows this one.
+   */
+  def add_all(other:PackedEntries):Boolean = {
+    var rc = true
+    other.foreach { record =>
+      rc = rc && add(record)
+    }
+    rc
+  }
+
+  def foreach(func:QueueEntryRecord=>Unit):Unit = {
+    var seq = first_seq
+    var key = first_key
+    var position = first_position
+    var i = 0
+    while( i < count ) {
+      seq += seq_deltas(i)
+      key += key_deltas(i)
+      val record = new QueueEntryRecord
+      record.entry_seq = seq
+      record.message_key = key
+      record.size = sizes(i)
+      if( has_locators ) {
+        position += position_deltas(i)
+        record.message_locator = new AtomicReference[Object]((position, lengths(i)))
+      }
+      if( expirations != null ) {
+        record.expiration = expirations(i)
+      }
+      if( redeliveries != null ) {
+        record.redeliveries = redeliveries(i)
+      }
+      record.sender = Nil
+      func(record)
+      i += 1
+    }
+  }
+
+  def records(queue_key:Long):Seq[QueueEntryRecord] = {
+    val rc = ListBuffer[QueueEntryRecord]()
+    foreach { record =>
+      record.queue_key = queue_key
+      rc += record
+    }
+    rc
+  }
+
+  private def fits(delta:Long) = delta >= Int.MinValue && delta <= Int.MaxValue
+
+  private def grow = {
+    capacity = capacity << 1
+    def resize_int(a:Array[Int]) = if( a==null ) null else java.util.Arrays.copyOf(a, capacity)
+    seq_deltas = resize_int(seq_deltas)
+    key_deltas = resize_int(key_deltas)
+    position_deltas = resize_int(position_deltas)
+    lengths = resize_int(lengths)
+    sizes = resize_int(sizes)
+    if( expirations != null ) {
+      expirations = java.util.Arrays.copyOf(expirations, capacity)
+    }
+    if( redeliveries != null ) {
+      redeliveries = java.util.Arrays.copyOf(redeliveries, capacity)
+    }
+  }
+
+}
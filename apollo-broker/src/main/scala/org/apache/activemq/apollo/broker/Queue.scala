@@ -81,19 +81,18 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
   var all_subscriptions = Map[DeliveryConsumer, Subscription]()
   var exclusive_subscriptions = ListBuffer[Subscription]()
 
-  var _message_group_buckets: HashRing[GroupBucket, String] = _
+  var _message_groups: MessageGroups = _
 
-  def message_group_buckets = {
+  def message_groups = {
     // If the queue is not using message groups, lets avoid
-    // creating the bucket hash ring.
-    if( _message_group_buckets == null )  {
-      _message_group_buckets = new HashRing[GroupBucket, String]()
-      // Create a bucket for each subscription
+    // tracking the groups.
+    if( _message_groups == null )  {
+      _message_groups = new MessageGroups(this)
       for( sub <- all_subscriptions.values if !sub.browser) {
-        _message_group_buckets.add(GroupBucket(sub), 10)
+        _message_groups.add(sub)
       }
     }
-    _message_group_buckets
+    _message_groups
   }
 
   def filter = binding.message_filter
@@ -144,6 +143,29 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
    */
   var tune_swap_range_size = 0
 
+  /**
+   * Should swapped entries the consumers are not about to need be combined
+   * into swapped ranges right away instead of once there are many of them?
+   * The ranges close to the consumers then keep their entries packed so
+   * they load without querying the store.
+   */
+  var tune_aggressive_swap_collapse = false
+
+  /**
+   * The max amount of swapped message data to load ahead
+   * of the consumers.  It's shared by the subscriptions in
+   * proportion to their delivery rates.
+   */
+  var tune_read_ahead = 0
+
+  /**
+   * How many milliseconds of work the consumer buffers are sized
+   * to hold, 0 to use the consumers' fixed receive buffer sizes.
+   */
+  var tune_consumer_buffer_time = 0
+  var tune_consumer_buffer_min = 0
+  var tune_consumer_buffer_max = 0
+
   /**
    *  The max memory to allow this queue to grow to.
    */
@@ -204,12 +226,46 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
   var producer_counter = 0L
   var consumer_counter = 0L
 
+  val latency = new QueueLatency(virtual_host.latency)
+  def latency_sample_rate = virtual_host.broker.latency_sample_rate
+
+  // Counts the swap ins since the last one sampled for latency tracking.
+  var load_sample_counter = 0
+  def sample_load = {
+    val sample_rate = latency_sample_rate
+    if( sample_rate > 0 ) {
+      load_sample_counter += 1
+      if( load_sample_counter >= sample_rate ) {
+        load_sample_counter = 0
+        true
+      } else {
+        false
+      }
+    } else {
+      false
+    }
+  }
+
   // This set to true if any consumer kept up within the
   // last second.
   var consumers_keeping_up_historically = false
 
   var individual_swapped_items = 0
 
+  // set when the broker's swap coordinator asks the queue to give back memory.
+  var swap_pressure = false
+  var swap_usage:SwapCoordinator#Usage = null
+
+  /**
+   * Swaps out all the loaded entries the consumers are not about to use.
+   */
+  def swap_out_cold = {
+    if( tune_swap && service_state.is_started ) {
+      swap_pressure = true
+      swap_messages
+    }
+  }
+
   var swap_triggered = false
   def trigger_swap = {
     dispatch_queue.assertExecuting()
@@ -254,6 +310,17 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
     tune_round_robin = update.round_robin.getOrElse(true)
     tune_swap = tune_persistent && update.swap.getOrElse(true)
     tune_swap_range_size = update.swap_range_size.getOrElse(10000)
+    tune_aggressive_swap_collapse = Option(update.swap_collapse).getOrElse("lazy").toLowerCase match {
+      case "aggressive" => true
+      case "lazy" => false
+      case _ =>
+        warn("Invalid 'swap_collapse' configured for queue '%s': '%s'", id, update.swap_collapse)
+        false
+    }
+    tune_read_ahead = mem_size(update.read_ahead, "10m")
+    tune_consumer_buffer_time = update.consumer_buffer_time.getOrElse(0)
+    tune_consumer_buffer_min = mem_size(update.consumer_buffer_min, "16k")
+    tune_consumer_buffer_max = mem_size(update.consumer_buffer_max, "1m")
     tune_fast_delivery_rate = mem_size(update.fast_delivery_rate,"512k")
     tune_catchup_enqueue_rate = mem_size(update.catchup_enqueue_rate,"-1")
     tune_max_enqueue_rate = mem_size(update.max_enqueue_rate,"-1")
@@ -386,6 +453,7 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
     }
     rc.metrics = this.get_queue_metrics
     rc.metrics.current_time = now
+    rc.latency = latency.to_dto(latency_sample_rate)
 
     if( entries ) {
       var cur = this.head_entry
@@ -515,6 +583,8 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
     restore_from_store {
 
 
+      swap_usage = virtual_host.broker.swap_coordinator.register(this)
+
       // by the time this is run, consumers and producers may have already joined.
       on_completed.run
       schedule_reoccurring(1, TimeUnit.SECONDS) {
@@ -538,6 +608,9 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
 
   protected def _stop(on_completed: Task) = {
 
+    virtual_host.broker.swap_coordinator.unregister(this)
+    swap_usage = null
+
     // Now that we are stopping the queue will no longer be 'full'
     // draining will nack all enqueue attempts.
     messages.refiller.run
@@ -702,6 +775,10 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
         tail_entry = new QueueEntry(Queue.this, next_message_seq)
         val queue_delivery = delivery.copy
         queue_delivery.seq = entry.seq
+        if( queue_delivery.received_at != 0 ) {
+          queue_delivery.enqueued_at = System.nanoTime()
+          latency.record_elapsed(DeliveryLatency.ENQUEUE, queue_delivery.enqueued_at - queue_delivery.received_at)
+        }
         entry.init(queue_delivery)
         
         entries.addLast(entry)
@@ -738,6 +815,18 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
           null
         }
 
+        if( uow != null && queue_delivery.enqueued_at != 0 ) {
+          val enqueued_at = queue_delivery.enqueued_at
+          uow.on_flush { canceled =>
+            if( !canceled ) {
+              val elapsed = System.nanoTime() - enqueued_at
+              defer {
+                latency.record_elapsed(DeliveryLatency.STORE_FLUSH, elapsed)
+              }
+            }
+          }
+        }
+
         if( entry.hasSubs ) {
           // try to dispatch it directly...
           entry.dispatch
@@ -834,6 +923,9 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
     if( !service_state.is_started )
       return
 
+    val under_pressure = swap_pressure
+    swap_pressure = false
+
     var cur = entries.getHead
     while( cur!=null ) {
 
@@ -914,8 +1006,8 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
           val loaded = cur.as_loaded
           if( loaded!=null ) {
             // It's in memory.. perhaps we need to swap it out..
-            if(!consumers_keeping_up_historically) {
-              // Swap out ASAP if consumers are not keeping up..
+            if(!consumers_keeping_up_historically || under_pressure) {
+              // Swap out ASAP if consumers are not keeping up or the broker is short on memory..
               cur.swap(true)
             } else {
               // Consumers seem to be keeping up.. so we have to be more selective
@@ -952,10 +1044,16 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
     }                               
 
 
-    // Combine swapped items into swapped ranges
-    if( individual_swapped_items > tune_swap_range_size*2 ) {
+    // Combine swapped items into swapped ranges.  The aggressive collapse
+    // combines every entry which is not prefetched or under a consumer and
+    // only keeps the ranges within a couple of range sizes of the
+    // consumers packed.
+    val aggressive = tune_aggressive_swap_collapse
+    if( aggressive || individual_swapped_items > tune_swap_range_size*2 ) {
 
+      val keep_distance = if( aggressive ) 0 else tune_swap_range_size
       var distance_from_sub = tune_swap_range_size;
+      var messages_from_sub = 0L
       var cur = entries.getHead
       var combine_counter = 0;
 
@@ -965,17 +1063,21 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
         // from the entry list.
         val next = cur.getNext
 
-        if( cur.prefetched ) {
+        if( cur.prefetched || (aggressive && cur.hasSubs) ) {
           distance_from_sub = 0
+          messages_from_sub = 0
         } else {
           distance_from_sub += 1
+          messages_from_sub += cur.count
           if( cur.can_combine_with_prev ) {
             cur.getPrevious.as_swapped_range.combineNext
             combine_counter += 1
           } else {
-            if( cur.is_swapped && !cur.is_acquired && distance_from_sub > tune_swap_range_size ) {
+            if( cur.is_swapped && !cur.is_acquired && distance_from_sub > keep_distance ) {
               cur.swapped_range
               combine_counter += 1
+            } else if( aggressive && cur.is_swapped_range && !cur.is_loading && messages_from_sub > tune_swap_range_size*2 ) {
+              cur.as_swapped_range.packed = null
             }
           }
 
@@ -993,6 +1095,25 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
   }
 
   def swapped_out_size = queue_size - (producer_swapped_in.size + consumer_swapped_in.size)
+
+  /**
+   * Sizes how far ahead of its position each subscription loads swapped
+   * entries.  A subscription is predicted to need what it consumes over a
+   * couple of maintenance intervals: one until the next swap pass and one
+   * for the store loads to complete.  When the predictions add up to more
+   * than tune_read_ahead, they are scaled down so that the read ahead is
+   * shared by rate.
+   */
+  def plan_read_ahead = {
+    var demand = 0L
+    all_subscriptions.values.foreach { sub =>
+      demand += sub.avg_enqueue_size_per_interval.toLong * 2
+    }
+    val scale = if( demand > tune_read_ahead ) tune_read_ahead.toDouble / demand else 1.0d
+    all_subscriptions.values.foreach { sub =>
+      sub.read_ahead = sub.consumer_buffer + (sub.avg_enqueue_size_per_interval * 2 * scale).toInt
+    }
+  }
   var delivery_rate = 0
 
   def queue_maintenance:Unit = {
@@ -1005,6 +1126,7 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
 
     all_subscriptions.values.foreach{ sub=>
       sub.adjust_prefetch_size
+      sub.adjust_consumer_buffer(elapsed)
       avg_sub_stall_ms += sub.reset_stall_timer
       if(sub.browser) {
         avg_browser_delivery_rate += sub.avg_enqueue_size_per_interval
@@ -1021,9 +1143,24 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
     // add the browser delivery rate in as an average.
     delivery_rate += avg_browser_delivery_rate
 
+    plan_read_ahead
+
+    if( _message_groups != null ) {
+      _message_groups.maintenance
+    }
+
     val rate_adjustment = elapsed.toFloat / 1000.toFloat
     delivery_rate  = (delivery_rate / rate_adjustment).toInt
 
+    if( swap_usage!=null ) {
+      swap_usage.loaded_size = producer_swapped_in.size + consumer_swapped_in.size
+      swap_usage.delivery_rate = delivery_rate
+      swap_usage.swappable = tune_swap
+      if( delivery_rate > 0 ) {
+        swap_usage.last_active = now
+      }
+    }
+
     consumers_keeping_up_historically = (
       // No brainer.. we see consumers are fast..
       ( delivery_rate > tune_fast_delivery_rate )
@@ -1165,34 +1302,27 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
 
   def process_ack(entry:Subscription#AcquiredQueueEntry, consumed:DeliveryResult, uow:StoreUOW) = defer {
     might_unfill {
-      consumed match {
-        case Consumed =>
-          entry.ack(uow)
-        case Expired=>
-          val actual = create_uow(uow)
-          expired(actual, entry.entry) {
-            entry.ack(actual)
-          }
-          if( actual!=null ){
-            actual.release
-          }
-        case Delivered =>
-          entry.increment_nack
-          entry.entry.redelivered
-          entry.nack
-        case Undelivered =>
-          entry.nack
-        case Poisoned =>
-          entry.increment_nack
-          entry.entry.redelivered
-          var limit = dlq_nak_limit
-          if( limit>0 && entry.entry.redelivery_count >= limit ) {
-            dead_letter(uow, entry.entry) { uow =>
-              entry.remove(uow)
-            }
-          } else {
-            entry.nack
-          }
+      ack_entry(entry, consumed, uow)
+      if( uow!=null ) {
+        uow.release
+      }
+    }
+  }
+
+  /**
+   * Processes the acks of a batch of acquired entries in a single task.  Consumed
+   * entries are all dequeued using the same unit of work.
+   */
+  def process_acks(entries:Iterable[Subscription#AcquiredQueueEntry], consumed:DeliveryResult, uow:StoreUOW) = defer {
+    might_unfill {
+      if( consumed == Consumed ) {
+        val actual = create_uow(uow)
+        entries.foreach(_.ack(actual))
+        if( actual!=null ) {
+          actual.release
+        }
+      } else {
+        entries.foreach(ack_entry(_, consumed, uow))
       }
       if( uow!=null ) {
         uow.release
@@ -1200,6 +1330,38 @@ class Queue(val router: LocalRouter, val store_id:Long, var binding:Binding) ext
     }
   }
 
+  private def ack_entry(entry:Subscription#AcquiredQueueEntry, consumed:DeliveryResult, uow:StoreUOW) = {
+    consumed match {
+      case Consumed =>
+        entry.ack(uow)
+      case Expired=>
+        val actual = create_uow(uow)
+        expired(actual, entry.entry) {
+          entry.ack(actual)
+        }
+        if( actual!=null ){
+          actual.release
+        }
+      case Delivered =>
+        entry.increment_nack
+        entry.entry.redelivered
+        entry.nack
+      case Undelivered =>
+        entry.nack
+      case Poisoned =>
+        entry.increment_nack
+        entry.entry.redelivered
+        var limit = dlq_nak_limit
+        if( limit>0 && entry.entry.redelivery_count >= limit ) {
+          dead_letter(uow, entry.entry) { uow =>
+            entry.remove(uow)
+          }
+        } else {
+          entry.nack
+        }
+    }
+  }
+
   /////////////////////////////////////////////////////////////////////
   //
   // Implementation of the DeliveryConsumer trait.  Allows this queue
@@ -594,6 +594,7 @@ class QueueEntry(val queue:Queue, val seq:Long) extends LinkedNode[QueueEntry] w
       def browser_copy = {
         if( _browser_copy==null ) {
           _browser_copy = delivery.copy
+          _browser_copy.received_at = 0
           // TODO: perhaps only avoid adding the address in the durable sub case..
           if( _browser_copy.sender == Nil ) {
             _browser_copy.sender ::= queue.address
@@ -607,15 +608,11 @@ class QueueEntry(val queue:Queue, val seq:Long) extends LinkedNode[QueueEntry] w
       // Find the the first exclusive target of the message
       var exclusive_target = queue.exclusive_subscriptions.find( _.matches(delivery) )
 
-      // Should we looks for the message group bucket?
+      // Should we looks for the message group's subscription?
+      var group:MessageGroups#Group = null
       if ( exclusive_target.isEmpty && delivery.message.message_group != null ) {
-        var iterator = queue.message_group_buckets.iterator(delivery.message.message_group)
-        while (exclusive_target==None && iterator.hasNext) {
-          val bucket = iterator.next();
-          if( bucket.sub.matches(delivery) ) {
-            exclusive_target = Some(bucket.sub)
-          }
-        }
+        group = queue.message_groups.get(delivery.message.message_group)
+        exclusive_target = group.target(delivery)
       }
 
       parked.foreach{ sub=>
@@ -662,17 +659,22 @@ class QueueEntry(val queue:Queue, val seq:Long) extends LinkedNode[QueueEntry] w
                 acquirer = sub
 
                 val acquiredQueueEntry = sub.acquire(entry)
+                if( group != null ) {
+                  acquiredQueueEntry.group = group
+                  group.acquired
+                }
+                if( delivery.enqueued_at != 0 ) {
+                  acquiredQueueEntry.dispatched_at = System.nanoTime()
+                  queue.latency.record_elapsed(DeliveryLatency.DISPATCH, acquiredQueueEntry.dispatched_at - delivery.enqueued_at)
+                }
                 val acquiredDelivery = delivery.copy
+                // the sample was accounted for by this queue.
+                acquiredDelivery.received_at = 0
                 if( acquiredDelivery.sender == Nil) {
                   acquiredDelivery.sender ::= queue.address
                 }
 
-                acquiredDelivery.ack = (consumed, uow)=> {
-                  if( uow!=null ) {
-                    uow.retain
-                  }
-                  queue.process_ack(acquiredQueueEntry, consumed, uow)
-                }
+                acquiredDelivery.ack = new AcquiredAck(acquiredQueueEntry)
 
                 val accepted = sub.offer(acquiredDelivery)
                 assert(accepted, "sub should have accepted, it had reported not full earlier.")
@@ -756,11 +758,16 @@ class QueueEntry(val queue:Queue, val seq:Long) extends LinkedNode[QueueEntry] w
         // start swapping in...
         space = mem_space
         queue.swapping_in_size += size
+        val load_start = if( queue.sample_load ) System.nanoTime() else 0L
         queue.virtual_host.store.load_message(message_key, message_locator) { delivery =>
           // pass off to a source so it can aggregate multiple
           // loads to reduce cross thread synchronization
           if( delivery.isDefined ) {
+            val load_time = if( load_start != 0 ) System.nanoTime() - load_start else 0L
             queue.defer {
+              if( load_start != 0 ) {
+                queue.latency.record_elapsed(DeliveryLatency.STORE_LOAD, load_time)
+              }
               swapped_in(delivery.get)
               if( entry.hasSubs ) {
                 entry.task.run
@@ -838,7 +845,14 @@ class QueueEntry(val queue:Queue, val seq:Long) extends LinkedNode[QueueEntry] w
         queue.swapping_in_size -= size
       }
       queue.individual_swapped_items -= 1
-      state = new SwappedRange(seq, 1, size, expiration)
+      val range = new SwappedRange(seq, 1, size, expiration)
+      if( queue.tune_aggressive_swap_collapse ) {
+        val packed = new PackedEntries
+        if( packed.add(seq, message_key, message_locator, size, expiration, _redeliveries, sender!=null && !sender.isEmpty) ) {
+          range.packed = packed
+        }
+      }
+      state = range
     }
 
     override def dispatch():Boolean = {
@@ -909,6 +923,10 @@ class QueueEntry(val queue:Queue, val seq:Long) extends LinkedNode[QueueEntry] w
    * the first, and last sequnce ids of the range.  When the entry needs to be loaded from the range
    * it replaces the swapped range entry with all the swapped entries by querying the store of all the
    * message keys for the entries in the range.
+   *
+   * With the aggressive swap collapse, ranges close to the consumers also keep the
+   * entries they combined in a PackedEntries so that they can be loaded without the
+   * store query.
    */
   class SwappedRange(
     /** the last seq id in the range */
@@ -926,6 +944,9 @@ class QueueEntry(val queue:Queue, val seq:Long) extends LinkedNode[QueueEntry] w
 
     var loading = false
 
+    // The combined entries, or null if the range has to be loaded from the store.
+    var packed:PackedEntries = null
+
     override def as_swapped_range = this
 
     override def is_swapped_or_swapping_out = true
@@ -933,12 +954,15 @@ class QueueEntry(val queue:Queue, val seq:Long) extends LinkedNode[QueueEntry] w
 
     def label = {
       var rc = "swapped_range"
+      if( packed!=null ) {
+        rc += "|packed"
+      }
       if( loading ) {
-        rc = "swapped_range|swapping in"
+        rc += "|swapping in"
       }
       rc
     }
-    override def toString = { "swapped_range:{ swapping_in: "+loading+", count: "+count+", size: "+size+"}" }
+    override def toString = { "swapped_range:{ swapping_in: "+loading+", packed: "+(packed!=null)+", count: "+count+", size: "+size+"}" }
 
     var swapped_in_watchers = List[()=>Unit]()
     def fire_swapped_in_watchers = {
@@ -1003,7 +1027,15 @@ class QueueEntry(val queue:Queue, val seq:Long) extends LinkedNode[QueueEntry] w
             }
           }
         }
-        attempt_load(1)
+        if( packed!=null ) {
+          val records = packed.records(queue.store_id)
+          packed = null
+          queue.dispatch_queue {
+            complete_load(1, records)
+          }
+        } else {
+          attempt_load(1)
+        }
       }
     }
 
@@ -1020,10 +1052,22 @@ class QueueEntry(val queue:Queue, val seq:Long) extends LinkedNode[QueueEntry] w
         assert(last < value.seq )
         last = value.seq
         _count += 1
+        if( packed!=null ) {
+          val swapped = value.as_swapped
+          if( !packed.add(value.seq, swapped.message_key, swapped.message_locator, swapped.size, swapped.expiration, swapped.redelivery_count, swapped.sender!=null && !swapped.sender.isEmpty) ) {
+            packed = null
+          }
+        }
       } else if( value.is_swapped_range ) {
         assert(last < value.seq )
         last = value.as_swapped_range.last
         _count += value.as_swapped_range.count
+        if( packed!=null ) {
+          val other = value.as_swapped_range.packed
+          if( other==null || !packed.add_all(other) ) {
+            packed = null
+          }
+        }
       }
       if(_expiration == 0){
         _expiration = value.expiration
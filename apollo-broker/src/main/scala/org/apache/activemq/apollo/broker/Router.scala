@@ -225,6 +225,8 @@ abstract class DeliveryProducerRoute(router:Router) extends AbstractOverflowSink
       val t = dispatch_delivery
       dispatch_delivery = null
       _offer(t)
+      // _offer retained what it kept, drop the reference taken while waiting.
+      release_message(t)
       if( downstream.refiller!=null && !full ) {
         downstream.refiller.run()
       }
@@ -276,6 +278,20 @@ abstract class DeliveryProducerRoute(router:Router) extends AbstractOverflowSink
       x.close
     }
     is_connected = false
+    discard_pending
+  }
+
+  // Nothing will drain the deliveries held by a disconnected route, so
+  // drop the message and uow references they were holding.
+  private def discard_pending = {
+    while( !overflow.isEmpty ) {
+      release(overflow.removeFirst())
+    }
+    if( dispatch_delivery!=null ) {
+      release(dispatch_delivery)
+      dispatch_delivery = null
+      dispatch_sessions = Nil
+    }
   }
 
   protected def on_connected = {}
@@ -301,6 +317,10 @@ abstract class DeliveryProducerRoute(router:Router) extends AbstractOverflowSink
         false
       } else {
         if ( !is_connected ) {
+          // the sender may release the message once offer returns.
+          if( delivery.message!=null ) {
+            delivery.message.retain
+          }
           dispatch_delivery = delivery
         } else {
           _offer(delivery)
@@ -310,11 +330,24 @@ abstract class DeliveryProducerRoute(router:Router) extends AbstractOverflowSink
     }
   }
 
+  // Counts the deliveries since the last one sampled for latency tracking.
+  var latency_sample_counter = 0
+
+  def latency_sample_rate = if( router!=null ) router.virtual_host.broker.latency_sample_rate else 0
+
   override def offer(delivery: Delivery): Boolean = {
     dispatch_queue.assertExecuting()
     if (delivery.uow != null) {
       delivery.uow.retain
     }
+    val sample_rate = latency_sample_rate
+    if( sample_rate > 0 && delivery.received_at == 0 ) {
+      latency_sample_counter += 1
+      if( latency_sample_counter >= sample_rate ) {
+        latency_sample_counter = 0
+        delivery.received_at = System.nanoTime()
+      }
+    }
     super.offer(delivery)
   }
 
@@ -387,6 +420,22 @@ abstract class DeliveryProducerRoute(router:Router) extends AbstractOverflowSink
   }
 
 
+  // Deliveries held in the overflow keep their messages retained since
+  // the sender may release them once offer returns.
+  override protected def onOverflow(delivery: Delivery) = {
+    if( delivery.message!=null ) {
+      delivery.message.retain
+    }
+  }
+
+  override protected def onDrained(delivery: Delivery) = release_message(delivery)
+
+  private def release_message(delivery: Delivery) = {
+    if( delivery.message!=null ) {
+      delivery.message.release
+    }
+  }
+
   private def release(delivery: Delivery): Unit = {
     if (delivery.uow != null) {
       delivery.uow.release
@@ -221,7 +221,9 @@ abstract class AbstractOverflowSink[T] extends Sink[T] {
       if( !downstream.offer(overflow.peekFirst()) ) {
         return
       } else {
-        onDelivered(overflow.removeFirst())
+        val value = overflow.removeFirst()
+        onDelivered(value)
+        onDrained(value)
       }
     }
     // request a refill once the overflow is empty...
@@ -235,6 +237,7 @@ abstract class AbstractOverflowSink[T] extends Sink[T] {
   def offer(value:T) = {
     if( overflowed || !downstream.offer(value)) {
       overflow.addLast(value)
+      onOverflow(value)
     } else {
       onDelivered(value)
     }
@@ -246,6 +249,21 @@ abstract class AbstractOverflowSink[T] extends Sink[T] {
    */
   protected def onDelivered(value:T) = {
   }
+
+  /**
+   * Called for each value that gets held in the overflow list so that
+   * it can be retained until it's drained.  Values taken out with
+   * removeFirst or removeLast are handed over to the caller as is.
+   */
+  protected def onOverflow(value:T) = {
+  }
+
+  /**
+   * Called for each value passed on to the down stream sink out of the
+   * overflow list.
+   */
+  protected def onDrained(value:T) = {
+  }
 }
 
 
@@ -73,6 +73,7 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
       link.total_nack_count = total_nack_count
       link.acquired_size = acquired_size
       link.acquired_count = acquired_count
+      link.consumer_buffer = consumer_buffer
       ack_rates match {
         case Some((items_per_sec, size_per_sec) ) =>
           link.ack_item_rate = items_per_sec
@@ -138,7 +139,64 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
   def browser = consumer.browser
   def exclusive = consumer.exclusive
 
-  val consumer_buffer = consumer.receive_buffer_size
+  // sized by adjust_consumer_buffer when the queue has tune_consumer_buffer_time set.
+  var consumer_buffer = consumer.receive_buffer_size
+  var ack_size_at_last_interval = 0L
+
+  def adaptive_consumer_buffer = queue.tune_consumer_buffer_time > 0 && !browser
+
+  // set when a consumer stayed capped at tune_consumer_buffer_max without
+  // acking, it then only gets limited by its own receive buffer until it acks.
+  var uncapped = false
+
+  // an adaptive consumer buffer also limits how much the consumer can have acquired.
+  def capped = adaptive_consumer_buffer && !uncapped && acquired_size >= consumer_buffer
+
+  /**
+   * Called once per maintenance interval to size the consumer buffer so that
+   * it holds tune_consumer_buffer_time ms of the work the consumer acked
+   * during the interval.  The buffer never shrinks below what the consumer
+   * holds.  A consumer which got capped without acking anything may be
+   * waiting for more messages before it acks, like clients that ack in
+   * batches, so its buffer doubles and once it's at the maximum it stops
+   * being capped.  An idle consumer keeps its size.
+   */
+  def adjust_consumer_buffer(elapsed:Long) = {
+    val acked = total_ack_size - ack_size_at_last_interval
+    ack_size_at_last_interval = total_ack_size
+    val was_capped = capped
+    val next = if( !adaptive_consumer_buffer ) {
+      consumer.receive_buffer_size
+    } else if( elapsed <= 0 ) {
+      consumer_buffer
+    } else {
+      val target = if( acked > 0 ) {
+        uncapped = false
+        acked * queue.tune_consumer_buffer_time / elapsed
+      } else if( was_capped ) {
+        if( consumer_buffer >= queue.tune_consumer_buffer_max ) {
+          uncapped = true
+        }
+        consumer_buffer * 3L
+      } else if( acquired_size > 0 ) {
+        0L
+      } else {
+        consumer_buffer.toLong
+      }
+      // move half way to the target to smooth out bursts.
+      ((consumer_buffer + target) / 2).max(acquired_size).max(queue.tune_consumer_buffer_min).min(queue.tune_consumer_buffer_max).toInt
+    }
+    if( next != consumer_buffer ) {
+      queue.change_consumer_capacity(next - consumer_buffer)
+      consumer_buffer = next
+    }
+    if( was_capped && !capped && pos!=null ) {
+      queue.dispatch_queue << pos.task
+    }
+  }
+
+  // how many bytes ahead of pos to prefetch, updated by Queue.plan_read_ahead
+  var read_ahead = consumer_buffer
 
   // This opens up the consumer
   def open() = {
@@ -163,41 +221,8 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
     pos ::= this
 
     queue.all_subscriptions += consumer -> this
-    if( !consumer.browser && queue._message_group_buckets != null ) {
-
-      var iterators = queue._message_group_buckets.add(GroupBucket(this), 10)
-
-      // If we are doing graceful handoffs of message groups...
-      if( queue.message_group_graceful_handoff ) {
-        import collection.JavaConversions._
-        for ( iterator <- iterators ) {
-
-          // When we add the new bucket, it's going to get assigned
-          // message groups that were previously being serviced by the next
-          // bucket.  We need to suspend dispatch to both these groups
-          // until all dispatched messages get ack/drained, so that
-          // messages groups are not being concurrently being processed
-          // by two subscriptions.
-
-          var taking_over:Subscription = null
-          while ( iterator.hasNext && taking_over==null) {
-            val next = iterator.next()
-            if( next.sub != this ) {
-              taking_over = next.sub
-            }
-          }
-
-          // If we are taking over
-          if( taking_over!=null ) {
-            this.suspend
-            taking_over.suspend
-            taking_over.on_drain {
-              resume
-              taking_over.resume
-            }
-          }
-        }
-      }
+    if( !consumer.browser && queue._message_groups != null ) {
+      queue._message_groups.add(this)
     }
 
     queue.consumer_counter += 1
@@ -251,10 +276,10 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
 
       queue.exclusive_subscriptions = queue.exclusive_subscriptions.filterNot( _ == this )
       queue.all_subscriptions -= consumer
-      if( !consumer.browser && queue._message_group_buckets != null ) {
-        queue._message_group_buckets.remove(GroupBucket(this))
-        if( queue._message_group_buckets.getNodes.isEmpty ) {
-          queue._message_group_buckets = null
+      if( !consumer.browser && queue._message_groups != null ) {
+        queue._message_groups.remove(this)
+        if( queue._message_groups.isEmpty ) {
+          queue._message_groups = null
         }
       }
 
@@ -309,11 +334,12 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
   def tail_parked = pos eq queue.tail_entry
 
   def matches(entry:Delivery) = consumer.matches(entry)
-  def full = suspend_count > 0 || session.full
+  def full = suspend_count > 0 || session.full || capped
 
   def offer(delivery:Delivery) = try {
     assert(delivery.seq > 0 )
-    if( full ) {
+    // not full, since the delivery was already acquired when capped gets checked.
+    if( suspend_count > 0 || session.full ) {
       false
     } else {
       val accepted = session.offer(delivery)
@@ -342,7 +368,9 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
       pos // start prefetching from the current position.
     }
 
-    var remaining = consumer_buffer;
+    // the entries are loaded in queue order so that the store gets
+    // the range and message loads of one pass in sequence.
+    var remaining = read_ahead;
     while( remaining>0 && cursor!=null ) {
       val next = cursor.getNext
       // Browsers prefetch all messages..
@@ -356,8 +384,21 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
     }
   }
 
+  /**
+   * Processes the acks of a batch of entries acquired by this subscription
+   * in a single queue task.
+   */
+  def ack_all(entries:Iterable[Subscription#AcquiredQueueEntry], consumed:DeliveryResult, uow:StoreUOW) = {
+    if( uow!=null ) {
+      uow.retain
+    }
+    queue.process_acks(entries, consumed, uow)
+  }
+
   class AcquiredQueueEntry(val entry:QueueEntry) extends LinkedNode[AcquiredQueueEntry] {
 
+    def subscription = Subscription.this
+
     if(acquired.isEmpty) {
       idle_total = System.nanoTime() - idle_start
       idle_start = 0
@@ -366,6 +407,17 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
     acquired.addLast(this)
     acquired_size += entry.size
 
+    // set when the delivery is sampled for latency tracking
+    var dispatched_at = 0L
+
+    // the message group of the entry, told when the entry is acked or nacked.
+    var group:MessageGroups#Group = null
+
+    private def release_group = if( group != null ) {
+      group.released
+      group = null
+    }
+
     def ack(uow:StoreUOW):Unit = {
       assert_executing
       if(!isLinked) {
@@ -375,16 +427,21 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
 
       total_ack_count += 1
       total_ack_size += entry.size
+      if( dispatched_at != 0 ) {
+        queue.latency.record(DeliveryLatency.ACK, dispatched_at)
+      }
       remove(uow)
     }
 
     def remove(uow:StoreUOW):Unit = {
       assert_executing
+      val was_capped = capped
       val next = entry.getNext
       entry.dequeue(uow)
 
       // removes this entry from the acquired list.
       unlink()
+      release_group
       if( acquired.isEmpty ) {
         idle_start = System.nanoTime()
       }
@@ -397,6 +454,9 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
       if( next!=null ) {
         next.task.run
       }
+      if( was_capped && !capped && pos!=null ) {
+        queue.dispatch_queue << pos.task
+      }
       check_drained
 
     }
@@ -414,7 +474,11 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
         case x:entry.Loaded=> x.acquirer = null
         case x:entry.Swapped=> x.acquirer = null
       }
+      val was_capped = capped
       acquired_size -= entry.size
+      if( was_capped && !capped && pos!=null ) {
+        queue.dispatch_queue << pos.task
+      }
 
       // track for stats
       queue.nack_item_counter += 1
@@ -442,6 +506,7 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
 
       }
       unlink()
+      release_group
       if( acquired.isEmpty ) {
         idle_start = System.nanoTime()
       }
@@ -451,6 +516,19 @@ class Subscription(val queue:Queue, val consumer:DeliveryConsumer) extends Acqui
 
 }
 
+/**
+ * The ack callback of a delivery acquired from a queue.  It keeps a reference
+ * to the acquired entry so that an AckBatch can group the acks by subscription.
+ */
+class AcquiredAck(val entry:Subscription#AcquiredQueueEntry) extends ((DeliveryResult, StoreUOW)=>Unit) {
+  def apply(consumed:DeliveryResult, uow:StoreUOW) = {
+    if( uow!=null ) {
+      uow.retain
+    }
+    entry.subscription.queue.process_ack(entry, consumed, uow)
+  }
+}
+
 trait StallCheckSupport {
   def full:Boolean
 
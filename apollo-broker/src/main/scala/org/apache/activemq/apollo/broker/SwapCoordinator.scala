@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker
+
+import java.util.concurrent.ConcurrentHashMap
+import org.fusesource.hawtdispatch._
+
+/**
+ * <p>
+ * Keeps the messages loaded by all the queues of the broker within a single
+ * memory budget.  Every queue reports how much message data it has loaded
+ * and how fast its consumers are going once a second.  When the loaded
+ * total exceeds the budget, the budget gets handed out to the queues in
+ * proportion to their consumer activity and the coldest queues holding more
+ * than their share are asked to swap out their messages.
+ * </p>
+ * <p>
+ * A queue can only swap out when it is persistent and has swapping enabled,
+ * the messages of the other queues are counted but never asked to swap.
+ * </p>
+ */
+class SwapCoordinator(val broker:Broker) {
+
+  /**
+   * The broker wide limit of loaded message data, 0 if not limited.
+   */
+  @volatile
+  var budget = 0L
+
+  // updated by the queues from their dispatch queues.
+  class Usage(val queue:Queue) {
+    @volatile var loaded_size = 0L
+    @volatile var delivery_rate = 0L
+    @volatile var last_active = Broker.now
+    @volatile var swappable = false
+  }
+
+  val usages = new ConcurrentHashMap[Queue, Usage]()
+
+  // the accounting of the last balance pass, reported in the broker status.
+  @volatile var used = 0L
+  @volatile var over_budget_queues = 0
+  @volatile var swap_requests = 0L
+
+  def register(queue:Queue) = {
+    val rc = new Usage(queue)
+    usages.put(queue, rc)
+    rc
+  }
+
+  def unregister(queue:Queue) = usages.remove(queue)
+
+  /**
+   * Called once a second from the broker's dispatch queue.
+   */
+  def balance = {
+    import collection.JavaConversions._
+    val all = usages.values().toSeq
+    var total = 0L
+    var total_rate = 0L
+    for( usage <- all ) {
+      total += usage.loaded_size
+      total_rate += usage.delivery_rate
+    }
+    used = total
+
+    var over = 0
+    if( budget > 0 && total > budget ) {
+      // Every queue gets an equal part of a tenth of the budget and
+      // the rest of it in proportion to its delivery rate.
+      val base = budget / 10 / all.size
+      def share(usage:Usage) = if( total_rate == 0 ) {
+        budget / all.size
+      } else {
+        base + (budget - base * all.size) * usage.delivery_rate / total_rate
+      }
+
+      // coldest first.
+      val candidates = all.filter(x => x.swappable && x.loaded_size > share(x)).sortBy(x => (x.delivery_rate, x.last_active))
+      over = candidates.size
+      var excess = total - budget
+      for( usage <- candidates if excess > 0 ) {
+        excess -= usage.loaded_size - share(usage)
+        swap_requests += 1
+        val queue = usage.queue
+        queue.dispatch_queue {
+          queue.swap_out_cold
+        }
+      }
+    }
+    over_budget_queues = over
+  }
+
+}
@@ -45,6 +45,21 @@ class Topic(val router:LocalRouter, val address:DestinationAddress, var config_u
   @transient
   var retained_message: Delivery = _
 
+  /**
+   * Replaces the retained message.  The topic holds a reference to the
+   * retained message's body, which gets released once it is replaced.
+   */
+  private def update_retained(value:Delivery) = {
+    val previous = retained_message
+    retained_message = value
+    if( value!=null ) {
+      value.message.retain
+    }
+    if( previous!=null ) {
+      previous.message.release
+    }
+  }
+
   import language.implicitConversions
   implicit def from_link(from:LinkDTO):(Long,Long,Long)=(from.enqueue_item_counter, from.enqueue_size_counter, from.enqueue_ts)
   implicit def from_session(from:DeliverySession):(Long,Long,Long)=(from.enqueue_item_counter, from.enqueue_size_counter, from.enqueue_ts)
@@ -102,9 +117,9 @@ class Topic(val router:LocalRouter, val address:DestinationAddress, var config_u
         case RetainSet =>
           // TODO: perhaps persist so that we can recall what was
           // retained across broker restarts.
-          retained_message = value;
+          update_retained(value)
         case RetainRemove =>
-          retained_message = null;
+          update_retained(null)
         case _ =>
       }
       if( value.ack != null ) {
@@ -192,6 +207,9 @@ class Topic(val router:LocalRouter, val address:DestinationAddress, var config_u
 
   var config:TopicDTO = _
 
+  // set when the topic uses the shared fan out mode.
+  var fan_out:TopicFanOut = null
+
   refresh_config
 
   import OptionSupport._
@@ -204,6 +222,28 @@ class Topic(val router:LocalRouter, val address:DestinationAddress, var config_u
 
   def slow_consumer_policy = config.slow_consumer_policy.getOrElse("block")
 
+  /**
+   * The producers the consumers of the topic get bound to.
+   */
+  def routes:Iterable[BindableDeliveryProducer] = if( fan_out!=null ) {
+    List(fan_out.route)
+  } else {
+    producers.keys
+  }
+
+  /**
+   * The consumers the producers of the topic get connected to.
+   */
+  def producer_targets:List[DeliveryConsumer] = if( fan_out!=null ) {
+    List(producer_tracker, fan_out)
+  } else {
+    var rc:List[DeliveryConsumer] = producer_tracker :: consumers.values.toList
+    if( topic_queue !=null ) {
+      rc ::= topic_queue
+    }
+    rc
+  }
+
   def status(show_producers:Boolean, show_consumers:Boolean): FutureResult[TopicStatusDTO] = {
     val rc = FutureResult[TopicStatusDTO]()
     status(show_producers, show_consumers, x => rc.set(Success(x)))
@@ -368,6 +408,10 @@ class Topic(val router:LocalRouter, val address:DestinationAddress, var config_u
     import OptionSupport._
 
     config = config_updater()
+    // The fan out mode can only be picked when the topic is created.
+    if( fan_out==null && producers.isEmpty && consumers.isEmpty && config.fan_out.getOrElse("direct") == "shared" ) {
+      fan_out = new TopicFanOut(this)
+    }
     auto_delete_after = config.auto_delete_after.getOrElse(30)
     if( auto_delete_after!= 0 ) {
       // we don't auto delete explicitly configured destinations.
@@ -384,6 +428,10 @@ class Topic(val router:LocalRouter, val address:DestinationAddress, var config_u
       case "STARTED" =>
         if (producers.isEmpty && consumers.isEmpty) {
           state = "DELETED"
+          update_retained(null)
+          if( fan_out!=null ) {
+            fan_out.route.disconnected()
+          }
           router.local_topic_domain.remove_destination(address.path, this)
           DestinationMetricsSupport.add_destination_metrics(router.virtual_host.dead_topic_metrics, topic_metrics)
           None
@@ -462,7 +510,7 @@ class Topic(val router:LocalRouter, val address:DestinationAddress, var config_u
             // create a temp queue so that it can spool
             if ( topic_queue==null ) {
               topic_queue = router._create_queue(new TempQueueBinding(id, Topic.this.address, Option(config.subscription).getOrElse(new QueueSettingsDTO)))
-              producers.keys.foreach({ r=>
+              routes.foreach({ r=>
                 remaining.incrementAndGet()
                 r.bind(List(topic_queue), bind_release)
               })
@@ -518,7 +566,7 @@ class Topic(val router:LocalRouter, val address:DestinationAddress, var config_u
     consumers.put(consumer, proxy)
     topic_metrics.consumer_counter += 1
     val list = proxy :: Nil
-    producers.keys.foreach({ r=>
+    routes.foreach({ r=>
       remaining.incrementAndGet()
       r.bind(list, bind_release)
     })
@@ -578,7 +626,7 @@ class Topic(val router:LocalRouter, val address:DestinationAddress, var config_u
       case _ =>
     }
 
-    for( producer <- producers.keys ) {
+    for( producer <- routes ) {
      producer.unbind(list)
     }
     check_idle
@@ -597,11 +645,7 @@ class Topic(val router:LocalRouter, val address:DestinationAddress, var config_u
     }
     producers.put(producer, link)
     topic_metrics.producer_counter += 1
-    var targets:List[DeliveryConsumer] = producer_tracker :: consumers.values.toList
-    if( topic_queue !=null ) {
-      targets ::= topic_queue
-    }
-    producer.bind(targets, ()=>{})
+    producer.bind(producer_targets, ()=>{})
     check_idle
   }
 
@@ -609,11 +653,7 @@ class Topic(val router:LocalRouter, val address:DestinationAddress, var config_u
     for(link <- producers.remove(producer) ) {
       add_enqueue_counters(topic_metrics, link)
     }
-    var targets:List[DeliveryConsumer] = producer_tracker :: consumers.values.toList
-    if( topic_queue !=null ) {
-      targets ::= topic_queue
-    }
-    producer.unbind(targets)
+    producer.unbind(producer_targets)
     check_idle
   }
 
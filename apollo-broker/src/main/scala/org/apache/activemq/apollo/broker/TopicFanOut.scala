@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker
+
+import org.fusesource.hawtdispatch._
+
+/**
+ * <p>
+ * The single dispatch stage of a topic using the `shared` fan out mode.
+ * Producers connect to it instead of to every subscription and the
+ * subscriptions bind to its route instead of to every producer, so
+ * connecting a producer or a subscription only creates a single link.
+ * </p>
+ * <p>
+ * The producer sessions feed a credit windowed ingress which is drained by
+ * the route on the fan out's own dispatch queue.  When a subscription
+ * blocks, the route stops draining the ingress and the producers run out of
+ * credit, which gives the same flow control as the `direct` mode.
+ * </p>
+ */
+class TopicFanOut(val topic:Topic) extends BaseRetained with DeliveryConsumer {
+
+  override def toString = "TopicFanOut("+topic.id+")"
+
+  val dispatch_queue = createQueue("topic fan out: "+topic.id)
+
+  def matches(message:Delivery) = true
+
+  // the route stores the messages for the persistent subscriptions.
+  def is_persistent = false
+
+  val route = new DeliveryProducerRoute(topic.router) {
+    def dispatch_queue = TopicFanOut.this.dispatch_queue
+    override def toString = TopicFanOut.this.toString
+  }
+  route.connected()
+
+  object ingress extends Sink[(Session[Delivery], Delivery)] {
+    def refiller = route.refiller
+    def refiller_=(value:Task) = route.refiller = value
+    def full = route.full
+
+    def offer(event:(Session[Delivery], Delivery)) = {
+      if( full ) {
+        false
+      } else {
+        val (session, delivery) = event
+        session_manager.delivered(session, delivery.size)
+        route.offer(delivery)
+        release_delivery(delivery)
+        true
+      }
+    }
+  }
+
+  val session_manager = new SessionSinkMux[Delivery](ingress, dispatch_queue, Delivery, Integer.MAX_VALUE, 1024*640) {
+    override def time_stamp = topic.now
+  }
+
+  private def release_delivery(delivery:Delivery) = {
+    if( delivery.uow != null ) {
+      delivery.uow.release
+    }
+    if( delivery.message != null ) {
+      delivery.message.release
+    }
+  }
+
+  class FanOutSession(val producer:DeliveryProducer) extends DeliverySession with SessionSinkFilter[Delivery] {
+    retain
+
+    override def toString = "FanOutSession("+topic.id+", "+downstream+")"
+
+    def consumer = TopicFanOut.this
+
+    val downstream = session_manager.open(producer.dispatch_queue)
+
+    def close = dispatch_queue {
+      session_manager.close(downstream, (delivery)=>{
+        // We have been closed so we have to nak any deliveries.
+        if( delivery.ack!=null ) {
+          delivery.ack(Undelivered, delivery.uow)
+        }
+        release_delivery(delivery)
+      })
+      TopicFanOut.this.release
+    }
+
+    def offer(delivery:Delivery) = {
+      if( downstream.full ) {
+        false
+      } else {
+        // the delivery is handed off to the fan out's dispatch queue.
+        if( delivery.message!=null ) {
+          delivery.message.retain
+        }
+        if( delivery.uow!=null ) {
+          delivery.uow.retain
+        }
+        val rc = downstream.offer(delivery)
+        assert(rc, "session should accept since it was not full")
+        true
+      }
+    }
+  }
+
+  def connect(producer:DeliveryProducer) = new FanOutSession(producer)
+
+}
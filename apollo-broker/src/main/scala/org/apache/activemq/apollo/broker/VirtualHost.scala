@@ -101,6 +101,9 @@ class VirtualHost(val broker: Broker, val id:String) extends BaseService with Se
   var dead_queue_metrics = new DestMetricsDTO
   var dead_dsub_metrics = new DestMetricsDTO
 
+  val queue_metrics_snapshot = new DestMetricsSnapshot(this, local_router.local_queue_domain)
+  val dsub_metrics_snapshot = new DestMetricsSnapshot(this, local_router.local_dsub_domain)
+
   var authenticator:Authenticator = _
   var authorizer = Authorizer()
 
@@ -110,6 +113,8 @@ class VirtualHost(val broker: Broker, val id:String) extends BaseService with Se
   var console_log:Log = _
 
   var direct_buffer_allocator:DirectBufferAllocator = null
+  // message bodies this large or larger should be held by the direct_buffer_allocator
+  var heap_bypass = 0
 
   def resource_kind = VirtualHostKind
 
@@ -154,7 +159,8 @@ class VirtualHost(val broker: Broker, val id:String) extends BaseService with Se
   override protected def _start(on_completed:Task):Unit = {
     apply_update
 
-    if ( Option(config.heap_bypass).map(MemoryPropertyEditor.parse(_).toInt).getOrElse(0) > 0 ) {
+    heap_bypass = Option(config.heap_bypass).map(MemoryPropertyEditor.parse(_).toInt).getOrElse(0)
+    if ( heap_bypass > 0 ) {
       import org.apache.activemq.apollo.util.FileSupport._
       val tmp_dir = broker.tmp / "heapbypass" / id
       tmp_dir.recursive_delete
@@ -300,13 +306,42 @@ class VirtualHost(val broker: Broker, val id:String) extends BaseService with Se
     })
   }
 
+  /**
+   * Like get_queue_metrics but answered from a periodically refreshed
+   * snapshot so that the queues do not get visited on every call.
+   */
+  def get_cached_queue_metrics:FutureResult[AggregateDestMetricsDTO] = sync(this) {
+    queue_metrics_snapshot.get(dead_queue_metrics) match {
+      case Some(rc) => FutureResult(Success(rc))
+      case None => get_queue_metrics
+    }
+  }
+
+  def get_cached_dsub_metrics:FutureResult[AggregateDestMetricsDTO] = sync(this) {
+    dsub_metrics_snapshot.get(dead_dsub_metrics) match {
+      case Some(rc) => FutureResult(Success(rc))
+      case None => get_dsub_metrics
+    }
+  }
+
+  /**
+   * The latency histograms shared by all the queues and durable subscriptions.
+   */
+  val latency = new DeliveryLatency
+
+  def get_latency:FutureResult[DeliveryLatency] = FutureResult(Success(latency.copy))
+
   def get_dest_metrics:FutureResult[AggregateDestMetricsDTO] = {
+    aggregate_dest_metrics(get_queue_metrics, get_topic_metrics, get_dsub_metrics)
+  }
+
+  def get_cached_dest_metrics:FutureResult[AggregateDestMetricsDTO] = {
+    aggregate_dest_metrics(get_cached_queue_metrics, get_topic_metrics, get_cached_dsub_metrics)
+  }
+
+  def aggregate_dest_metrics(queue:FutureResult[AggregateDestMetricsDTO], topic:FutureResult[AggregateDestMetricsDTO], dsub:FutureResult[AggregateDestMetricsDTO]):FutureResult[AggregateDestMetricsDTO] = {
     // zero out the enqueue stats on the dsubs since they will already be accounted for in the topic
     // stats.
-    val queue = get_queue_metrics
-    val topic = get_topic_metrics
-    val dsub = get_dsub_metrics
-
     Future.all(List(queue, topic, dsub)).map { _ =>
 
       var rc = new AggregateDestMetricsDTO
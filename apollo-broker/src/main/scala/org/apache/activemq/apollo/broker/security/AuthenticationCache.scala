@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker.security
+
+import java.security.{SecureRandom, MessageDigest, Principal}
+import java.net.InetSocketAddress
+import javax.security.auth.Subject
+import org.apache.activemq.apollo.util.LRUCache
+
+object AuthenticationCache {
+
+  case class Key(user:String, credential:String, certificate:String, source:String)
+
+  case class Entry(principals:java.util.Set[Principal], expires:Long)
+
+}
+
+/**
+ * <p>
+ * Remembers the principals of successful logins for a limited time so that
+ * clients which reconnect with the same credentials from the same address
+ * do not have to go through the JAAS login modules again.  Passwords are
+ * only held as salted digests.  The cache is cleared when the access rules
+ * get reloaded.
+ * </p>
+ * <p>
+ * Thread safe.
+ * </p>
+ */
+class AuthenticationCache(max_size:Int, ttl:Long) {
+  import AuthenticationCache._
+
+  private val salt = {
+    val rc = new Array[Byte](16)
+    new SecureRandom().nextBytes(rc)
+    rc
+  }
+
+  private val entries = new LRUCache[Key, Entry](max_size)
+  private var version = Authorizer.version_counter.get
+
+  private def digest(values:Array[Byte]*) = {
+    val md = MessageDigest.getInstance("SHA-256")
+    md.update(salt)
+    values.foreach(md.update(_))
+    new java.math.BigInteger(1, md.digest()).toString(16)
+  }
+
+  def key(ctx:SecurityContext):Key = {
+    val credential = if( ctx.password==null ) null else digest(ctx.password.getBytes("UTF-8"))
+    val certificate = if( ctx.certificates==null || ctx.certificates.isEmpty ) null else digest(ctx.certificates.map(_.getEncoded):_*)
+    val source = ctx.remote_address match {
+      case null => null
+      case address:InetSocketAddress if address.getAddress!=null => address.getAddress.getHostAddress
+      case address => address.toString
+    }
+    Key(ctx.user, credential, certificate, source)
+  }
+
+  private def check_version = {
+    val current = Authorizer.version_counter.get
+    if( current != version ) {
+      entries.clear()
+      version = current
+    }
+  }
+
+  /**
+   * @return the cached logged in subject or null if the login has to be done.
+   */
+  def get(key:Key, now:Long=System.currentTimeMillis()):Subject = synchronized {
+    check_version
+    val entry = entries.get(key)
+    if( entry==null ) {
+      null
+    } else if( entry.expires <= now ) {
+      entries.remove(key)
+      null
+    } else {
+      new Subject(true, entry.principals, java.util.Collections.emptySet[AnyRef](), java.util.Collections.emptySet[AnyRef]())
+    }
+  }
+
+  def put(key:Key, subject:Subject, now:Long=System.currentTimeMillis()):Unit = synchronized {
+    check_version
+    entries.put(key, Entry(new java.util.HashSet[Principal](subject.getPrincipals), now + ttl))
+  }
+
+  def size = synchronized { entries.size() }
+
+  def clear = synchronized { entries.clear() }
+
+}
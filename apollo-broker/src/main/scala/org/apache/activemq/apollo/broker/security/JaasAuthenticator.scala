@@ -27,7 +27,7 @@ import org.apache.activemq.jaas._
 import org.apache.activemq.apollo.broker.Broker.BLOCKABLE_THREAD_POOL
 import org.fusesource.hawtdispatch._
 import org.apache.activemq.apollo.dto.AuthenticationDTO
-import org.apache.activemq.apollo.util.Log
+import org.apache.activemq.apollo.util.{OptionSupport, Log}
 import collection.JavaConversions._
 import javax.security.auth.login._
 import javax.security.auth.message.AuthException
@@ -58,13 +58,86 @@ class JaasAuthenticator(val config: AuthenticationDTO, val log:Log) extends Auth
   val user_principal_kinds = config.user_principal_kinds()
   val acl_principal_kinds = config.acl_principal_kinds().toSet
 
+  import OptionSupport._
+  val cache = if( config.cache_size.getOrElse(0) > 0 ) {
+    new AuthenticationCache(config.cache_size, config.cache_ttl.getOrElse(60*1000L))
+  } else {
+    null
+  }
+  val max_in_flight_logins = config.max_in_flight_logins.getOrElse(0)
+
+  // the logins running on the thread pool and the ones waiting for a slot.
+  private var in_flight_logins = 0
+  private val waiting_logins = new java.util.LinkedList[(SecurityContext, AuthenticationCache.Key, (String)=>Unit)]()
+
+  def authenticate(security_ctx: SecurityContext)(cb:(String)=>Unit):Unit = {
+    val key = if( cache!=null ) cache.key(security_ctx) else null
+    if( !from_cache(security_ctx, key, cb) ) {
+      val start = synchronized {
+        if( max_in_flight_logins > 0 && in_flight_logins >= max_in_flight_logins ) {
+          waiting_logins.add((security_ctx, key, cb))
+          false
+        } else {
+          in_flight_logins += 1
+          true
+        }
+      }
+      if( start ) {
+        login(security_ctx, key, cb)
+      }
+    }
+  }
+
+  private def from_cache(security_ctx: SecurityContext, key:AuthenticationCache.Key, cb:(String)=>Unit) = {
+    val subject = if( key!=null ) cache.get(key) else null
+    if( subject!=null ) {
+      security_ctx.subject = subject
+      cb(null)
+      true
+    } else {
+      false
+    }
+  }
+
   /*
    * The 'BLOCKABLE_THREAD_POOL ! { ... }' magic makes the code block
    * execute on the global thread pool since JAAS requests could
    * potentially perform a blocking wait (e.g. LDAP request).
    */
-  def authenticate(security_ctx: SecurityContext)(cb:(String)=>Unit) = BLOCKABLE_THREAD_POOL {
-    cb(_authenticate(security_ctx))
+  private def login(security_ctx: SecurityContext, key:AuthenticationCache.Key, cb:(String)=>Unit):Unit = BLOCKABLE_THREAD_POOL {
+    try {
+      val failure = _authenticate(security_ctx)
+      if( failure==null && key!=null ) {
+        cache.put(key, security_ctx.subject)
+      }
+      cb(failure)
+    } finally {
+      login_done
+    }
+  }
+
+  /**
+   * Hands the slot of a completed login to the next waiting login.  Waiting
+   * logins of clients which just got cached don't need it.
+   */
+  private def login_done:Unit = {
+    while( true ) {
+      val next = synchronized {
+        val rc = waiting_logins.poll()
+        if( rc==null ) {
+          in_flight_logins -= 1
+        }
+        rc
+      }
+      if( next==null ) {
+        return
+      }
+      val (security_ctx, key, cb) = next
+      if( !from_cache(security_ctx, key, cb) ) {
+        login(security_ctx, key, cb)
+        return
+      }
+    }
   }
 
   /**
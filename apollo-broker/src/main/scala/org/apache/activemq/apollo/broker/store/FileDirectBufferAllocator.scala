@@ -23,7 +23,7 @@ import org.apache.activemq.apollo.util._
 import java.nio.channels.FileChannel.MapMode
 import java.security.{AccessController, PrivilegedAction}
 import java.nio.{MappedByteBuffer, ByteBuffer}
-import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.{AtomicLong, AtomicInteger}
 import java.util.concurrent.{ConcurrentLinkedQueue, ConcurrentHashMap, TimeUnit}
 import java.util.Comparator
 
@@ -253,6 +253,157 @@ class ActiveAllocator(val range:Range) extends Allocator {
 
 }
 
+/**
+ * <p>
+ * Space accounting of an allocator.
+ * </p>
+ *
+ * @param requested bytes the live allocations asked for
+ * @param allocated bytes the live allocations actually hold
+ * @param reserved bytes taken from the backing space, including cached free chunks
+ * @param high_water the highest offset ever handed out
+ */
+case class AllocatorStats(requested:Long, allocated:Long, reserved:Long, high_water:Long) {
+
+  def +(that:AllocatorStats) = AllocatorStats(
+    requested + that.requested, allocated + that.allocated,
+    reserved + that.reserved, high_water + that.high_water)
+
+  /**
+   * The fraction of the allocated space lost to rounding requests up.
+   */
+  def internal_fragmentation = if( allocated == 0 ) 0.0 else 1.0 - requested.toDouble / allocated
+
+  /**
+   * The fraction of the reserved space sitting in free chunks.
+   */
+  def external_fragmentation = if( reserved == 0 ) 0.0 else 1.0 - allocated.toDouble / reserved
+
+}
+
+/**
+ * <p>
+ * Allocates out of power of two size classes.  Each class carves
+ * its chunks out of slabs taken from a TreeAllocator and keeps freed
+ * chunks on a lock free list, so a free is a single queue insert which
+ * can be done from any thread.  Requests larger than the biggest class
+ * go straight to the tree.
+ * </p>
+ * <p>
+ * The alloc method and the tree should only be used from a single thread.
+ * Slabs are never handed back to the tree.
+ * </p>
+ */
+class SizeClassAllocator(val tree:TreeAllocator, val min_size:Int=512, val max_size:Int=1024*1024, val slab_size:Int=1024*1024*4) extends Allocator {
+
+  assert(Integer.bitCount(min_size)==1 && Integer.bitCount(max_size)==1 && min_size <= max_size)
+  assert(slab_size >= max_size)
+
+  private val min_shift = Integer.numberOfTrailingZeros(min_size)
+
+  val requested = new AtomicLong
+  val allocated = new AtomicLong
+  val reserved = new AtomicLong
+  @volatile
+  var high_water = 0L
+
+  class SizeClass(val size:Int) {
+    val free_list = new ConcurrentLinkedQueue[Allocation]()
+
+    // the part of the current slab not handed out yet.
+    var slab_offset = 0L
+    var slab_remaining = 0L
+
+    val free_func = (allocation:Allocation) => {
+      requested.addAndGet(-allocation.size)
+      allocated.addAndGet(-size)
+      free_list.add(allocation)
+      ()
+    }
+  }
+
+  val classes = Array.tabulate(Integer.numberOfTrailingZeros(max_size) - min_shift + 1)(i => new SizeClass(min_size << i))
+
+  // large allocations have to be given back to the tree by the allocating thread.
+  val large_frees = new ConcurrentLinkedQueue[Allocation]()
+  private val large_free_func = (allocation:Allocation) => {
+    large_frees.add(allocation)
+    ()
+  }
+
+  def class_of(request:Int) = {
+    if( request <= min_size ) {
+      0
+    } else {
+      32 - Integer.numberOfLeadingZeros(request - 1) - min_shift
+    }
+  }
+
+  def alloc(request:Int):Allocation = {
+    drain_large_frees
+    if( request > max_size ) {
+      val rc = tree.alloc(request)
+      if( rc!=null ) {
+        rc._free_func = large_free_func
+        requested.addAndGet(request)
+        allocated.addAndGet(request)
+        reserved.addAndGet(request)
+        high_water = high_water.max(rc.offset + request)
+      }
+      rc
+    } else {
+      val c = classes(class_of(request))
+      val free = c.free_list.poll()
+      val offset = if( free!=null ) {
+        free.offset
+      } else if( c.slab_remaining >= c.size || next_slab(c) ) {
+        val rc = c.slab_offset
+        c.slab_offset += c.size
+        c.slab_remaining -= c.size
+        rc
+      } else {
+        -1L
+      }
+      if( offset < 0 ) {
+        null
+      } else {
+        val rc = Allocation(offset, request)
+        rc._free_func = c.free_func
+        requested.addAndGet(request)
+        allocated.addAndGet(c.size)
+        rc
+      }
+    }
+  }
+
+  private def next_slab(c:SizeClass) = {
+    val slab = tree.alloc(slab_size)
+    if( slab==null ) {
+      false
+    } else {
+      reserved.addAndGet(slab_size)
+      high_water = high_water.max(slab.offset + slab_size)
+      c.slab_offset = slab.offset
+      c.slab_remaining = slab_size
+      true
+    }
+  }
+
+  def drain_large_frees = {
+    var allocation = large_frees.poll()
+    while( allocation!=null ) {
+      requested.addAndGet(-allocation.size)
+      allocated.addAndGet(-allocation.size)
+      reserved.addAndGet(-allocation.size)
+      tree.free(allocation)
+      allocation = large_frees.poll()
+    }
+  }
+
+  def stats = AllocatorStats(requested.get, allocated.get, reserved.get, high_water)
+
+}
+
 /**
  * <p>The ByteBufferReleaser allows you to more eagerly deallocate byte buffers.</p>
  *
@@ -314,15 +465,27 @@ object FileDirectBufferAllocator {
   }
 }
 
-class FileDirectBufferAllocator(val file:File) extends DirectBufferAllocator {
+/**
+ * <p>
+ * Allocates direct buffers on a file.  When size_classes is enabled, allocations
+ * come out of a SizeClassAllocator and are freed without going through the
+ * free_queue.  Stores which track allocations by offset with alloc_at and free
+ * must use the plain tree allocator.
+ * </p>
+ */
+class FileDirectBufferAllocator(val file:File, size_classes:Boolean=false) extends DirectBufferAllocator {
   import FileDirectBufferAllocator._
 
   file.getParentFile.mkdirs()
 
   val allocator = new TreeAllocator(Range(0, Long.MaxValue))
+  val size_class_allocator = if( size_classes ) new SizeClassAllocator(allocator) else null
   val channel:FileChannel = new RandomAccessFile(file, "rw").getChannel
   val free_queue = new ConcurrentLinkedQueue[Allocation]()
   var current_size = 0L
+  // tree allocator accounting, only updated by the allocating thread.
+  var tree_allocated = 0L
+  var tree_high_water = 0L
   var _mmap:MappedByteBuffer = _
 
   channel.truncate(0);
@@ -382,7 +545,11 @@ class FileDirectBufferAllocator(val file:File) extends DirectBufferAllocator {
     }
 
     override def dispose: Unit = {
-      free_queue.add(allocation)
+      if( size_class_allocator!=null ) {
+        allocation.free()
+      } else {
+        free_queue.add(allocation)
+      }
       if( buffer!=null ) {
         ByteBufferReleaser.release(buffer)
         buffer = null
@@ -495,18 +662,33 @@ class FileDirectBufferAllocator(val file:File) extends DirectBufferAllocator {
   }
 
   def alloc(size: Int) = {
-    drain_free_allocations
-    val allocation = allocator.alloc(size)
+    val allocation = if( size_class_allocator!=null ) {
+      size_class_allocator.alloc(size)
+    } else {
+      drain_free_allocations
+      val rc = allocator.alloc(size)
+      if( rc!=null ) {
+        tree_allocated += size
+        tree_high_water = tree_high_water.max(rc.offset + size)
+      }
+      rc
+    }
     assert(allocation!=null)
     current_size = current_size.max(allocation.offset + allocation.size)
     new AllocationBuffer(allocation)
   }
 
   def alloc_at(offset:Long, size:Int) = {
-    allocator.alloc_at(Allocation(offset, size))
+    val rc = allocator.alloc_at(Allocation(offset, size))
+    if( rc ) {
+      tree_allocated += size
+      tree_high_water = tree_high_water.max(offset + size)
+    }
+    rc
   }
 
   def free(offset:Long, size:Int) = {
+    tree_allocated -= size
     allocator.free(Allocation(offset, size))
   }
 
@@ -517,11 +699,18 @@ class FileDirectBufferAllocator(val file:File) extends DirectBufferAllocator {
   def drain_free_allocations = {
     var allocation = free_queue.poll()
     while( allocation!=null ) {
+      tree_allocated -= allocation.size
       allocator.free(allocation)
       allocation = free_queue.poll()
     }
   }
 
+  def stats = if( size_class_allocator!=null ) {
+    size_class_allocator.stats
+  } else {
+    AllocatorStats(tree_allocated, tree_allocated, tree_allocated, tree_high_water)
+  }
+
   def copy(source:DirectBuffer) = {
     val rc = alloc(source.size)
     rc.copy(source)
@@ -539,7 +728,7 @@ class FileDirectBufferAllocator(val file:File) extends DirectBufferAllocator {
  *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
-class ConcurrentFileDirectBufferAllocator(val directory:File) extends DirectBufferAllocator {
+class ConcurrentFileDirectBufferAllocator(val directory:File, size_classes:Boolean=true) extends DirectBufferAllocator {
   import FileDirectBufferAllocator._
 
   final val context_counter = new AtomicInteger();
@@ -566,11 +755,16 @@ class ConcurrentFileDirectBufferAllocator(val directory:File) extends DirectBuff
         throw new IllegalStateException("Stopped");
       } else {
         var id = context_counter.incrementAndGet();
-        ctx = new FileDirectBufferAllocator(new File(directory, "zerocp-"+id+".data" ))
+        ctx = new FileDirectBufferAllocator(new File(directory, "zerocp-"+id+".data" ), size_classes)
         contexts.put(thread, ctx);
       }
     }
     ctx.alloc(size)
   }
 
+  def stats = {
+    import collection.JavaConversions._
+    contexts.values().foldLeft(AllocatorStats(0, 0, 0, 0))(_ + _.stats)
+  }
+
 }
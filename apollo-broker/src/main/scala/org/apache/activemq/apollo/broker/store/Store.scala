@@ -21,56 +21,223 @@ import org.apache.activemq.apollo.util._
 import java.util.concurrent.atomic.AtomicReference
 import org.apache.activemq.apollo.util.tar._
 import java.util.zip.{GZIPInputStream, GZIPOutputStream}
-import org.fusesource.hawtbuf.{AsciiBuffer, Buffer}
+import org.fusesource.hawtbuf.{DataByteArrayInputStream, DataByteArrayOutputStream, ByteArrayOutputStream, AsciiBuffer, Buffer}
 import java.io._
+import java.util.UUID
+import java.util.zip.CRC32
+import java.util.concurrent._
+import collection.mutable.ListBuffer
+import org.apache.activemq.apollo.dto.JsonCodec
 import org.apache.activemq.apollo.util.FileSupport._
 import org.fusesource.hawtbuf.proto.MessageBuffer
 
-case class ExportStreamManager(target:OutputStream, version:Int) {
-  val stream = new TarOutputStream(new GZIPOutputStream(target))
+/**
+ * How a store export gets written.
+ *
+ * @param version 1 for a gzipped tar with an entry per record which older
+ *                brokers can import, 2 for a tar of compressed segments.
+ * @param codec how the segments of a version 2 export get compressed: gzip or none.
+ * @param threads how many segments get compressed or uncompressed concurrently.
+ * @param segment_size how many bytes of records to collect before compressing them as a segment.
+ */
+case class ExportOptions(
+  version:Int = 2,
+  codec:String = "gzip",
+  threads:Int = Runtime.getRuntime.availableProcessors(),
+  segment_size:Int = 1024 * 1024 * 4
+)
+
+object ExportStreamManager {
+
+  def apply(target:OutputStream, options:ExportOptions):ExportStreamManager = {
+    new ExportStreamManager(target, options.version, options.codec, options.threads, options.segment_size)
+  }
+
+  val QUEUE_RECORD:Byte = 1
+  val QUEUE_ENTRY_RECORD:Byte = 2
+  val MESSAGE_RECORD:Byte = 3
+  val MAP_ENTRY_RECORD:Byte = 4
+
+  def checksum(data:Buffer) = {
+    val checksum = new CRC32
+    checksum.update(data.data, data.offset, data.length)
+    checksum.getValue
+  }
+
+  def compress(codec:String, data:Buffer):Buffer = codec match {
+    case "none" => data
+    case "gzip" =>
+      val out = new ByteArrayOutputStream(data.length / 2)
+      using(new GZIPOutputStream(out)) { os =>
+        data.writeTo(os)
+      }
+      out.toBuffer
+    case _ => throw new IllegalArgumentException("Unknown export codec: " + codec)
+  }
+
+  def uncompress(codec:String, data:Buffer):Buffer = codec match {
+    case "none" => data
+    case "gzip" => new Buffer(read_bytes(new GZIPInputStream(data.in)))
+    case _ => throw new IOException("Unknown export codec: " + codec)
+  }
+
+  def thread_pool(name:String, threads:Int) = Executors.newFixedThreadPool(threads max 1, new ThreadFactory() {
+    def newThread(r: Runnable) = {
+      val rc = new Thread(r, name)
+      rc.setDaemon(true)
+      rc
+    }
+  })
+}
+
+/**
+ * <p>
+ * Writes the records of a store export.  Version 1 exports are a gzipped
+ * tar with an entry per record.  Version 2 exports are a tar of independently
+ * compressed segments of records which get compressed concurrently, followed
+ * by a manifest listing every segment.  The name of a segment entry holds its
+ * checksum so that the importer can verify it before using it.
+ * </p>
+ */
+case class ExportStreamManager(target:OutputStream, version:Int, codec:String="gzip", threads:Int=Runtime.getRuntime.availableProcessors(), segment_size:Int=1024 * 1024 * 4) {
+  import ExportStreamManager._
+
+  if( codec != "gzip" && codec != "none" ) {
+    throw new IllegalArgumentException("Unknown export codec: " + codec)
+  }
+
+  val stream = new TarOutputStream(if( version == 1 ) new GZIPOutputStream(target) else target)
 
   var seq:Long = 0;
-  
-  def finish = stream.close()
 
-  private def store(ext:String, value:Buffer) = {
-    var entry = new TarEntry(seq.toString + "." + ext)
-    seq += 1
+  // version 2 state.
+  val export_id = UUID.randomUUID().toString
+  val segment_codec = codec
+  lazy val executor = thread_pool("store export", threads)
+  val pending = new java.util.LinkedList[(Future[Buffer], Int)]()
+  var segment = new DataByteArrayOutputStream(segment_size + 1024)
+  var segment_records = 0
+  val manifest = new java.util.ArrayList[java.util.Map[String, Object]]()
+  var total_records = 0L
+
+  def finish = {
+    if( version != 1 ) {
+      flush_segment
+      while( !pending.isEmpty ) {
+        write_segment
+      }
+      executor.shutdown()
+      val rc = new java.util.HashMap[String, Object]()
+      rc.put("id", export_id)
+      rc.put("codec", segment_codec)
+      rc.put("records", java.lang.Long.valueOf(total_records))
+      rc.put("segments", manifest)
+      store("mft", JsonCodec.encode(rc))
+    }
+    stream.close()
+  }
+
+  private def store_entry(name:String, value:Buffer):Unit = {
+    var entry = new TarEntry(name)
     entry.setSize(value.length())
     stream.putNextEntry(entry);
     value.writeTo(stream)
     stream.closeEntry();
   }
 
-  private def store(ext:String, value:MessageBuffer[_,_]) = {
-    var entry = new TarEntry(seq.toString + "." + ext)
+  private def store(ext:String, value:Buffer):Unit = {
+    store_entry(seq.toString + "." + ext, value)
     seq += 1
-    entry.setSize(value.serializedSizeFramed())
-    stream.putNextEntry(entry);
-    value.writeFramed(stream)
-    stream.closeEntry();
+  }
+
+  private def store(ext:String, kind:Byte, value:MessageBuffer[_,_]):Unit = {
+    if( version == 1 ) {
+      var entry = new TarEntry(seq.toString + "." + ext)
+      seq += 1
+      entry.setSize(value.serializedSizeFramed())
+      stream.putNextEntry(entry);
+      value.writeFramed(stream)
+      stream.closeEntry();
+    } else {
+      segment.writeByte(kind)
+      value.writeFramed(segment)
+      segment_records += 1
+      if( segment.position() >= segment_size ) {
+        flush_segment
+      }
+    }
+  }
+
+  private def flush_segment = {
+    if( segment_records > 0 ) {
+      val data = segment.toBuffer
+      pending.add((executor.submit(new Callable[Buffer] {
+        def call = compress(segment_codec, data)
+      }), segment_records))
+      segment = new DataByteArrayOutputStream(segment_size + 1024)
+      segment_records = 0
+
+      // bound the memory held by the segments waiting to be written.
+      while( pending.size() > threads * 2 ) {
+        write_segment
+      }
+    }
+  }
+
+  // segments are written in the order they were filled.
+  private def write_segment = {
+    val (future, records) = pending.poll()
+    val data = future.get()
+    val name = "%d.%x.seg".format(seq, checksum(data))
+    seq += 1
+    store_entry(name, data)
+
+    val info = new java.util.HashMap[String, Object]()
+    info.put("name", name)
+    info.put("size", java.lang.Integer.valueOf(data.length))
+    info.put("records", java.lang.Integer.valueOf(records))
+    manifest.add(info)
+    total_records += records
   }
 
   store("ver", new AsciiBuffer(version.toString))
+  if( version != 1 ) {
+    store("cdc", new AsciiBuffer(segment_codec))
+    store("id", new AsciiBuffer(export_id))
+  }
 
   def store_queue(value:QueuePB.Getter) = {
-    store("que", value.freeze())
+    store("que", QUEUE_RECORD, value.freeze())
   }
   def store_queue_entry(value:QueueEntryPB.Getter) = {
-    store("qen", value.freeze())
+    store("qen", QUEUE_ENTRY_RECORD, value.freeze())
   }
   def store_message(value:MessagePB.Getter) = {
-    store("msg", value.freeze())
+    store("msg", MESSAGE_RECORD, value.freeze())
   }
   def store_map_entry(value:MapEntryPB.Getter) = {
-    store("map", value.freeze())
+    store("map", MAP_ENTRY_RECORD, value.freeze())
   }
 
 }
 
-case class ImportStreamManager(source:InputStream) {
-  
-  val stream = new TarInputStream(new GZIPInputStream(source))
+/**
+ * <p>
+ * Reads the records of a store export of either version.  The segments of a
+ * version 2 export are verified and uncompressed concurrently, ahead of the
+ * records being consumed.  next_batch returns the records a segment at a time
+ * and skip lets an interrupted import resume after the last segment it applied.
+ * </p>
+ */
+case class ImportStreamManager(source:InputStream, threads:Int=Runtime.getRuntime.availableProcessors()) {
+  import ExportStreamManager._
+
+  private val input = new BufferedInputStream(source)
+  input.mark(2)
+  private val gzipped = input.read() == 0x1f && input.read() == 0x8b
+  input.reset()
+
+  val stream = new TarInputStream(if( gzipped ) new GZIPInputStream(input) else input)
 
   val version = try {
     var entry = stream.getNextEntry
@@ -79,25 +246,143 @@ case class ImportStreamManager(source:InputStream) {
     }
     read_text(stream).toInt
   } catch {
-    case e:Throwable => new IOException("Could not determine export format version: "+e)
+    case e:Throwable => throw new IOException("Could not determine export format version: "+e)
   }
-  
-  def getNext:AnyRef = {
-    var entry = stream.getNextEntry
-    if( entry==null ) {
-      return null;
+
+  private def read_entry(name:String) = {
+    val entry = stream.getNextEntry
+    if( entry == null || !entry.getName.endsWith("."+name) ) {
+      throw new IOException("Export is missing the "+name+" entry")
+    }
+    read_text(stream)
+  }
+
+  val (segment_codec, export_id) = if( version == 1 ) {
+    (null, null)
+  } else {
+    (read_entry("cdc"), read_entry("id"))
+  }
+
+  // the number of the segment the last batch came from.
+  var segment = 0L
+  private var read_segments = 0L
+  private var skip_through = 0L
+  private var eof = false
+  private lazy val executor = thread_pool("store import", threads)
+  private val pending = new java.util.LinkedList[Future[Seq[AnyRef]]]()
+
+  /**
+   * Skips the segments up to and including the given segment number.
+   */
+  def skip(segment:Long) = {
+    skip_through = segment
+  }
+
+  private def parse(name:String, in:InputStream):AnyRef = {
+    if( name.endsWith(".qen") ) {
+      QueueEntryPB.FACTORY.parseFramed(in)
+    } else if( name.endsWith(".msg") ) {
+      MessagePB.FACTORY.parseFramed(in)
+    } else if( name.endsWith(".que") ) {
+      QueuePB.FACTORY.parseFramed(in)
+    } else if( name.endsWith(".map") ) {
+      MapEntryPB.FACTORY.parseFramed(in)
+    } else {
+      throw new Exception("Unknown entry: "+name)
+    }
+  }
+
+  private def parse_segment(data:Buffer):Seq[AnyRef] = {
+    val rc = ListBuffer[AnyRef]()
+    val is = new DataByteArrayInputStream(data)
+    while( is.available() > 0 ) {
+      rc += (is.readByte() match {
+        case QUEUE_RECORD => QueuePB.FACTORY.parseFramed(is)
+        case QUEUE_ENTRY_RECORD => QueueEntryPB.FACTORY.parseFramed(is)
+        case MESSAGE_RECORD => MessagePB.FACTORY.parseFramed(is)
+        case MAP_ENTRY_RECORD => MapEntryPB.FACTORY.parseFramed(is)
+        case kind => throw new IOException("Unknown record kind: "+kind)
+      })
     }
+    rc
+  }
+
+  private def read_ahead = {
+    while( !eof && pending.size() < threads * 2 ) {
+      val entry = stream.getNextEntry
+      if( entry == null ) {
+        throw new IOException("Export is truncated, the manifest is missing")
+      }
+      val name = entry.getName
+      if( name.endsWith(".seg") ) {
+        read_segments += 1
+        val data = new Buffer(read_bytes(stream))
+        if( read_segments > skip_through ) {
+          val expected = java.lang.Long.parseLong(name.split('.')(1), 16)
+          pending.add(executor.submit(new Callable[Seq[AnyRef]] {
+            def call = {
+              if( checksum(data) != expected ) {
+                throw new IOException("Checksum mismatch in export segment: "+name)
+              }
+              parse_segment(uncompress(segment_codec, data))
+            }
+          }))
+        }
+      } else if( name.endsWith(".mft") ) {
+        val manifest = JsonCodec.decode(new Buffer(read_bytes(stream)), classOf[java.util.Map[String, Object]])
+        val segments = manifest.get("segments").asInstanceOf[java.util.List[_]].size()
+        if( manifest.get("id") != export_id || segments != read_segments ) {
+          throw new IOException("Export manifest lists %d segments but %d were read".format(segments, read_segments))
+        }
+        eof = true
+      } else {
+        throw new IOException("Unknown entry: "+name)
+      }
+    }
+  }
 
-    if( entry.getName.endsWith(".qen") ) {
-      QueueEntryPB.FACTORY.parseFramed(stream)
-    } else if( entry.getName.endsWith(".msg") ) {
-      MessagePB.FACTORY.parseFramed(stream)
-    } else if( entry.getName.endsWith(".que") ) {
-      QueuePB.FACTORY.parseFramed(stream)
-    } else if( entry.getName.endsWith(".map") ) {
-      MapEntryPB.FACTORY.parseFramed(stream)
+  /**
+   * @return the records of the next segment or null at the end of the export.
+   */
+  def next_batch:Seq[AnyRef] = {
+    if( version == 1 ) {
+      val rc = getNext
+      if( rc == null ) null else Seq(rc)
     } else {
-      throw new Exception("Unknown entry: "+entry.getName)
+      read_ahead
+      if( pending.isEmpty ) {
+        executor.shutdown()
+        null
+      } else {
+        val rc = try {
+          pending.poll().get()
+        } catch {
+          case e:ExecutionException => throw e.getCause
+        }
+        segment = read_segments - pending.size()
+        rc
+      }
+    }
+  }
+
+  private var batch:Iterator[AnyRef] = Iterator.empty
+
+  def getNext:AnyRef = {
+    if( version == 1 ) {
+      var entry = stream.getNextEntry
+      if( entry==null ) {
+        return null;
+      }
+      parse(entry.getName, stream)
+    } else {
+      while( !batch.hasNext ) {
+        val next = next_batch
+        if( next == null ) {
+          return null
+        }
+        batch = next.iterator
+      }
+      batch.next()
     }
   }
 }
@@ -197,7 +482,9 @@ trait Store extends ServiceTrait {
   /**
    * Exports the contents of the store to the provided stream.
    */
-  def export_data(os:OutputStream, cb:(Option[String])=>Unit):Unit
+  def export_data(os:OutputStream, options:ExportOptions, cb:(Option[String])=>Unit):Unit
+
+  def export_data(os:OutputStream, cb:(Option[String])=>Unit):Unit = export_data(os, ExportOptions(), cb)
 
   /**
    * Imports a previous export from the input stream.
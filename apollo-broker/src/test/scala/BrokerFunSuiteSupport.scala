@@ -66,6 +66,14 @@ object BrokerTestSupport {
     }.await()
   }
 
+  def topic_uses_fan_out(broker:Broker, name: String): Boolean = {
+    val host = broker.default_virtual_host
+    host.dispatch_queue.future {
+      val router = host.router.asInstanceOf[LocalRouter]
+      router.local_topic_domain.destination_by_id.get(name).map(_.fan_out != null).getOrElse(false)
+    }.await()
+  }
+
   def topic_status(broker:Broker, name: String): TopicStatusDTO = {
     val host = broker.default_virtual_host
     sync(host) {
@@ -265,6 +273,7 @@ class BrokerFunSuiteSupport extends FunSuiteSupport with Logging { // with Shoul
   def delete_queue(name: String) = BrokerTestSupport.delete_queue(broker, name)
   def topic_exists(name: String) = BrokerTestSupport.topic_exists(broker, name)
   def topic_status(name: String) = BrokerTestSupport.topic_status(broker, name)
+  def topic_uses_fan_out(name: String) = BrokerTestSupport.topic_uses_fan_out(broker, name)
   def get_queue_metrics = BrokerTestSupport.get_queue_metrics(broker)
   def get_topic_metrics = BrokerTestSupport.get_topic_metrics(broker)
   def get_dsub_metrics = BrokerTestSupport.get_dsub_metrics(broker)
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker
+
+import org.apache.activemq.apollo.util.FunSuiteSupport
+import org.scalatest.matchers.ShouldMatchers
+import java.util.concurrent.atomic.AtomicReference
+import org.apache.activemq.apollo.broker.store.QueueEntryRecord
+
+class PackedEntriesTest extends FunSuiteSupport with ShouldMatchers {
+
+  def locator(position:Long, length:Int) = new AtomicReference[Object]((position, length))
+
+  test("entries round trip through the packed arrays") {
+    val packed = new PackedEntries(2)
+    for( i <- 0 until 100 ) {
+      val expiration = if( i % 10 == 0 ) 5000L + i else 0L
+      packed.add(10L + i*2, (1L<<40) + i, locator((1L<<33) + i*100, 90+i), 1000+i, expiration, (i%3).toShort, false) should be (true)
+    }
+    packed.count should be (100)
+
+    val records = packed.records(7)
+    records.size should be (100)
+    for( (record, i) <- records.zipWithIndex ) {
+      record.queue_key should be (7)
+      record.entry_seq should be (10L + i*2)
+      record.message_key should be ((1L<<40) + i)
+      record.message_locator.get should be (((1L<<33) + i*100, 90+i))
+      record.size should be (1000+i)
+      record.expiration should be (if( i % 10 == 0 ) 5000L + i else 0L)
+      record.redeliveries should be ((i%3).toShort)
+      record.sender should be (Nil)
+    }
+  }
+
+  test("entries which can't be packed are rejected") {
+    val packed = new PackedEntries
+    packed.add(1, 1, null, 10, 0, 0, false) should be (true)
+    // senders are not packed
+    packed.add(2, 2, null, 10, 0, 0, true) should be (false)
+    // the entries either all have locators or none of them do
+    packed.add(2, 2, locator(0, 10), 10, 0, 0, false) should be (false)
+    // entries are added in sequence order
+    packed.add(1, 2, null, 10, 0, 0, false) should be (false)
+    // deltas have to fit in an int
+    packed.add(2, 1L<<40, null, 10, 0, 0, false) should be (false)
+    packed.count should be (1)
+
+    val unknown = new PackedEntries
+    unknown.add(1, 1, new AtomicReference[Object]("locator"), 10, 0, 0, false) should be (false)
+    unknown.count should be (0)
+  }
+
+  test("packed ranges can be appended") {
+    val first = new PackedEntries
+    val second = new PackedEntries
+    for( i <- 0 until 5 ) {
+      first.add(i, 100+i, locator(i*10, 10), 10, 0, 0, false) should be (true)
+      second.add(5+i, 105+i, locator(50+i*10, 10), 10, 0, 0, false) should be (true)
+    }
+    first.add_all(second) should be (true)
+    first.records(1).map(_.entry_seq).toList should be ((0L until 10L).toList)
+    first.records(1).map(_.message_key).toList should be ((100L until 110L).toList)
+
+    val no_locators = new PackedEntries
+    no_locators.add(20, 200, null, 10, 0, 0, false) should be (true)
+    first.add_all(no_locators) should be (false)
+  }
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker.security
+
+import org.apache.activemq.apollo.util.FunSuiteSupport
+import org.scalatest.matchers.ShouldMatchers
+import java.net.InetSocketAddress
+import javax.security.auth.Subject
+import org.apache.activemq.jaas.UserPrincipal
+import collection.JavaConversions._
+
+class AuthenticationCacheTest extends FunSuiteSupport with ShouldMatchers {
+
+  def context(user:String, password:String, port:Int) = {
+    val rc = new SecurityContext
+    rc.user = user
+    rc.password = password
+    rc.remote_address = new InetSocketAddress("127.0.0.1", port)
+    rc
+  }
+
+  def subject(user:String) = {
+    val rc = new Subject
+    rc.getPrincipals.add(new UserPrincipal(user))
+    rc
+  }
+
+  test("logins are cached by user, credential and source host") {
+    val cache = new AuthenticationCache(10, 1000)
+    val key = cache.key(context("chirino", "secret", 1000))
+    cache.get(key, 0) should be (null)
+    cache.put(key, subject("chirino"), 0)
+
+    // a reconnect from another port of the same host hits the cache.
+    val cached = cache.get(cache.key(context("chirino", "secret", 2000)), 10)
+    cached.getPrincipals.map(_.getName).toSet should be (Set("chirino"))
+
+    cache.get(cache.key(context("chirino", "wrong", 1000)), 10) should be (null)
+    cache.get(cache.key(context("other", "secret", 1000)), 10) should be (null)
+    key.credential should not be ("secret")
+  }
+
+  test("cached logins expire and are cleared when the access rules change") {
+    val cache = new AuthenticationCache(10, 1000)
+    val key = cache.key(context("chirino", "secret", 1000))
+    cache.put(key, subject("chirino"), 0)
+    cache.get(key, 999) should not be (null)
+    cache.get(key, 1000) should be (null)
+
+    cache.put(key, subject("chirino"), 0)
+    Authorizer.version_counter.incrementAndGet()
+    cache.get(key, 10) should be (null)
+    cache.size should be (0)
+  }
+
+  test("the cache is bounded") {
+    val cache = new AuthenticationCache(2, 1000)
+    for( i <- 0 until 5 ) {
+      cache.put(cache.key(context("user"+i, "secret", 1000)), subject("user"+i), 0)
+    }
+    cache.size should be (2)
+  }
+
+}
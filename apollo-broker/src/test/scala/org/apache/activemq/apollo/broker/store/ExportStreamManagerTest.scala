@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker.store
+
+import org.apache.activemq.apollo.util.FunSuiteSupport
+import org.scalatest.matchers.ShouldMatchers
+import org.fusesource.hawtbuf.{ByteArrayInputStream, ByteArrayOutputStream, AsciiBuffer, Buffer}
+import java.io.IOException
+import collection.mutable.ListBuffer
+
+class ExportStreamManagerTest extends FunSuiteSupport with ShouldMatchers {
+
+  def export(version:Int, codec:String, count:Int) = {
+    val out = new ByteArrayOutputStream()
+    val manager = ExportStreamManager(out, ExportOptions(version=version, codec=codec, segment_size=256))
+    for( i <- 0 until count ) {
+      val message = new MessagePB.Bean
+      message.setMessageKey(i)
+      message.setCodec(new AsciiBuffer("test"))
+      message.setValue(new AsciiBuffer("message-%05d".format(i)))
+      manager.store_message(message)
+
+      val entry = new QueueEntryPB.Bean
+      entry.setQueueKey(1)
+      entry.setQueueSeq(i)
+      entry.setMessageKey(i)
+      manager.store_queue_entry(entry)
+    }
+    val queue = new QueuePB.Bean
+    queue.setKey(1)
+    manager.store_queue(queue)
+    manager.finish
+    out.toBuffer
+  }
+
+  def message_keys(manager:ImportStreamManager) = {
+    val rc = ListBuffer[Long]()
+    var next = manager.getNext
+    while( next != null ) {
+      next match {
+        case x:MessagePB.Buffer => rc += x.getMessageKey
+        case _ =>
+      }
+      next = manager.getNext
+    }
+    rc.toList
+  }
+
+  test("round trip") {
+    for( (version, codec) <- List((1, "gzip"), (2, "gzip"), (2, "none")) ) {
+      val manager = ImportStreamManager(new ByteArrayInputStream(export(version, codec, 100)))
+      manager.version should be (version)
+      message_keys(manager) should be ((0L until 100L).toList)
+    }
+  }
+
+  test("version 1 exports are a gzipped tar and version 2 exports a plain tar") {
+    val v1 = export(1, "gzip", 10)
+    (v1.get(0) & 0xff, v1.get(1) & 0xff) should be ((0x1f, 0x8b))
+    // a plain tar starts with the name of its first entry.
+    export(2, "gzip", 10).startsWith(new AsciiBuffer("0.ver")) should be (true)
+  }
+
+  test("batches can be skipped to resume an import") {
+    val data = export(2, "gzip", 100)
+    val manager = ImportStreamManager(new ByteArrayInputStream(data))
+    manager.next_batch should not be (null)
+    manager.next_batch should not be (null)
+    manager.segment should be (2)
+    val remaining = message_keys(manager)
+
+    val resumed = ImportStreamManager(new ByteArrayInputStream(data))
+    resumed.export_id should be (manager.export_id)
+    resumed.skip(2)
+    message_keys(resumed) should be (remaining)
+  }
+
+  test("corrupt and truncated exports are detected") {
+    val data = export(2, "none", 100)
+    val marker = data.indexOf(new AsciiBuffer("message-00050"))
+    marker should not be (-1)
+
+    val corrupt = data.deepCopy()
+    corrupt.data(corrupt.offset + marker) = 'X'.toByte
+    intercept[IOException] {
+      message_keys(ImportStreamManager(new ByteArrayInputStream(corrupt)))
+    }
+
+    // cut the export off at the manifest entry's header
+    val manifest = data.indexOf(new AsciiBuffer(".mft"))
+    val truncated = new Buffer(data.data, data.offset, manifest - manifest % 512)
+    intercept[IOException] {
+      message_keys(ImportStreamManager(new ByteArrayInputStream(truncated)))
+    }
+  }
+
+}
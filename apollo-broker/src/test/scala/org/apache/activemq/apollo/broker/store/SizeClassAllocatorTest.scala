@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker.store
+
+import org.apache.activemq.apollo.util.FunSuiteSupport
+import org.scalatest.matchers.ShouldMatchers
+
+class SizeClassAllocatorTest extends FunSuiteSupport with ShouldMatchers {
+
+  def create = new SizeClassAllocator(new TreeAllocator(Range(0, Long.MaxValue)), 512, 1024*4, 1024*16)
+
+  test("requests are rounded up to their size class") {
+    val allocator = create
+    allocator.class_of(1) should be (0)
+    allocator.class_of(512) should be (0)
+    allocator.class_of(513) should be (1)
+    allocator.class_of(1024*4) should be (3)
+
+    val a = allocator.alloc(100)
+    val b = allocator.alloc(100)
+    a.size should be (100)
+    (b.offset - a.offset) should be (512L)
+
+    val c = allocator.alloc(600)
+    (c.offset % (1024*16)) should be (0L)
+
+    allocator.stats should be (AllocatorStats(800, 2048, 1024*32, 1024*32))
+    allocator.stats.internal_fragmentation should be (1.0 - 800.0/2048)
+  }
+
+  test("freed chunks are reused") {
+    val allocator = create
+    val a = allocator.alloc(100)
+    val b = allocator.alloc(200)
+    a.free()
+    allocator.alloc(300).offset should be (a.offset)
+    b.free()
+    allocator.stats.requested should be (300L)
+    allocator.stats.reserved should be (1024L*16)
+  }
+
+  test("large requests go to the tree") {
+    val allocator = create
+    val a = allocator.alloc(1024*5)
+    a.size should be (1024*5)
+    allocator.stats.reserved should be (1024L*5)
+    a.free()
+
+    // given back to the tree on the next alloc.
+    allocator.stats.reserved should be (1024L*5)
+    val b = allocator.alloc(1024*5)
+    b.offset should be (a.offset)
+    allocator.stats.reserved should be (1024L*5)
+  }
+
+}
@@ -50,39 +50,42 @@ abstract class StoreTests extends StoreFunSuiteSupport {
       rc.get.buffer
     }
 
-    val file = test_data_dir / "export.tgz"
-    file.getParentFile.mkdirs()
-    using( new BufferedOutputStream(new FileOutputStream(file))) { os =>
-    // Export the data...
-      expect(None) {
-        sync_cb[Option[String]] { cb =>
-          store.export_data(os, cb)
+    // Both export formats should round trip.
+    for( version <- List(1, 2) ) {
+      val file = test_data_dir / ("export-%d.tar".format(version))
+      file.getParentFile.mkdirs()
+      using( new BufferedOutputStream(new FileOutputStream(file))) { os =>
+      // Export the data...
+        expect(None) {
+          sync_cb[Option[String]] { cb =>
+            store.export_data(os, ExportOptions(version=version), cb)
+          }
         }
       }
-    }
 
-    // purge the data..
-    purge
+      // purge the data..
+      purge
 
-    // There should ne no queues..
-    expectCB(Seq[Long]()) { cb=>
-      store.list_queues(cb)
-    }
+      // There should ne no queues..
+      expectCB(Seq[Long]()) { cb=>
+        store.list_queues(cb)
+      }
 
-    // Import the data..
-    using(new BufferedInputStream(new FileInputStream(file))) { is =>
-      expect(None) {
-        sync_cb[Option[String]] { cb =>
-          store.import_data(is, cb)
+      // Import the data..
+      using(new BufferedInputStream(new FileInputStream(file))) { is =>
+        expect(None) {
+          sync_cb[Option[String]] { cb =>
+            store.import_data(is, cb)
+          }
         }
       }
-    }
 
-    // The data should be there now again..
-    val queues:Seq[Long] = sync_cb(store.list_queues(_))
-    expect(1)(queues.size)
-    val entries:Seq[QueueEntryRecord] = sync_cb(cb=> store.list_queue_entries(A,0, Long.MaxValue)(cb))
-    expect(3) ( entries.size  )
+      // The data should be there now again..
+      val queues:Seq[Long] = sync_cb(store.list_queues(_))
+      expect(1)(queues.size)
+      val entries:Seq[QueueEntryRecord] = sync_cb(cb=> store.list_queue_entries(A,0, Long.MaxValue)(cb))
+      expect(3) ( entries.size  )
+    }
 
   }
 
@@ -0,0 +1,547 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.cli.commands
+
+import io.airlift.command.{Command, Option}
+import java.io._
+import java.net.InetSocketAddress
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicLong}
+import java.util.concurrent.locks.LockSupport
+import javax.jms
+import org.apache.activemq.apollo.broker.{ConfigStore, Broker}
+import org.apache.activemq.apollo.dto.{JsonCodec, AcceptingConnectorDTO, VirtualHostDTO, BrokerDTO}
+import org.apache.activemq.apollo.util._
+import org.apache.activemq.apollo.util.FileSupport._
+import MemoryPropertyEditor._
+
+/**
+ * Collects the counters and latency samples shared by all the
+ * benchmark clients.
+ */
+class BenchmarkStats {
+  @volatile var measuring = false
+  val sent = new AtomicLong()
+  val received = new AtomicLong()
+  val latency = new LatencyHistogram()
+
+  def on_send = if( measuring ) {
+    sent.incrementAndGet()
+  }
+
+  def on_receive(sent_at:Long) = if( measuring ) {
+    received.incrementAndGet()
+    latency.record(System.nanoTime() - sent_at)
+  }
+}
+
+/**
+ * A producer or consumer connected to the broker.
+ */
+trait BenchmarkClient {
+  def start:Unit
+  def stop:Unit
+}
+
+/**
+ * Producer clients run on their own thread and keep sending
+ * until they are stopped.
+ */
+abstract class BenchmarkProducerClient(name:String, rate:Int) extends BenchmarkClient {
+  val done = new AtomicBoolean()
+  val thread = new Thread(name) {
+    override def run() = {
+      try {
+        val period = if( rate > 0 ) TimeUnit.SECONDS.toNanos(1) / rate else 0L
+        var next = System.nanoTime()
+        while( !done.get ) {
+          if( period > 0 ) {
+            next += period
+            val delay = next - System.nanoTime()
+            if( delay > 0 ) {
+              LockSupport.parkNanos(delay)
+            }
+          }
+          send
+        }
+      } catch {
+        case e:Throwable =>
+          if( !done.get ) {
+            Benchmark.warn(e, "Producer %s failed: %s", name, e)
+          }
+      }
+    }
+  }
+
+  def send:Unit
+  def open:Unit
+  def close:Unit
+
+  def start = {
+    open
+    thread.start()
+  }
+
+  def stop = {
+    done.set(true)
+    thread.join(TimeUnit.SECONDS.toMillis(5))
+    close
+  }
+}
+
+/**
+ * Creates the benchmark clients for one of the supported protocols.
+ */
+trait BenchmarkDriver {
+  val benchmark:Benchmark
+  def producer(id:Int, destination:String):BenchmarkClient
+  def consumer(id:Int, destination:String):BenchmarkClient
+}
+
+/**
+ * Drives protocols which have a JMS client.  The send time is carried in
+ * a message property so the body is left at the configured size.
+ */
+abstract class JmsBenchmarkDriver extends BenchmarkDriver {
+  import benchmark._
+
+  final val SENT_AT = "benchmark_sent_at"
+
+  def connection_factory:jms.ConnectionFactory
+
+  def destination(session:jms.Session, name:String):jms.Destination = {
+    if( is_topic ) session.createTopic(name) else session.createQueue(name)
+  }
+
+  def create_connection(client_id:String) = {
+    val connection = connection_factory.createConnection(user, password)
+    if( client_id!=null ) {
+      connection.setClientID(client_id)
+    }
+    connection
+  }
+
+  def producer(id:Int, destination_name:String) = new BenchmarkProducerClient("benchmark producer "+id, producer_rate) {
+    var connection:jms.Connection = _
+    var session:jms.Session = _
+    var producer:jms.MessageProducer = _
+    val body = new Array[Byte](message_size)
+
+    def open = {
+      connection = create_connection(null)
+      connection.start()
+      session = connection.createSession(false, jms.Session.AUTO_ACKNOWLEDGE)
+      producer = session.createProducer(destination(session, destination_name))
+      producer.setDeliveryMode(if( persistent ) jms.DeliveryMode.PERSISTENT else jms.DeliveryMode.NON_PERSISTENT)
+    }
+
+    def send = {
+      val message = session.createBytesMessage()
+      message.writeBytes(body)
+      for( (key, value) <- message_properties ) {
+        message.setStringProperty(key, value)
+      }
+      message.setLongProperty(SENT_AT, System.nanoTime())
+      producer.send(message)
+      stats.on_send
+    }
+
+    def close = connection.close()
+  }
+
+  def consumer(id:Int, destination_name:String) = new BenchmarkClient {
+    var connection:jms.Connection = _
+
+    def start = {
+      connection = create_connection(if( durable ) "benchmark-"+id else null)
+      val session = connection.createSession(false, jms.Session.AUTO_ACKNOWLEDGE)
+      val dest = destination(session, destination_name)
+      val consumer = if( durable ) {
+        session.createDurableSubscriber(dest.asInstanceOf[jms.Topic], "benchmark-"+id, selector, false)
+      } else {
+        session.createConsumer(dest, selector)
+      }
+      consumer.setMessageListener(new jms.MessageListener {
+        def onMessage(message: jms.Message) = {
+          stats.on_receive(message.getLongProperty(SENT_AT))
+        }
+      })
+      connection.start()
+    }
+
+    def stop = connection.close()
+  }
+}
+
+class StompBenchmarkDriver(val benchmark:Benchmark) extends JmsBenchmarkDriver {
+  def connection_factory = {
+    val factory = new org.fusesource.stomp.jms.StompJmsConnectionFactory()
+    factory.setBrokerURI(benchmark.broker_uri)
+    factory
+  }
+}
+
+class OpenwireBenchmarkDriver(val benchmark:Benchmark) extends JmsBenchmarkDriver {
+  def connection_factory = new org.apache.activemq.ActiveMQConnectionFactory(benchmark.broker_uri)
+}
+
+class AmqpBenchmarkDriver(val benchmark:Benchmark) extends JmsBenchmarkDriver {
+  import org.apache.qpid.amqp_1_0.jms.impl._
+
+  def connection_factory = {
+    val address = benchmark.broker_address
+    new ConnectionFactoryImpl(address.getHostName, address.getPort, benchmark.user, benchmark.password)
+  }
+
+  override def destination(session:jms.Session, name:String) = {
+    if( benchmark.is_topic ) new TopicImpl("topic://"+name) else new QueueImpl("queue://"+name)
+  }
+}
+
+/**
+ * MQTT has no message properties so the send time is stored in the
+ * first 8 bytes of the body.
+ */
+class MqttBenchmarkDriver(val benchmark:Benchmark) extends BenchmarkDriver {
+  import benchmark._
+  import org.fusesource.mqtt.client._
+
+  def qos = if( persistent ) QoS.AT_LEAST_ONCE else QoS.AT_MOST_ONCE
+
+  def create_connection(client_id:String) = {
+    val mqtt = new MQTT()
+    mqtt.setHost(broker_uri)
+    mqtt.setClientId(client_id)
+    mqtt.setCleanSession(!durable)
+    if( user!=null ) {
+      mqtt.setUserName(user)
+      mqtt.setPassword(password)
+    }
+    val connection = mqtt.blockingConnection()
+    connection.connect()
+    connection
+  }
+
+  def producer(id:Int, destination_name:String) = new BenchmarkProducerClient("benchmark producer "+id, producer_rate) {
+    var connection:BlockingConnection = _
+
+    def open = connection = create_connection("benchmark-producer-"+id)
+
+    def send = {
+      val body = new Array[Byte](message_size)
+      val sent_at = System.nanoTime()
+      var i = 0
+      while( i < 8 ) {
+        body(i) = (sent_at >>> (56 - (i * 8))).toByte
+        i += 1
+      }
+      connection.publish(destination_name, body, qos, false)
+      stats.on_send
+    }
+
+    def close = connection.disconnect()
+  }
+
+  def consumer(id:Int, destination_name:String) = new BenchmarkClient {
+    var connection:BlockingConnection = _
+    val done = new AtomicBoolean()
+    val thread = new Thread("benchmark consumer "+id) {
+      override def run() = {
+        try {
+          while( !done.get ) {
+            val message = connection.receive(1, TimeUnit.SECONDS)
+            if( message!=null ) {
+              val body = message.getPayload
+              var sent_at = 0L
+              var i = 0
+              while( i < 8 ) {
+                sent_at = (sent_at << 8) | (body(i) & 0xFF)
+                i += 1
+              }
+              message.ack()
+              stats.on_receive(sent_at)
+            }
+          }
+        } catch {
+          case e:Throwable =>
+            if( !done.get ) {
+              Benchmark.warn(e, "Consumer %d failed: %s", id, e)
+            }
+        }
+      }
+    }
+
+    def start = {
+      connection = create_connection("benchmark-consumer-"+id)
+      connection.subscribe(Array(new Topic(destination_name, qos)))
+      thread.start()
+    }
+
+    def stop = {
+      done.set(true)
+      thread.join(TimeUnit.SECONDS.toMillis(5))
+      connection.disconnect()
+    }
+  }
+}
+
+object Benchmark extends Log
+
+/**
+ * The apollo benchmark command
+ */
+@Command(name = "benchmark", description = "Benchmarks the messaging throughput and latency of a broker")
+class Benchmark extends BaseAction {
+
+  @Option(name = Array("--broker"), description = "The broker to benchmark.  Use 'vm:' to start an embedded broker. Defaults to localhost on the default port of the protocol.")
+  var broker_uri:String = _
+
+  @Option(name = Array("--conf"), description = "The configuration file of the embedded broker.  If not set, a broker without a store is used.")
+  var conf:File = _
+
+  @Option(name = Array("--protocol"), description = "The protocol to use: stomp, amqp, mqtt or openwire.  Defaults to stomp.")
+  var protocol = "stomp"
+
+  @Option(name = Array("--user"), description = "The user name to connect with.")
+  var user:String = _
+
+  @Option(name = Array("--password"), description = "The password to connect with.")
+  var password:String = _
+
+  @Option(name = Array("--destination-type"), description = "The type of destination to use: queue or topic.  Defaults to queue.")
+  var destination_type = "queue"
+
+  @Option(name = Array("--destination"), description = "The name of the destination to use.  Defaults to 'benchmark'.")
+  var destination_name = "benchmark"
+
+  @Option(name = Array("--destinations"), description = "The number of destinations to spread the load over.  Defaults to 1.")
+  var destination_count = 1
+
+  @Option(name = Array("--producers"), description = "The number of producers per destination.  Defaults to 1.")
+  var producer_count = 1
+
+  @Option(name = Array("--consumers"), description = "The number of consumers per destination.  On topics every consumer gets a copy of each message.  Defaults to 1.")
+  var consumer_count = 1
+
+  @Option(name = Array("--producer-rate"), description = "The maximum number of messages each producer sends per second, 0 means unlimited.  Defaults to 0.")
+  var producer_rate = 0
+
+  @Option(name = Array("--message-size"), description = "The size of the message bodies.  Defaults to 1k.")
+  var message_size_txt = "1k"
+  def message_size = parse(message_size_txt).toInt.max(8)
+
+  @Option(name = Array("--persistent"), description = "Send persistent messages.")
+  var persistent = false
+
+  @Option(name = Array("--durable"), description = "Use durable subscriptions on topics.")
+  var durable = false
+
+  @Option(name = Array("--selector"), description = "The selector the consumers use.")
+  var selector:String = _
+
+  @Option(name = Array("--property"), description = "A name=value property set on every sent message, can be repeated.")
+  var properties:java.util.List[String] = _
+
+  @Option(name = Array("--warm-up"), description = "The number of seconds to run before measuring.  Defaults to 5.")
+  var warm_up = 5
+
+  @Option(name = Array("--duration"), description = "The number of seconds to measure for.  Defaults to 30.")
+  var duration = 30
+
+  @Option(name = Array("--output"), description = "The file the JSON report is written to.  Defaults to the console.")
+  var output:File = _
+
+  val stats = new BenchmarkStats
+
+  def is_topic = destination_type == "topic"
+
+  def default_port = protocol match {
+    case "openwire" => 61616
+    case "amqp" => 5672
+    case "mqtt" => 1883
+    case _ => 61613
+  }
+
+  def broker_address = {
+    val uri = new java.net.URI(broker_uri)
+    new InetSocketAddress(uri.getHost, if( uri.getPort < 0 ) default_port else uri.getPort)
+  }
+
+  var message_properties = List[(String, String)]()
+
+  def execute(in: InputStream, out: PrintStream, err: PrintStream): Int = {
+    init_logging
+    import Helper._
+
+    var broker:Broker = null
+    var clients = List[BenchmarkClient]()
+    try {
+      if( !is_topic && destination_type != "queue" ) {
+        error("Invalid destination type: "+destination_type)
+      }
+      if( durable && !is_topic ) {
+        error("Durable subscriptions can only be used with topics.")
+      }
+      if( properties!=null ) {
+        message_properties = collection.JavaConversions.asScalaBuffer(properties).toList.map { x =>
+          x.split("=", 2) match {
+            case Array(key, value) => (key, value)
+            case _ => error("Invalid property '%s', expected name=value".format(x))
+          }
+        }
+      }
+      val driver = protocol match {
+        case "stomp" => new StompBenchmarkDriver(this)
+        case "openwire" => new OpenwireBenchmarkDriver(this)
+        case "amqp" => new AmqpBenchmarkDriver(this)
+        case "mqtt" =>
+          if( !is_topic ) {
+            error("MQTT can only be benchmarked against topics.")
+          }
+          if( selector!=null || !message_properties.isEmpty ) {
+            error("MQTT does not support selectors or message properties.")
+          }
+          new MqttBenchmarkDriver(this)
+        case _ => error("Unsupported protocol: "+protocol)
+      }
+
+      if( broker_uri == null ) {
+        broker_uri = "tcp://localhost:"+default_port
+      }
+      if( broker_uri.startsWith("vm:") ) {
+        broker = start_embedded_broker(out)
+        val address = broker.get_socket_address.asInstanceOf[InetSocketAddress]
+        broker_uri = "tcp://127.0.0.1:"+address.getPort
+      }
+
+      out.println("Benchmarking %s %s on %s".format(protocol, destination_type, broker_uri))
+      for( d <- 0 until destination_count ) {
+        val name = if( destination_count == 1 ) destination_name else destination_name+"."+d
+        for( c <- 0 until consumer_count ) {
+          val client = driver.consumer(d * consumer_count + c, name)
+          client.start
+          clients ::= client
+        }
+        for( p <- 0 until producer_count ) {
+          val client = driver.producer(d * producer_count + p, name)
+          client.start
+          clients ::= client
+        }
+      }
+
+      if( warm_up > 0 ) {
+        out.println("Warming up for %d seconds".format(warm_up))
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warm_up))
+      }
+
+      out.println("Measuring for %d seconds".format(duration))
+      stats.measuring = true
+      val start = System.nanoTime()
+      Thread.sleep(TimeUnit.SECONDS.toMillis(duration))
+      stats.measuring = false
+      val elapsed = System.nanoTime() - start
+
+      val report = this.report(elapsed)
+      if( output!=null ) {
+        using(new FileOutputStream(output)) { os =>
+          JsonCodec.mapper.writerWithDefaultPrettyPrinter().writeValue(os, report)
+        }
+        out.println("Report written to: "+output)
+      } else {
+        out.println(JsonCodec.mapper.writerWithDefaultPrettyPrinter().writeValueAsString(report))
+      }
+      0
+    } catch {
+      case x:Failure =>
+        err.println(x.getMessage)
+        1
+      case x:NoClassDefFoundError =>
+        err.println("The %s client library is not on the classpath, copy it into ${APOLLO_HOME}/lib: %s".format(protocol, x.getMessage))
+        1
+    } finally {
+      clients.foreach { client =>
+        try {
+          client.stop
+        } catch {
+          case e:Throwable => Benchmark.debug(e, "Could not stop client")
+        }
+      }
+      if( broker!=null ) {
+        ServiceControl.stop(broker, "stopping the embedded broker")
+      }
+    }
+  }
+
+  def start_embedded_broker(out:PrintStream) = {
+    val broker = new Broker()
+    broker.config = if( conf!=null ) {
+      ConfigStore.load(conf, out.println _)
+    } else {
+      val config = new BrokerDTO
+      val host = new VirtualHostDTO
+      host.id = "default"
+      host.host_names.add("localhost")
+      config.virtual_hosts.add(host)
+      val connector = new AcceptingConnectorDTO
+      connector.id = "tcp"
+      connector.bind = "tcp://127.0.0.1:0"
+      config.connectors.add(connector)
+      config
+    }
+    val tmp = File.createTempFile("apollo-benchmark", "")
+    tmp.delete()
+    tmp.mkdirs()
+    tmp.deleteOnExit()
+    broker.tmp = tmp
+    ServiceControl.start(broker, "starting the embedded broker")
+    broker
+  }
+
+  def report(elapsed:Long) = {
+    val seconds = elapsed / 1000000000.0d
+    def micros(value:Double) = (value / 1000.0d).asInstanceOf[AnyRef]
+
+    val latency = new java.util.LinkedHashMap[String, AnyRef]()
+    latency.put("min", micros(stats.latency.min))
+    latency.put("mean", micros(stats.latency.mean))
+    latency.put("p50", micros(stats.latency.percentile(50)))
+    latency.put("p99", micros(stats.latency.percentile(99)))
+    latency.put("p99.9", micros(stats.latency.percentile(99.9)))
+    latency.put("max", micros(stats.latency.max))
+
+    val rc = new java.util.LinkedHashMap[String, AnyRef]()
+    rc.put("protocol", protocol)
+    rc.put("destination_type", destination_type)
+    rc.put("destinations", destination_count.asInstanceOf[AnyRef])
+    rc.put("producers", (destination_count * producer_count).asInstanceOf[AnyRef])
+    rc.put("consumers", (destination_count * consumer_count).asInstanceOf[AnyRef])
+    rc.put("message_size", message_size.asInstanceOf[AnyRef])
+    rc.put("persistent", persistent.asInstanceOf[AnyRef])
+    rc.put("durable", durable.asInstanceOf[AnyRef])
+    if( selector!=null ) {
+      rc.put("selector", selector)
+    }
+    rc.put("duration", seconds.asInstanceOf[AnyRef])
+    rc.put("sent", stats.sent.get.asInstanceOf[AnyRef])
+    rc.put("received", stats.received.get.asInstanceOf[AnyRef])
+    rc.put("send_rate", (stats.sent.get / seconds).asInstanceOf[AnyRef])
+    rc.put("receive_rate", (stats.received.get / seconds).asInstanceOf[AnyRef])
+    rc.put("latency_us", latency)
+    rc
+  }
+
+}
@@ -23,7 +23,7 @@ import org.apache.activemq.apollo.dto.VirtualHostDTO
 import org.apache.activemq.apollo.util._
 import org.apache.activemq.apollo.broker.ConfigStore
 import java.io._
-import org.apache.activemq.apollo.broker.store.StoreFactory
+import org.apache.activemq.apollo.broker.store.{ExportOptions, StoreFactory}
 
 /**
  * The apollo stop command
@@ -39,7 +39,16 @@ class StoreExport extends BaseAction {
   @Option(name = Array("--virtual-host"), description = "The id of the virtual host to export, if not specified, the default virtual host is selected.")
   var host: String = _
 
-  @Arguments(description = "The compressed tar file to hold the exported data", required=true)
+  @Option(name = Array("--format"), description = "The export format version: 1 writes a gzipped tar which older brokers can import, 2 writes a tar of concurrently compressed segments. Defaults to 2.")
+  var format: Int = 2
+
+  @Option(name = Array("--codec"), description = "How the segments of a version 2 export get compressed: gzip or none. Defaults to gzip.")
+  var codec: String = "gzip"
+
+  @Option(name = Array("--threads"), description = "The number of threads used to compress the exported records.")
+  var threads: Int = Runtime.getRuntime.availableProcessors()
+
+  @Arguments(description = "The tar file to hold the exported data", required=true)
   var file:File = _
 
   def execute(in: InputStream, out: PrintStream, err: PrintStream): Int = {
@@ -80,10 +89,18 @@ class StoreExport extends BaseAction {
       out.println("Starting store: "+store)
       ServiceControl.start(store, "store startup")
 
+      if( format != 1 && format != 2 ) {
+        error("Unknown format: "+format)
+      }
+      if( codec != "gzip" && codec != "none" ) {
+        error("Unknown codec: "+codec)
+      }
+      val options = ExportOptions(version=format, codec=codec, threads=threads)
+
       out.println("Exporting... (this might take a while)")
       using( new BufferedOutputStream(new FileOutputStream(file)) ) { os=>
         sync_cb[scala.Option[String]] { cb =>
-          store.export_data(os, cb)
+          store.export_data(os, options, cb)
         }.foreach(error _)
       }
       ServiceControl.stop(store, "store stop");
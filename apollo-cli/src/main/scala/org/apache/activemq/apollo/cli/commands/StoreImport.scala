@@ -40,7 +40,7 @@ class StoreImport extends BaseAction {
   @Option(name = Array("--virtual-host"), description = "The id of the virtual host to import into, if not specified, the default virtual host is selected.")
   var host: String = _
 
-  @Arguments(description = "The compressed tar file the contains that data for the import", required=true)
+  @Arguments(description = "The tar file that contains the data for the import", required=true)
   var file:File = _
 
   def execute(in: InputStream, out: PrintStream, err: PrintStream): Int = {
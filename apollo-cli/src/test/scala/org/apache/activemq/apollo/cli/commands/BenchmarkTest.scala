@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.cli.commands
+
+import org.apache.activemq.apollo.util.FunSuiteSupport
+import org.apache.activemq.apollo.util.FileSupport._
+import org.apache.activemq.apollo.dto.JsonCodec
+import org.scalatest.matchers.ShouldMatchers
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, PrintStream}
+
+class BenchmarkTest extends FunSuiteSupport with ShouldMatchers {
+
+  def benchmark(protocol:String, destination_type:String) = {
+    val report = test_data_dir / (protocol+"-"+destination_type+".json")
+    report.getParentFile.mkdirs()
+
+    val command = new Benchmark
+    command.broker_uri = "vm:"
+    command.protocol = protocol
+    command.destination_type = destination_type
+    command.warm_up = 0
+    command.duration = 1
+    command.output = report
+
+    val out = new ByteArrayOutputStream()
+    val rc = command.execute(new ByteArrayInputStream(new Array[Byte](0)), new PrintStream(out), new PrintStream(out))
+    rc should be (0)
+    JsonCodec.mapper.readValue(report, classOf[java.util.Map[String, Object]])
+  }
+
+  for( (protocol, destination_type) <- List(("stomp", "queue"), ("openwire", "queue"), ("amqp", "queue"), ("mqtt", "topic")) ) {
+    test("benchmark "+protocol+" "+destination_type) {
+      val report = benchmark(protocol, destination_type)
+      report.get("protocol") should be (protocol)
+      report.get("sent").asInstanceOf[Number].longValue() should be > (0L)
+      report.get("received").asInstanceOf[Number].longValue() should be > (0L)
+    }
+  }
+
+}
@@ -48,6 +48,28 @@ public class AuthenticationDTO {
     @XmlAttribute
     public String domain;
 
+    /**
+     * The maximum number of successful logins to remember so that clients
+     * which reconnect with the same credentials from the same address skip
+     * the JAAS login.  Logins are not cached if not set.
+     */
+    @XmlAttribute(name="cache_size")
+    public Integer cache_size;
+
+    /**
+     * How many milliseconds a cached login is valid for.  Defaults to 60000.
+     */
+    @XmlAttribute(name="cache_ttl")
+    public Long cache_ttl;
+
+    /**
+     * The maximum number of JAAS logins which can be running at the same
+     * time.  Further logins wait for one of them to complete.  Not limited
+     * if not set.
+     */
+    @XmlAttribute(name="max_in_flight_logins")
+    public Integer max_in_flight_logins;
+
     /**
      * The class names for the types of principles that
      * the acl lists check against.
@@ -122,6 +122,23 @@ public class BrokerDTO {
     @XmlAttribute(name = "security_factory")
     public String security_factory;
 
+    /**
+     * The latency of 1 out of every N messages is sampled and recorded in the
+     * delivery latency histograms of the virtual hosts.  Set to 0 to disable sampling.
+     * Defaults to 100.
+     */
+    @XmlAttribute(name = "latency_sample_rate")
+    public Integer latency_sample_rate;
+
+    /**
+     * The maximum amount of message data all the queues of the broker
+     * together keep loaded in memory.  When exceeded, the queues whose
+     * consumers are the least active are asked to swap out their
+     * messages.  Not limited if not set.
+     */
+    @XmlAttribute(name = "memory_budget")
+    public String memory_budget;
+
 
     @Override
     public boolean equals(Object o) {
@@ -150,6 +167,10 @@ public class BrokerDTO {
             return false;
         if (security_factory != null ? !security_factory.equals(brokerDTO.security_factory) : brokerDTO.security_factory != null)
             return false;
+        if (latency_sample_rate != null ? !latency_sample_rate.equals(brokerDTO.latency_sample_rate) : brokerDTO.latency_sample_rate != null)
+            return false;
+        if (memory_budget != null ? !memory_budget.equals(brokerDTO.memory_budget) : brokerDTO.memory_budget != null)
+            return false;
         if (services != null ? !services.equals(brokerDTO.services) : brokerDTO.services != null)
             return false;
         if (validation != null ? !validation.equals(brokerDTO.validation) : brokerDTO.validation != null)
@@ -178,6 +199,8 @@ public class BrokerDTO {
         result = 31 * result + (validation != null ? validation.hashCode() : 0);
         result = 31 * result + (other != null ? other.hashCode() : 0);
         result = 31 * result + (security_factory != null ? security_factory.hashCode() : 0);
+        result = 31 * result + (latency_sample_rate != null ? latency_sample_rate.hashCode() : 0);
+        result = 31 * result + (memory_budget != null ? memory_budget.hashCode() : 0);
         return result;
     }
 }
\ No newline at end of file
@@ -121,4 +121,31 @@ public class BrokerStatusDTO extends ServiceStatusDTO {
 	@XmlAttribute(name="write_counter")
 	public long write_counter;
 
+    /**
+     * The configured limit of message data loaded by all the queues,
+     * 0 if not limited.
+     */
+	@XmlAttribute(name="memory_budget")
+	public long memory_budget;
+
+    /**
+     * The amount of message data currently loaded by all the queues.
+     */
+	@XmlAttribute(name="memory_used")
+	public long memory_used;
+
+    /**
+     * The number of queues holding more than their share of the memory
+     * budget the last time it was exceeded.
+     */
+	@XmlAttribute(name="over_budget_queues")
+	public int over_budget_queues;
+
+    /**
+     * The number of times queues were asked to swap out messages
+     * because the memory budget was exceeded.
+     */
+	@XmlAttribute(name="swap_requests")
+	public long swap_requests;
+
 }
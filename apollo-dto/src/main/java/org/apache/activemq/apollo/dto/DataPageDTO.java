@@ -49,10 +49,19 @@ public class DataPageDTO {
     public int total_pages;
 
     /**
+     * -1 when counting the rows would cost as much as listing them.
      */
     @XmlAttribute(name="total_rows")
     public long total_rows;
 
+    /**
+     * The id of the last row in the page.  Pass it as the cursor
+     * of the next request to get the following page.  Not set
+     * once the last page has been reached.
+     */
+    @XmlAttribute(name="next_cursor")
+    public String next_cursor;
+
     @XmlElement(name="header")
     public List<String> headers = new ArrayList<String>();
 
@@ -70,6 +79,7 @@ public class DataPageDTO {
         if (page_size != that.page_size) return false;
         if (total_pages != that.total_pages) return false;
         if (total_rows != that.total_rows) return false;
+        if (next_cursor != null ? !next_cursor.equals(that.next_cursor) : that.next_cursor != null) return false;
         if (headers != null ? !headers.equals(that.headers) : that.headers != null) return false;
         if (rows != null ? !rows.equals(that.rows) : that.rows != null) return false;
 
@@ -82,6 +92,7 @@ public class DataPageDTO {
         result = 31 * result + page_size;
         result = 31 * result + total_pages;
         result = 31 * result + (int) (total_rows ^ (total_rows >>> 32));
+        result = 31 * result + (next_cursor != null ? next_cursor.hashCode() : 0);
         result = 31 * result + (headers != null ? headers.hashCode() : 0);
         result = 31 * result + (rows != null ? rows.hashCode() : 0);
         return result;
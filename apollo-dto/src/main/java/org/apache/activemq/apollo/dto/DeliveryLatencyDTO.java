@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * <p>
+ *     Latency histograms of the stages a sampled message goes
+ *     through as it is delivered through a queue.
+ * </p>
+ */
+@XmlRootElement(name = "delivery_latency")
+@XmlAccessorType(XmlAccessType.FIELD)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DeliveryLatencyDTO {
+
+    /**
+     * The current time on the broker machine.  In milliseconds since the epoch.
+     */
+    @XmlAttribute(name="current_time")
+    public long current_time;
+
+    /**
+     * 1 out of every this many messages is sampled.  0 if sampling is disabled.
+     */
+    @XmlAttribute(name="sample_rate")
+    public int sample_rate;
+
+    /**
+     * The time from when the broker received the message from
+     * the producer until it was enqueued.
+     */
+    @XmlElement(name="enqueue")
+    public LatencyMetricDTO enqueue = new LatencyMetricDTO();
+
+    /**
+     * The time from the enqueue until the store finished
+     * persisting the message.
+     */
+    @XmlElement(name="store_flush")
+    public LatencyMetricDTO store_flush = new LatencyMetricDTO();
+
+    /**
+     * The time from the enqueue until the message was dispatched
+     * to a consumer.
+     */
+    @XmlElement(name="dispatch")
+    public LatencyMetricDTO dispatch = new LatencyMetricDTO();
+
+    /**
+     * The time from the dispatch until the consumer acked the message.
+     */
+    @XmlElement(name="ack")
+    public LatencyMetricDTO ack = new LatencyMetricDTO();
+
+    /**
+     * The time it took to load a swapped out message from the store.
+     */
+    @XmlElement(name="store_load")
+    public LatencyMetricDTO store_load = new LatencyMetricDTO();
+
+}
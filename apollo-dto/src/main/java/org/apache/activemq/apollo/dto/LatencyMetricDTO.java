@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * <p>
+ *     A summary of a latency histogram.  All the times are
+ *     in microseconds.
+ * </p>
+ */
+@XmlRootElement(name = "latency_metric")
+@XmlAccessorType(XmlAccessType.FIELD)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class LatencyMetricDTO {
+
+    /**
+     * The number of sampled events
+     */
+    @XmlAttribute
+    public long count;
+
+    /**
+     * The shortest sampled time
+     */
+    @XmlAttribute
+    public long min;
+
+    /**
+     * The average sampled time
+     */
+    @XmlAttribute
+    public double mean;
+
+    /**
+     * The median sampled time
+     */
+    @XmlAttribute
+    public long p50;
+
+    /**
+     * The 90th percentile of the sampled times
+     */
+    @XmlAttribute
+    public long p90;
+
+    /**
+     * The 99th percentile of the sampled times
+     */
+    @XmlAttribute
+    public long p99;
+
+    /**
+     * The 99.9th percentile of the sampled times
+     */
+    @XmlAttribute
+    public long p999;
+
+    /**
+     * The longest sampled time
+     */
+    @XmlAttribute
+    public long max;
+
+}
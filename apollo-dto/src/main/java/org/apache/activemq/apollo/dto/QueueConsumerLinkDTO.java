@@ -39,6 +39,12 @@ public class QueueConsumerLinkDTO extends LinkDTO {
     public Double ack_item_rate;
     public Double ack_size_rate;
 
+    /**
+     * The size of the consumer's buffer, adapted to its ack rate when the
+     * queue has consumer_buffer_time set.
+     */
+    public Integer consumer_buffer;
+
     /**
      * What the consumer is currently waiting on
      */
@@ -80,6 +80,48 @@ public class QueueSettingsDTO {
     @XmlAttribute(name="swap_range_size")
     public Integer swap_range_size;
 
+    /**
+     * How eagerly swapped entries get combined into swapped ranges:
+     * "lazy" only combines them once there are more than two range sizes
+     * of them, "aggressive" combines all the entries the consumers are not
+     * about to need and packs the ranges close to the consumers so they can
+     * be loaded without a store query.  Defaults to "lazy".
+     */
+    @XmlAttribute(name="swap_collapse")
+    public String swap_collapse;
+
+    /**
+     * The maximum amount of swapped message data the queue will load
+     * ahead of its consumers.  Each consumer reads ahead in proportion
+     * to its delivery rate.  Defaults to 10m.  If set to 0, consumers
+     * only load enough messages to fill their receive buffers.
+     */
+    @XmlAttribute(name="read_ahead")
+    public String read_ahead;
+
+    /**
+     * When set, each consumer's buffer gets sized to hold this many
+     * milliseconds of the work it acks, bounded by consumer_buffer_min and
+     * consumer_buffer_max.  If not set, the consumer buffer is the consumer's
+     * fixed receive buffer size.
+     */
+    @XmlAttribute(name="consumer_buffer_time")
+    public Integer consumer_buffer_time;
+
+    /**
+     * The smallest size an adaptive consumer buffer is allowed to shrink
+     * to.  Defaults to 16k.
+     */
+    @XmlAttribute(name="consumer_buffer_min")
+    public String consumer_buffer_min;
+
+    /**
+     * The largest size an adaptive consumer buffer is allowed to grow
+     * to.  Defaults to 1m.
+     */
+    @XmlAttribute(name="consumer_buffer_max")
+    public String consumer_buffer_max;
+
     /**
      * The maximum amount of size the queue is allowed
      * to grow to.  If not set then there is no limit.  You can
@@ -196,6 +238,15 @@ public class QueueSettingsDTO {
         if (swap != null ? !swap.equals(that.swap) : that.swap != null) return false;
         if (swap_range_size != null ? !swap_range_size.equals(that.swap_range_size) : that.swap_range_size != null)
             return false;
+        if (swap_collapse != null ? !swap_collapse.equals(that.swap_collapse) : that.swap_collapse != null)
+            return false;
+        if (read_ahead != null ? !read_ahead.equals(that.read_ahead) : that.read_ahead != null) return false;
+        if (consumer_buffer_time != null ? !consumer_buffer_time.equals(that.consumer_buffer_time) : that.consumer_buffer_time != null)
+            return false;
+        if (consumer_buffer_min != null ? !consumer_buffer_min.equals(that.consumer_buffer_min) : that.consumer_buffer_min != null)
+            return false;
+        if (consumer_buffer_max != null ? !consumer_buffer_max.equals(that.consumer_buffer_max) : that.consumer_buffer_max != null)
+            return false;
         if (tail_buffer != null ? !tail_buffer.equals(that.tail_buffer) : that.tail_buffer != null) return false;
 
         return true;
@@ -207,6 +258,11 @@ public class QueueSettingsDTO {
         result = 31 * result + (persistent != null ? persistent.hashCode() : 0);
         result = 31 * result + (swap != null ? swap.hashCode() : 0);
         result = 31 * result + (swap_range_size != null ? swap_range_size.hashCode() : 0);
+        result = 31 * result + (swap_collapse != null ? swap_collapse.hashCode() : 0);
+        result = 31 * result + (read_ahead != null ? read_ahead.hashCode() : 0);
+        result = 31 * result + (consumer_buffer_time != null ? consumer_buffer_time.hashCode() : 0);
+        result = 31 * result + (consumer_buffer_min != null ? consumer_buffer_min.hashCode() : 0);
+        result = 31 * result + (consumer_buffer_max != null ? consumer_buffer_max.hashCode() : 0);
         result = 31 * result + (quota != null ? quota.hashCode() : 0);
         result = 31 * result + (full_policy != null ? full_policy.hashCode() : 0);
         result = 31 * result + (fast_delivery_rate != null ? fast_delivery_rate.hashCode() : 0);
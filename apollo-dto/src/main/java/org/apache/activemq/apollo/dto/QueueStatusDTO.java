@@ -42,6 +42,13 @@ public class QueueStatusDTO extends ServiceStatusDTO {
     @XmlElement
     public DestMetricsDTO metrics = new DestMetricsDTO();
 
+    /**
+     * The count, min, mean and max latency of the messages sampled on the
+     * queue.  The percentiles are only tracked per virtual host.
+     */
+    @XmlElement
+    public DeliveryLatencyDTO latency;
+
     /**
      * Status of the entries in the queue
      */
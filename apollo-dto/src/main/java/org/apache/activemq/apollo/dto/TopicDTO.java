@@ -52,6 +52,14 @@ public class TopicDTO {
     @XmlAttribute(name="slow_consumer_policy")
     public String slow_consumer_policy;
 
+    /**
+     * How messages get fanned out to the subscriptions: `direct` links
+     * every producer to every subscription, `shared` links the producers and
+     * subscriptions to a single dispatcher.  Defaults to `direct`.
+     */
+    @XmlAttribute(name="fan_out")
+    public String fan_out;
+
     /**
      * The subscription settings that will be used for queues which are created
      * for each subscription when the `slow_consumer_policy` is set to `queue`.
@@ -79,6 +87,8 @@ public class TopicDTO {
         if (subscription != null ? !subscription.equals(topicDTO.subscription) : topicDTO.subscription != null) return false;
         if (slow_consumer_policy != null ? !slow_consumer_policy.equals(topicDTO.slow_consumer_policy) : topicDTO.slow_consumer_policy != null)
             return false;
+        if (fan_out != null ? !fan_out.equals(topicDTO.fan_out) : topicDTO.fan_out != null)
+            return false;
 
         return true;
     }
@@ -88,6 +98,7 @@ public class TopicDTO {
         int result = id != null ? id.hashCode() : 0;
         result = 31 * result + (auto_delete_after != null ? auto_delete_after.hashCode() : 0);
         result = 31 * result + (slow_consumer_policy != null ? slow_consumer_policy.hashCode() : 0);
+        result = 31 * result + (fan_out != null ? fan_out.hashCode() : 0);
         result = 31 * result + (subscription != null ? subscription.hashCode() : 0);
         result = 31 * result + (other != null ? other.hashCode() : 0);
         return result;
@@ -19,9 +19,9 @@ package org.apache.activemq.apollo.broker.jmx
 import java.lang.management.ManagementFactory
 import javax.management.ObjectName
 import org.apache.activemq.apollo.broker.jmx.dto.JmxDTO
-import org.apache.activemq.apollo.broker.{CustomServiceFactory, Broker}
-import org.apache.activemq.apollo.dto.CustomServiceDTO
-import org.apache.activemq.apollo.util.{Log, OptionSupport, BaseService, Service}
+import org.apache.activemq.apollo.broker.{DeliveryLatency, CustomServiceFactory, Broker}
+import org.apache.activemq.apollo.dto.{LatencyMetricDTO, CustomServiceDTO}
+import org.apache.activemq.apollo.util.{FutureResult, Log, OptionSupport, BaseService, Service}
 import org.fusesource.hawtdispatch._
 
 /**
@@ -69,10 +69,43 @@ trait JmxBrokerMBean {
   def getVersion:String
   def getState:String
   def getWebAdminUrl:String
+
+  def getLatencySampleRate:Int
+  def setLatencySampleRate(value:Int):Unit
+
+  /**
+   * The merged delivery latency histograms of all the queues, keyed by
+   * stage and statistic, for example "dispatch.p99".  In microseconds.
+   */
+  def getDeliveryLatency:java.util.Map[String, java.lang.Number]
 }
 
 class JmxBroker(val broker: Broker, val config:JmxDTO) extends JmxBrokerMBean {
   def getVersion = Broker.version
   def getState = broker.service_state.toString
   def getWebAdminUrl = Option(config.admin_url).getOrElse(broker.web_admin_url)
+
+  def getLatencySampleRate = broker.latency_sample_rate
+  def setLatencySampleRate(value:Int) = broker.latency_sample_rate = value.max(0)
+
+  def getDeliveryLatency = {
+    val latency = FutureResult.unwrap_future_result(broker.get_latency).to_dto(broker.latency_sample_rate)
+    val rc = new java.util.TreeMap[String, java.lang.Number]()
+    def put(stage:String, metric:LatencyMetricDTO) = {
+      rc.put(stage+".count", Long.box(metric.count))
+      rc.put(stage+".min", Long.box(metric.min))
+      rc.put(stage+".mean", Double.box(metric.mean))
+      rc.put(stage+".p50", Long.box(metric.p50))
+      rc.put(stage+".p90", Long.box(metric.p90))
+      rc.put(stage+".p99", Long.box(metric.p99))
+      rc.put(stage+".p999", Long.box(metric.p999))
+      rc.put(stage+".max", Long.box(metric.max))
+    }
+    put("enqueue", latency.enqueue)
+    put("store_flush", latency.store_flush)
+    put("dispatch", latency.dispatch)
+    put("ack", latency.ack)
+    put("store_load", latency.store_load)
+    rc
+  }
 }
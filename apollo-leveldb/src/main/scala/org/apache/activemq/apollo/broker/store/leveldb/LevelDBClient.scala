@@ -60,6 +60,8 @@ object LevelDBClient extends Log {
   final val dirty_index_key = bytes(":dirty")
   final val log_refs_index_key = bytes(":log-refs")
   final val logs_index_key = bytes(":logs")
+  final val import_progress_index_key = bytes(":import-progress")
+  final val IMPORT_CHECKPOINT_BATCHES = 16
   final val TRUE = bytes("true")
   final val FALSE = bytes("false")
 
@@ -225,7 +227,7 @@ class LevelDBClient(store: LevelDBStore) {
   val snapshot_rw_lock = new ReentrantReadWriteLock(true)
 
   var factory: DBFactory = _
-  val log_refs = HashMap[Long, LongCounter]()
+  val log_refs = new LogRefs
   var recovery_logs:java.util.TreeMap[Long, Void] = _
 
   def dirty_index_file = directory / ("dirty" + INDEX_SUFFIX)
@@ -296,6 +298,7 @@ class LevelDBClient(store: LevelDBStore) {
     log.sync = sync
     log.logSize = log_size
     log.verify_checksums = verify_checksums
+    log.mmap_reads = config.mmap_reads.getOrElse(false)
     log.on_log_rotate = () => {
       // lets queue a request to checkpoint when
       // the logs rotate.. queue it on the GC thread since GC's lock
@@ -593,10 +596,10 @@ class LevelDBClient(store: LevelDBStore) {
         }
     }
 
-    if (actual_log_refs != log_refs) {
-      debug("expected != actual log references. expected: %s, actual %s", log_refs, actual_log_refs)
-      log_refs.clear()
-      log_refs ++= actual_log_refs
+    val actual = actual_log_refs.mapValues(_.get()).toMap
+    if (actual != log_refs.snapshot) {
+      debug("expected != actual log references. expected: %s, actual %s", log_refs, actual)
+      log_refs.reset(actual)
     }
 
     if (fixed_records > 0) {
@@ -623,7 +626,7 @@ class LevelDBClient(store: LevelDBStore) {
 
   private def store_log_refs = {
     import collection.JavaConversions.mapAsJavaMap
-    index.put(log_refs_index_key, JsonCodec.encode(mapAsJavaMap(log_refs.mapValues(_.get()))).toByteArray)
+    index.put(log_refs_index_key, JsonCodec.encode(mapAsJavaMap(log_refs.snapshot)).toByteArray)
     index.put(logs_index_key, JsonCodec.encode(log.log_file_positions).toByteArray)
   }
 
@@ -633,7 +636,7 @@ class LevelDBClient(store: LevelDBStore) {
     index.get(log_refs_index_key, new ReadOptions).foreach {
       value =>
         for( (k, v) <- JsonCodec.decode(new Buffer(value), classOf[java.util.Map[String, Object]]) ) {
-            log_refs.put(k.toLong, new LongCounter(v.asInstanceOf[Number].longValue()))
+            log_refs.set(k.toLong, v.asInstanceOf[Number].longValue())
         }
     }
 
@@ -807,19 +810,15 @@ class LevelDBClient(store: LevelDBStore) {
     callback.run
   }
 
-  def log_ref_decrement(pos: Long, log_info: LogInfo = null) = this.synchronized {
+  def log_ref_decrement(pos: Long, log_info: LogInfo = null) = {
     for( key <- log_ref_key(pos, log_info) ) {
-      for( counter<- log_refs.get(key) ) {
-        if (counter.decrementAndGet() == 0) {
-          log_refs.remove(key)
-        }
-      }
+      log_refs.decrement(key)
     }
   }
 
-  def log_ref_increment(pos: Long, log_info: LogInfo = null) = this.synchronized {
+  def log_ref_increment(pos: Long, log_info: LogInfo = null) = {
     for( key <- log_ref_key(pos, log_info) ) {
-      log_refs.getOrElseUpdate(key, new LongCounter()).incrementAndGet()
+      log_refs.increment(key)
     }
   }
 
@@ -992,33 +991,41 @@ class LevelDBClient(store: LevelDBStore) {
     ro.verifyChecksums(verify_checksums)
     ro.fillCache(true)
 
+    def decode(locator: AtomicReference[Object], data: Buffer) = {
+      val is = new DataByteArrayInputStream(data)
+      val pb = MessagePB.FACTORY.parseFramed(is)
+      val rc = PBSupport.from_pb(pb)
+      rc.buffer = is.readBuffer(is.available())
+      rc.locator = locator
+      if(pb.getCompression == 1) {
+        rc.buffer = Snappy.uncompress(rc.buffer)
+      }
+      rc
+    }
+
+    // Reads all the requested records in one pass over the log, sorted by
+    // position, instead of a random read per message.
+    def load(requests: Seq[(Long, AtomicReference[Object], (Option[MessageRecord]) => Unit)]) = {
+      val locations = requests.map(_._2.get().asInstanceOf[(Long, Int)]).toIndexedSeq
+      val records = metric_load_from_index_counter.time {
+        log.read_batch(locations)
+      }
+      requests.zip(records).map { case (x, data) =>
+        (x, data.map(decode(x._2, _)))
+      }
+    }
+
     val missing = retry_using_index {
       index.snapshot {
         snapshot =>
           ro.snapshot(snapshot)
-          requests.flatMap {
-            x =>
-              val (_, locator, callback) = x
-              val record = metric_load_from_index_counter.time {
-                val (pos, len) = locator.get().asInstanceOf[(Long, Int)]
-                log.read(pos, len).map { data =>
-                  val is = new DataByteArrayInputStream(data)
-                  val pb = MessagePB.FACTORY.parseFramed(is)
-                  val rc = PBSupport.from_pb(pb)
-                  rc.buffer = is.readBuffer(is.available())
-                  rc.locator = locator
-                  if(pb.getCompression == 1) {
-                    rc.buffer = Snappy.uncompress(rc.buffer)
-                  }
-                  rc
-                }
-              }
-              if (record.isDefined) {
-                callback(record)
-                None
-              } else {
-                Some(x)
-              }
+          load(requests).flatMap { case (x, record) =>
+            if (record.isDefined) {
+              x._3(record)
+              None
+            } else {
+              Some(x)
+            }
           }
       }
     }
@@ -1032,24 +1039,8 @@ class LevelDBClient(store: LevelDBStore) {
       index.snapshot {
         snapshot =>
           ro.snapshot(snapshot)
-          missing.foreach {
-            x =>
-              val (_, locator, callback) = x
-              val record: Option[MessageRecord] = metric_load_from_index_counter.time {
-                val (pos, len) = locator.get().asInstanceOf[(Long, Int)]
-                log.read(pos, len).map { data=>
-                  val is = new DataByteArrayInputStream(data)
-                  val pb = MessagePB.FACTORY.parseFramed(is)
-                  val rc = PBSupport.from_pb(pb)
-                  rc.buffer = is.readBuffer(is.available())
-                  rc.locator = locator
-                  if(pb.getCompression == 1) {
-                    rc.buffer = Snappy.uncompress(rc.buffer)
-                  }
-                  rc
-                }
-              }
-              callback(record)
+          load(missing).foreach { case (x, record) =>
+            x._3(record)
           }
       }
     }
@@ -1201,10 +1192,7 @@ class LevelDBClient(store: LevelDBStore) {
       }
     }
     // Lets use the log_refs to get a rough estimate on how many entries are store in leveldb.
-    var index_queue_entries=0L
-    for ( (_, count) <- log_refs ) {
-      index_queue_entries += count.get()
-    }
+    val index_queue_entries = log_refs.total
 
     // Don't force compactions until level 0 is full.
     val SSL_FILE_SIZE = 1024*1024*4L
@@ -1242,7 +1230,7 @@ class LevelDBClient(store: LevelDBStore) {
       val duration = System.nanoTime() - start;
       info("Compacted the leveldb index at: %s in %.2f ms", dirty_index_file, (duration / 1000000.0))
     }
-    val empty_journals = log.log_infos.keySet.toSet -- log_refs.keySet
+    val empty_journals = log.log_infos.keySet.toSet -- log_refs.snapshot.keySet
 
     // We don't want to delete any journals that the index has not snapshot'ed or
     // the the
@@ -1253,6 +1241,7 @@ class LevelDBClient(store: LevelDBStore) {
       id =>
         if (id < delete_limit) {
           log.delete(id)
+          log_refs.remove(id)
         }
     }
   }
@@ -1327,9 +1316,9 @@ class LevelDBClient(store: LevelDBStore) {
   //  }
 
 
-  def export_data(os: OutputStream): Option[String] = {
+  def export_data(os: OutputStream, options: ExportOptions): Option[String] = {
     try {
-      val manager = ExportStreamManager(os, 1)
+      val manager = ExportStreamManager(os, options)
 
       retry_using_index {
 
@@ -1437,75 +1426,108 @@ class LevelDBClient(store: LevelDBStore) {
   def import_data(is: InputStream): Option[String] = {
     try {
       val manager = ImportStreamManager(is)
-      if (manager.version != 1) {
+      if (manager.version != 1 && manager.version != 2) {
         return Some("Cannot import from an export file of version: " + manager.version)
       }
 
-      purge
+      // Resume an import of the same export which did not complete.
+      val resume_from = if( manager.export_id == null ) {
+        None
+      } else {
+        index.get(import_progress_index_key).map(new String(_, "UTF-8").split(' ')).collect {
+          case Array(id, segment) if id == manager.export_id => segment.toLong
+        }
+      }
 
-      retry_using_index {
-        log.appender {
-          appender =>
-            while (manager.getNext match {
-
-              case record: MessagePB.Buffer =>
-                val pb = new MessagePB.Bean
-                pb.setCodec(record.getCodec)
-                val body = if(snappy_compress_logs) {
-                  val compressed = Snappy.compress(record.getValue)
-                  if (compressed.length < record.getValue.length) {
-                    pb.setCompression(1)
-                    compressed
+      resume_from match {
+        case Some(segment) =>
+          info("Resuming the import after segment %d", segment)
+          manager.skip(segment)
+        case None =>
+          purge
+      }
+
+      // Each batch (an export segment) gets imported in its own unit of work
+      // and every few batches the progress gets check pointed into an index
+      // snapshot so a failed import can resume from there.
+      var batch = manager.next_batch
+      var batches = 0
+      while( batch != null ) {
+        retry_using_index {
+          log.appender {
+            appender =>
+              batch.foreach {
+
+                case record: MessagePB.Buffer =>
+                  val pb = new MessagePB.Bean
+                  pb.setCodec(record.getCodec)
+                  val body = if(snappy_compress_logs) {
+                    val compressed = Snappy.compress(record.getValue)
+                    if (compressed.length < record.getValue.length) {
+                      pb.setCompression(1)
+                      compressed
+                    } else {
+                      record.getValue
+                    }
                   } else {
                     record.getValue
                   }
-                } else {
-                  record.getValue
-                }
-                var header = pb.freeze().toFramedBuffer
-                val (pos, log_info) = appender.append(LOG_ADD_MESSAGE, header, body)
-                index.put(encode_key(tmp_prefix, record.getMessageKey), encode_locator(pos, header.length+body.length))
-                true
-
-              case record: QueueEntryPB.Buffer =>
-                val copy = record.copy();
-                var original_msg_key: Long = record.getMessageKey
-                index.get(encode_key(tmp_prefix, original_msg_key)) match {
-                  case Some(locator) =>
-                    val (pos, len) = decode_locator(locator)
-                    copy.setMessageLocator(locator)
-                    index.put(encode_key(queue_entry_prefix, record.getQueueKey, record.getQueueSeq), copy.freeze().toUnframedBuffer)
-                    for(key <- log_ref_key(pos)) {
-                      log_refs.getOrElseUpdate(key, new LongCounter()).incrementAndGet()
-                    }
-                  case None =>
-                    println("Invalid queue entry, references message that was not in the export: " + original_msg_key)
-                }
-                true
-
-              case record: QueuePB.Buffer =>
-                index.put(encode_key(queue_prefix, record.getKey), record.toUnframedBuffer)
-                true
+                  var header = pb.freeze().toFramedBuffer
+                  val (pos, log_info) = appender.append(LOG_ADD_MESSAGE, header, body)
+                  index.put(encode_key(tmp_prefix, record.getMessageKey), encode_locator(pos, header.length+body.length))
+
+                case record: QueueEntryPB.Buffer =>
+                  val copy = record.copy();
+                  var original_msg_key: Long = record.getMessageKey
+                  index.get(encode_key(tmp_prefix, original_msg_key)) match {
+                    case Some(locator) =>
+                      val (pos, len) = decode_locator(locator)
+                      copy.setMessageLocator(locator)
+                      val entry_key = encode_key(queue_entry_prefix, record.getQueueKey, record.getQueueSeq)
+                      // A resumed import can apply an entry again.
+                      for( existing <- index.get(entry_key) ) {
+                        val (existing_pos, _) = decode_locator(QueueEntryPB.FACTORY.parseUnframed(existing).getMessageLocator)
+                        for(key <- log_ref_key(existing_pos)) {
+                          log_refs.decrement(key)
+                        }
+                      }
+                      index.put(entry_key, copy.freeze().toUnframedBuffer)
+                      for(key <- log_ref_key(pos)) {
+                        log_refs.increment(key)
+                      }
+                    case None =>
+                      println("Invalid queue entry, references message that was not in the export: " + original_msg_key)
+                  }
 
-              case record: MapEntryPB.Buffer =>
-                index.put(encode_key(map_prefix, record.getKey), record.getValue)
-                true
+                case record: QueuePB.Buffer =>
+                  index.put(encode_key(queue_prefix, record.getKey), record.toUnframedBuffer)
 
-              case null =>
-                false
-            }) {
-              // keep looping
-            }
+                case record: MapEntryPB.Buffer =>
+                  index.put(encode_key(map_prefix, record.getKey), record.getValue)
+              }
+          }
+        }
 
+        batches += 1
+        if( manager.export_id != null && batches % IMPORT_CHECKPOINT_BATCHES == 0 ) {
+          retry_using_index {
+            store_log_refs
+            index.put(import_progress_index_key, bytes(manager.export_id + " " + manager.segment))
+          }
+          snapshot_index
         }
+        batch = manager.next_batch
       }
 
-      store_log_refs
-      // Delete all the tmp keys..
-      index.cursor_keys_prefixed(Array(tmp_prefix)) {
-        key =>
-          index.delete(key)
-          true
+      retry_using_index {
+        store_log_refs
+        index.delete(import_progress_index_key)
+        // Delete all the tmp keys..
+        index.cursor_keys_prefixed(Array(tmp_prefix)) {
+          key =>
+            index.delete(key)
+            true
+        }
       }
 
       snapshot_index
@@ -245,8 +245,16 @@ class LevelDBStore(val config: LevelDBStoreDTO) extends DelayingStoreSupport {
   def drain_loads = {
     var data = load_source.getData
     message_load_batch_size_counter += data.size
-    read_executor ^ {
-      client.loadMessages(data)
+    // Split the batch by log file so that the read threads
+    // work through different files in parallel.
+    val by_file = data.groupBy { x =>
+      val (pos, _) = x._2.get().asInstanceOf[(Long, Int)]
+      client.log.log_info(pos).map(_.position).getOrElse(-1L)
+    }
+    for( requests <- by_file.values ) {
+      read_executor ^ {
+        client.loadMessages(requests)
+      }
     }
   }
 
@@ -295,7 +303,7 @@ class LevelDBStore(val config: LevelDBStoreDTO) extends DelayingStoreSupport {
           var row_layout = "%-20s | %-10s | %-10s\n"
           row_layout.format("Log File", "Msg Refs", "File Size") +
             client.log.log_infos.map {
-              case (id, info) => id -> client.log_refs.get(id).map(_.get)
+              case (id, info) => id -> client.log_refs.get(id)
             }.toSeq.sortWith{case (a,b)=> a._1 < b._1}.flatMap {
               case (id, refs) =>
                 try {
@@ -322,8 +330,8 @@ class LevelDBStore(val config: LevelDBStoreDTO) extends DelayingStoreSupport {
    * Exports the contents of the store to the provided streams.  Each stream should contain
    * a list of framed protobuf objects with the corresponding object types.
    */
-  def export_data(os: OutputStream, cb: (Option[String]) => Unit) = write_executor {
-    cb(client.export_data(os))
+  def export_data(os: OutputStream, options: ExportOptions, cb: (Option[String]) => Unit) = write_executor {
+    cb(client.export_data(os, options))
   }
 
   /**
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker.store.leveldb
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import collection.JavaConversions._
+
+/**
+ * <p>
+ * Counts the index entries referencing each journal file, keyed by the
+ * position of the journal file.  The counters are updated without locking.
+ * A counter which drops to zero is left in the table so that a concurrent
+ * increment never lands on a counter which was already removed, it only
+ * gets removed once its journal file is deleted.
+ * </p>
+ * <p>
+ * snapshot iterates the table without blocking the writers.  The journal GC
+ * runs on the same thread as the store writes, so journals it finds
+ * unreferenced can not pick up a new reference before they are deleted.
+ * </p>
+ */
+class LogRefs {
+
+  private val counters = new ConcurrentHashMap[Long, AtomicLong]()
+
+  private def counter(key:Long) = {
+    var rc = counters.get(key)
+    if( rc == null ) {
+      rc = new AtomicLong()
+      val prev = counters.putIfAbsent(key, rc)
+      if( prev != null ) {
+        rc = prev
+      }
+    }
+    rc
+  }
+
+  def increment(key:Long) = counter(key).incrementAndGet()
+
+  def decrement(key:Long) = {
+    val rc = counters.get(key)
+    if( rc != null ) {
+      rc.decrementAndGet()
+    }
+  }
+
+  def set(key:Long, value:Long) = counter(key).set(value)
+
+  /**
+   * @return the reference count or None if the journal is not referenced.
+   */
+  def get(key:Long):Option[Long] = {
+    val rc = counters.get(key)
+    if( rc == null || rc.get <= 0 ) None else Some(rc.get)
+  }
+
+  /**
+   * @return the referenced journals and their reference counts.
+   */
+  def snapshot:Map[Long, Long] = {
+    var rc = Map[Long, Long]()
+    for( (key, value) <- counters ) {
+      val count = value.get
+      if( count > 0 ) {
+        rc += key -> count
+      }
+    }
+    rc
+  }
+
+  def total = {
+    var rc = 0L
+    for( value <- counters.values ) {
+      rc += value.get.max(0)
+    }
+    rc
+  }
+
+  /**
+   * Drops the counter of a deleted journal.
+   */
+  def remove(key:Long) = counters.remove(key)
+
+  def clear() = counters.clear()
+
+  def reset(values:collection.Map[Long, Long]) = {
+    counters.clear()
+    for( (key, value) <- values ) {
+      set(key, value)
+    }
+  }
+
+  override def toString = snapshot.toString
+
+}
@@ -28,6 +28,9 @@ import org.apache.activemq.apollo.util.FileSupport._
 import org.apache.activemq.apollo.util.{Log, LRUCache}
 import org.fusesource.hawtdispatch.BaseRetained
 import org.fusesource.hawtbuf.{DataByteArrayInputStream, DataByteArrayOutputStream, Buffer}
+import org.apache.activemq.apollo.broker.store.ByteBufferReleaser
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel.MapMode
 import java.util.TreeMap
 
 object RecordLog extends Log {
@@ -49,6 +52,12 @@ object RecordLog extends Log {
   val BUFFER_SIZE = 1024 * 512
   val BYPASS_BUFFER_SIZE = 1024 * 16
 
+  // records this close to each other are read together by a batch read.
+  val BATCH_READ_GAP = 1024 * 4
+
+  // completed log files are memory mapped in chunks of this size.
+  val MMAP_CHUNK_SIZE = 1024 * 1024 * 64
+
   case class LogInfo(file: File, position: Long, length: Long) {
     def limit = position + length
   }
@@ -76,6 +85,7 @@ case class RecordLog(directory: File, logSuffix: String) {
   var current_appender: LogAppender = _
   var verify_checksums = false
   var sync = false
+  var mmap_reads = false
 
 
   val log_infos = new TreeMap[Long, LogInfo]()
@@ -90,6 +100,13 @@ case class RecordLog(directory: File, logSuffix: String) {
           info =>
             onDelete(info.file)
             log_infos.remove(id)
+            // in progress reads keep their own reference to the reader.
+            reader_cache.synchronized {
+              val reader = reader_cache.remove(info.file)
+              if (reader != null) {
+                reader.release()
+              }
+            }
         }
       }
     }
@@ -153,36 +170,40 @@ case class RecordLog(directory: File, logSuffix: String) {
       data.foreach(data_length += _.length)
       val total_length = LOG_HEADER_SIZE + data_length
 
-      if (write_buffer.position() + total_length > BUFFER_SIZE) {
+      if (total_length <= BYPASS_BUFFER_SIZE && write_buffer.position() + total_length > BUFFER_SIZE) {
         flush
       }
 
       val cs: Int = checksum(data:_*)
       //      trace("Writing at: "+record_position+" len: "+data_length+" with checksum: "+cs)
 
-//      if (false && total_length > BYPASS_BUFFER_SIZE) {
-//
-//        // Write the header and flush..
-//        write_buffer.writeByte(LOG_HEADER_PREFIX)
-//        write_buffer.writeByte(id)
-//        write_buffer.writeInt(cs)
-//        write_buffer.writeInt(data_length)
-//
-//        append_offset += LOG_HEADER_SIZE
-//        flush
-//
-//        // Directly write the data to the channel since it's large.
-//        val buffer = data.toByteBuffer
-//        val pos = append_offset + LOG_HEADER_SIZE
-//        val remaining = buffer.remaining
-//        channel.write(buffer, pos)
-//        if (buffer.hasRemaining) {
-//          throw new IOException("Short write")
-//        }
-//        flushed_offset.addAndGet(remaining)
-//        append_offset += data_length
-//
-//      } else {
+      if (total_length > BYPASS_BUFFER_SIZE) {
+
+        // The record is large, so instead of copying it into the write
+        // buffer, do a single gathering write of the buffered records, the
+        // header and the data straight out of the caller's buffers.
+        val header = new DataByteArrayOutputStream(LOG_HEADER_SIZE)
+        header.writeByte(LOG_HEADER_PREFIX)
+        header.writeByte(id)
+        header.writeInt(cs)
+        header.writeInt(data_length)
+        val pending = write_buffer.toBuffer
+        val buffers = (pending +: header.toBuffer +: data).map(_.toByteBuffer).toArray
+
+        channel.position(append_offset - pending.length)
+        var remaining = pending.length.toLong + total_length
+        while (remaining > 0) {
+          val count = channel.write(buffers)
+          if (count <= 0) {
+            throw new IOException("Short write")
+          }
+          remaining -= count
+        }
+        flushed_offset.addAndGet(pending.length + total_length)
+        write_buffer.reset()
+        append_offset += total_length
+
+      } else {
         write_buffer.writeByte(LOG_HEADER_PREFIX)
         write_buffer.writeByte(id)
         write_buffer.writeInt(cs)
@@ -192,7 +213,7 @@ case class RecordLog(directory: File, logSuffix: String) {
         }
 
         append_offset += total_length
-//      }
+      }
       (record_position, info)
     }
 
@@ -255,49 +276,97 @@ case class RecordLog(directory: File, logSuffix: String) {
       check_read_flush(offset + LOG_HEADER_SIZE + length)
 
       if (verify_checksums) {
-
         val record = new Buffer(LOG_HEADER_SIZE + length)
         read_buffer(record, offset)
+        verify_record(record, record_position, length)
+      } else {
+        val record = new Buffer(length)
+        read_buffer(record, offset+LOG_HEADER_SIZE)
+        record
+      }
+    }
 
-        def record_is_not_changing = {
-          using(open) {
-            fd =>
-              val channel = fd.getChannel
-              val new_record = new Buffer(LOG_HEADER_SIZE + length)
-              channel.read(new_record.toByteBuffer, offset)
-              var same = record == new_record
-              println(same)
-              same
+    /**
+     * Reads a batch of records of this log file which are sorted by position.
+     * Records which are close to each other are read with a single positional
+     * read and then copied out.
+     */
+    def read(records: IndexedSeq[(Long, Int)]): Array[Buffer] = {
+      val rc = new Array[Buffer](records.size)
+      def end_of(i: Int) = records(i)._1 - position + LOG_HEADER_SIZE + records(i)._2
+      var i = 0
+      while (i < records.size) {
+        val start = records(i)._1 - position
+        assert(start >= 0)
+        var end = end_of(i)
+        var j = i + 1
+        while (j < records.size &&
+                records(j)._1 - position - end <= BATCH_READ_GAP &&
+                end_of(j) - start <= BUFFER_SIZE) {
+          end = end.max(end_of(j))
+          j += 1
+        }
+
+        if (j == i + 1) {
+          rc(i) = read(records(i)._1, records(i)._2)
+        } else {
+          check_read_flush(end)
+          val span = new Buffer((end - start).toInt)
+          read_buffer(span, start)
+          var k = i
+          while (k < j) {
+            val (record_position, length) = records(k)
+            val record = new Buffer(span.data, (record_position - position - start).toInt, LOG_HEADER_SIZE + length)
+            rc(k) = if (verify_checksums) {
+              verify_record(record, record_position, length).deepCopy()
+            } else {
+              new Buffer(record.data, record.offset + LOG_HEADER_SIZE, length).deepCopy()
+            }
+            k += 1
           }
         }
+        i = j
+      }
+      rc
+    }
 
+    protected def verify_record(record: Buffer, record_position: Long, length: Int) = {
+      val offset = record_position - position
 
-        val is = new DataByteArrayInputStream(record)
-        val prefix = is.readByte()
-        if (prefix != LOG_HEADER_PREFIX) {
-          assert(record_is_not_changing)
-          throw new IOException("invalid record at position: " + record_position + " in file: " + file + ", offset: " + offset)
+      def record_is_not_changing = {
+        using(open) {
+          fd =>
+            val channel = fd.getChannel
+            val new_record = new Buffer(LOG_HEADER_SIZE + length)
+            channel.read(new_record.toByteBuffer, offset)
+            var same = record == new_record
+            println(same)
+            same
         }
+      }
 
-        val kind = is.readByte()
-        val expectedChecksum = is.readInt()
-        val expectedLength = is.readInt()
-        val data = is.readBuffer(length)
 
-        // If your reading the whole record we can verify the data checksum
-        if (expectedLength == length) {
-          if (expectedChecksum != checksum(data)) {
-            assert(record_is_not_changing)
-            throw new IOException("checksum does not match at position: " + record_position + " in file: " + file + ", offset: " + offset)
-          }
-        }
+      val is = new DataByteArrayInputStream(record)
+      val prefix = is.readByte()
+      if (prefix != LOG_HEADER_PREFIX) {
+        assert(record_is_not_changing)
+        throw new IOException("invalid record at position: " + record_position + " in file: " + file + ", offset: " + offset)
+      }
 
-        data
-      } else {
-        val record = new Buffer(length)
-        read_buffer(record, offset+LOG_HEADER_SIZE)
-        record
+      val kind = is.readByte()
+      val expectedChecksum = is.readInt()
+      val expectedLength = is.readInt()
+      val data = is.readBuffer(length)
+
+      // If your reading the whole record we can verify the data checksum
+      if (expectedLength == length) {
+        if (expectedChecksum != checksum(data)) {
+          assert(record_is_not_changing)
+          throw new IOException("checksum does not match at position: " + record_position + " in file: " + file + ", offset: " + offset)
+        }
       }
+
+      data
     }
 
     def read(record_position: Long) = {
@@ -394,6 +463,58 @@ case class RecordLog(directory: File, logSuffix: String) {
     }
   }
 
+  /**
+   * Serves the reads of a completed log file out of read only memory
+   * mappings of the file.  Records are copied out of the mapping and their
+   * checksums are always verified.  The mappings are released with the last
+   * reference to the reader so a log file which gets deleted stays mapped
+   * until the reads in progress complete.
+   */
+  class MappedLogReader(file: File, position: Long, length: Long) extends LogReader(file, position) {
+
+    private val chunks = new Array[MappedByteBuffer](((length + MMAP_CHUNK_SIZE - 1) / MMAP_CHUNK_SIZE).toInt)
+
+    private def chunk(i: Int) = chunks.synchronized {
+      if (chunks(i) == null) {
+        val start = i.toLong * MMAP_CHUNK_SIZE
+        chunks(i) = channel.map(MapMode.READ_ONLY, start, (length - start).min(MMAP_CHUNK_SIZE))
+      }
+      chunks(i)
+    }
+
+    override def read(record_position: Long, length: Int) = {
+      val offset = record_position - position
+      assert(offset >= 0)
+      val i = (offset / MMAP_CHUNK_SIZE).toInt
+      val chunk_offset = (offset % MMAP_CHUNK_SIZE).toInt
+      if (i >= chunks.length || chunk_offset.toLong + LOG_HEADER_SIZE + length > chunk(i).capacity) {
+        // the record spans two chunks.
+        super.read(record_position, length)
+      } else {
+        val record = new Buffer(LOG_HEADER_SIZE + length)
+        val mapped = chunk(i).duplicate()
+        mapped.position(chunk_offset)
+        mapped.get(record.data, 0, record.length)
+        verify_record(record, record_position, length)
+      }
+    }
+
+    // nothing to coalesce, the records are already in memory.
+    override def read(records: IndexedSeq[(Long, Int)]) = {
+      records.map(x => read(x._1, x._2)).toArray
+    }
+
+    override def dispose() {
+      chunks.synchronized {
+        for (i <- 0 until chunks.length if chunks(i) != null) {
+          ByteBufferReleaser.release(chunks(i))
+          chunks(i) = null
+        }
+      }
+      super.dispose()
+    }
+  }
+
   def create_log_appender(position: Long) = {
     new LogAppender(next_log(position), position)
   }
@@ -514,7 +635,11 @@ case class RecordLog(directory: File, logSuffix: String) {
           reader_cache.synchronized {
             var reader = reader_cache.get(info.file)
             if (reader == null) {
-              reader = LogReader(info.file, info.position)
+              reader = if (mmap_reads) {
+                new MappedLogReader(info.file, info.position, info.length)
+              } else {
+                LogReader(info.file, info.position)
+              }
               reader_cache.put(info.file, reader)
             }
             reader.retain()
@@ -538,4 +663,34 @@ case class RecordLog(directory: File, logSuffix: String) {
     get_reader(pos)(_.read(pos, length))
   }
 
+  /**
+   * Reads a batch of records.  The reads are sorted by position so that each
+   * log file is read once, front to back, with neighbouring records coalesced
+   * into larger reads.
+   *
+   * @return the records in the order requested, None for positions not in the log.
+   */
+  def read_batch(requests: IndexedSeq[(Long, Int)]): Array[Option[Buffer]] = {
+    val rc = Array.fill[Option[Buffer]](requests.size)(None)
+    val order = (0 until requests.size).sortBy(requests(_)._1)
+    var i = 0
+    while (i < order.size) {
+      // the positions in the same log file are next to each other once sorted.
+      val file_position = log_info(requests(order(i))._1).map(_.position)
+      var j = i + 1
+      while (j < order.size && file_position.isDefined && log_info(requests(order(j))._1).map(_.position) == file_position) {
+        j += 1
+      }
+      val group = order.slice(i, j)
+      get_reader(requests(group.head)._1) { reader =>
+        val records = reader.read(group.map(requests(_)))
+        for ((x, record) <- group.zip(records)) {
+          rc(x) = Some(record)
+        }
+      }
+      i = j
+    }
+    rc
+  }
+
 }
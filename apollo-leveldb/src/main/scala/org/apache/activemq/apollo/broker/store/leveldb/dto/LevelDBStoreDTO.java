@@ -54,6 +54,9 @@ public class LevelDBStoreDTO extends StoreDTO {
     @XmlAttribute(name="log_size")
     public String log_size;
 
+    @XmlAttribute(name="mmap_reads")
+    public Boolean mmap_reads;
+
     @XmlAttribute(name="index_max_open_files")
     public Integer index_max_open_files;
 
@@ -104,6 +107,7 @@ public class LevelDBStoreDTO extends StoreDTO {
             return false;
         if (index_factory != null ? !index_factory.equals(that.index_factory) : that.index_factory != null) return false;
         if (log_size != null ? !log_size.equals(that.log_size) : that.log_size != null) return false;
+        if (mmap_reads != null ? !mmap_reads.equals(that.mmap_reads) : that.mmap_reads != null) return false;
         if (paranoid_checks != null ? !paranoid_checks.equals(that.paranoid_checks) : that.paranoid_checks != null)
             return false;
         if (read_threads != null ? !read_threads.equals(that.read_threads) : that.read_threads != null) return false;
@@ -124,6 +128,7 @@ public class LevelDBStoreDTO extends StoreDTO {
         result = 31 * result + (paranoid_checks != null ? paranoid_checks.hashCode() : 0);
         result = 31 * result + (verify_checksums != null ? verify_checksums.hashCode() : 0);
         result = 31 * result + (log_size != null ? log_size.hashCode() : 0);
+        result = 31 * result + (mmap_reads != null ? mmap_reads.hashCode() : 0);
         result = 31 * result + (index_max_open_files != null ? index_max_open_files.hashCode() : 0);
         result = 31 * result + (index_block_restart_interval != null ? index_block_restart_interval.hashCode() : 0);
         result = 31 * result + (index_write_buffer_size != null ? index_write_buffer_size.hashCode() : 0);
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.broker.store.leveldb
+
+import org.apache.activemq.apollo.util.FunSuiteSupport
+import org.apache.activemq.apollo.util.FileSupport._
+import org.scalatest.matchers.ShouldMatchers
+import org.fusesource.hawtbuf.{DataByteArrayOutputStream, Buffer}
+import collection.mutable.ArrayBuffer
+import java.util.Random
+
+class RecordLogTest extends FunSuiteSupport with ShouldMatchers {
+
+  def with_log(func: (RecordLog)=>Unit) = {
+    val directory = test_data_dir / "log"
+    directory.recursive_delete
+    val log = new RecordLog(directory, ".log")
+    log.logSize = 1024 * 64
+    log.open
+    try {
+      func(log)
+    } finally {
+      log.close
+    }
+  }
+
+  def record(i:Int) = {
+    val rc = new Buffer(10 + (i * 37) % 2000)
+    java.util.Arrays.fill(rc.data, i.toByte)
+    rc
+  }
+
+  test("batch reads match single reads across log files") {
+    for( verify <- List(false, true) ) {
+      with_log { log =>
+        log.verify_checksums = verify
+        val positions = ArrayBuffer[(Long, Int)]()
+        for( i <- 0 until 200 ) {
+          val data = record(i)
+          log.appender { appender =>
+            positions += ((appender.append(1, data)._1, data.length))
+          }
+        }
+        log.log_file_positions.length should be > (1)
+
+        val requests = new Random(0).shuffle(positions.toIndexedSeq)
+        val records = log.read_batch(requests)
+        for( i <- 0 until requests.size ) {
+          val (pos, len) = requests(i)
+          records(i) should be (log.read(pos, len))
+          records(i).get.length should be (len)
+        }
+      }
+    }
+  }
+
+  test("memory mapped reads of completed log files") {
+    with_log { log =>
+      log.mmap_reads = true
+      val positions = ArrayBuffer[(Long, Int)]()
+      for( i <- 0 until 200 ) {
+        val data = record(i)
+        log.appender { appender =>
+          positions += ((appender.append(1, data)._1, data.length))
+        }
+      }
+      val expected = (0 until 200).map(record(_))
+
+      for( ((pos, len), data) <- positions.zip(expected) ) {
+        log.read(pos, len) should be (Some(data))
+      }
+      log.read_batch(positions.toIndexedSeq).toList should be (expected.map(Some(_)).toList)
+
+      // deleting a log file releases its cached reader.
+      val first = log.log_file_positions.head
+      log.delete(first)
+      log.log_info(first).map(_.position) should not be (Some(first))
+    }
+  }
+
+  test("large records bypass the write buffer") {
+    with_log { log =>
+      log.verify_checksums = true
+      import RecordLog._
+      // sizes around the bypass threshold, some split across several buffers.
+      val records = List(
+        List(record(1)),
+        List(new Buffer(BYPASS_BUFFER_SIZE - LOG_HEADER_SIZE)),
+        List(new Buffer(BYPASS_BUFFER_SIZE - LOG_HEADER_SIZE + 1)),
+        List(record(2), record(3)),
+        List(new Buffer(1024*1024*3), record(4)),
+        List(record(5))
+      )
+      for( (r, i) <- records.zipWithIndex; b <- r ) {
+        java.util.Arrays.fill(b.data, b.offset, b.offset+b.length, i.toByte)
+      }
+
+      val positions = log.appender { appender =>
+        records.map(r => appender.append(1, r:_*)._1)
+      }
+      for( (pos, r) <- positions.zip(records) ) {
+        val out = new DataByteArrayOutputStream()
+        r.foreach(b => out.write(b.data, b.offset, b.length))
+        val expected = out.toBuffer
+        log.read(pos, expected.length) should be (Some(expected))
+        val (id, data, next) = log.read(pos).get
+        data should be (expected)
+        next should be (pos + LOG_HEADER_SIZE + expected.length)
+      }
+    }
+  }
+
+  test("recovery drops a large record which was not fully written") {
+    val directory = test_data_dir / "crash"
+    directory.recursive_delete
+    var log = new RecordLog(directory, ".log")
+    log.open
+    val small = log.appender(_.append(1, record(1))._1)
+    val end_of_small = log.appender_limit
+    val large = log.appender(_.append(1, new Buffer(1024*512))._1)
+    large should be (end_of_small)
+    log.close
+
+    // zero out the tail of the large record like a crash mid write would.
+    val file = log.log_info(large).get.file
+    using(new java.io.RandomAccessFile(file, "rw")) { raf =>
+      raf.seek(large + RecordLog.LOG_HEADER_SIZE + 1024*256 - log.log_info(large).get.position)
+      raf.write(new Array[Byte](1024*256))
+    }
+
+    log = new RecordLog(directory, ".log")
+    log.open
+    try {
+      log.appender_limit should be (end_of_small)
+      log.read(small, record(1).length) should be (Some(record(1)))
+    } finally {
+      log.close
+    }
+  }
+
+}
@@ -228,6 +228,7 @@ public class MqttSession {
                     }
                 });
                 mqtt_consumer().addresses.clear();
+                mqtt_consumer().subscriptions_changed();
             }
             session_state.subscriptions.clear();
         } else {
@@ -240,6 +241,7 @@ public class MqttSession {
                     }
                 });
                 mqtt_consumer().addresses.clear();
+                mqtt_consumer().subscriptions_changed();
                 session_state.durable_sub = null;
             }
         }
@@ -279,7 +281,7 @@ public class MqttSession {
     //
     /////////////////////////////////////////////////////////////////////
 
-    final HashMap<Short, Request> in_flight_publishes = new HashMap<Short, Request>();
+    final ShortHashMap<Request> in_flight_publishes = new ShortHashMap<Request>();
 
     public void send(MessageSupport.Message message) {
         queue.assertExecuting();
@@ -689,6 +691,7 @@ public class MqttSession {
                 if (PathParser.containsWildCards(address.path())) {
                     mqtt_consumer().wildcards.put(address.path(), topic.qos());
                 }
+                mqtt_consumer().subscriptions_changed();
                 return address;
             }
         });
@@ -728,6 +731,7 @@ public class MqttSession {
                     if (PathParser.containsWildCards(address.path())) {
                         mqtt_consumer().wildcards.remove(address.path(), topic.qos());
                     }
+                    mqtt_consumer().subscriptions_changed();
                     return Scala2Java.some(address);
                 } else {
                     return Scala2Java.none();
@@ -809,6 +813,40 @@ public class MqttSession {
         public HashMap<BindAddress, QoS> addresses = new HashMap<BindAddress, QoS>();
         public PathMap wildcards = new PathMap<QoS>();
 
+        // Resolving a QoS against the wildcards PathMap walks the path tree
+        // and allocates, so we only do it once per destination and cache the
+        // result until the subscriptions change.  A wildcard subscription can
+        // match any number of topics, so only the recently used ones are kept.
+        LRUCache<SimpleAddress, QoS> resolved_qos = new LRUCache<SimpleAddress, QoS>(1000);
+        SimpleAddress last_topic;
+        QoS last_qos;
+
+        public void subscriptions_changed() {
+            queue.assertExecuting();
+            resolved_qos.clear();
+            last_topic = null;
+            last_qos = null;
+        }
+
+        QoS resolve_qos(SimpleAddress topic) {
+            // Deliveries from a producer route all carry the same address
+            // instance, so most lookups are satisfied by this identity check.
+            if (topic == last_topic) {
+                return last_qos;
+            }
+            QoS qos = resolved_qos.get(topic);
+            if (qos == null && !resolved_qos.containsKey(topic)) {
+                qos = addresses.get(topic);
+                if (qos == null) {
+                    qos = Scala2Java.<QoS>head(wildcards.get(topic.path()));
+                }
+                resolved_qos.put(topic, qos);
+            }
+            last_topic = topic;
+            last_qos = qos;
+            return qos;
+        }
+
         CustomDispatchSource<IntPair, IntPair> credit_window_source = Dispatch.createSource(new EventAggregator<IntPair, IntPair>() {
             public IntPair mergeEvent(IntPair previous, IntPair event) {
                 if (previous == null) {
@@ -863,12 +901,7 @@ public class MqttSession {
                 session_manager.delivered(session, delivery.size());
 
                 // Look up which QoS we need to send this message with..
-                SimpleAddress topic = delivery.sender().head().simple();
-
-                QoS qos = addresses.get(topic);
-                if (qos == null) {
-                    qos = Scala2Java.<QoS>head(wildcards.get(topic.path()));
-                }
+                QoS qos = resolve_qos(delivery.sender().head().simple());
 
                 if (qos == null) {
                     acked(delivery, Consumed$.MODULE$);
@@ -892,6 +925,8 @@ public class MqttSession {
                         } else {
                             publish.payload(delivery.message().encoded());
                         }
+                        // the payload is a copy, so we no longer need the message.
+                        delivery.message().release();
                     }
 
                     handler.messages_sent.incrementAndGet();
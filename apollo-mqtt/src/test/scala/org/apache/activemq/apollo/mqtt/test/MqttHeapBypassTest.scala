@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.mqtt.test
+
+import java.util.concurrent.TimeUnit._
+import org.fusesource.stomp.codec.StompFrame
+import org.fusesource.stomp.client.{Constants, Stomp}
+import org.fusesource.hawtbuf.Buffer
+import org.apache.activemq.apollo.broker.store.ConcurrentFileDirectBufferAllocator
+
+/**
+ * Checks that the MQTT and STOMP consumers and retained topic messages
+ * release the heap bypassed bodies which STOMP producers place in the
+ * direct buffer allocator.
+ */
+class MqttHeapBypassTest extends MqttTestSupport {
+
+  import Constants._
+  import Buffer._
+
+  override def broker_config_uri = "xml:classpath:apollo-mqtt-heap-bypass.xml"
+
+  // Large enough to bypass the heap but small enough to get freed right away.
+  val body = "x" * (1024 * 100)
+
+  def allocated_bytes = broker.default_virtual_host.direct_buffer_allocator.
+      asInstanceOf[ConcurrentFileDirectBufferAllocator].stats.requested
+
+  test("Heap bypassed bodies are released after STOMP and MQTT consumers get them") {
+    connect()
+    subscribe("heap/bypass")
+
+    val stomp_consumer = new Stomp("localhost", port).connectFuture().await()
+    val subscribe_frame = new StompFrame(SUBSCRIBE)
+    subscribe_frame.addHeader(ID, ascii("0"))
+    subscribe_frame.addHeader(DESTINATION, ascii("/topic/heap.bypass"))
+    stomp_consumer.request(subscribe_frame).await()
+
+    val stomp = new Stomp("localhost", port).connectFuture().await()
+    for( i <- 1 to 10 ) {
+      val send = new StompFrame(SEND)
+      send.addHeader(DESTINATION, ascii("/topic/heap.bypass"))
+      send.content(ascii(body))
+      stomp.send(send)
+    }
+
+    for( i <- 1 to 10 ) {
+      val msg = client.connection.receive(5, SECONDS)
+      expect(true, "mqtt receive timeout")(msg != null)
+      new String(msg.getPayload, "UTF-8").endsWith(body) should be(true)
+      msg.ack()
+
+      val frame = stomp_consumer.receive().await(5, SECONDS)
+      expect(true, "stomp receive timeout")(frame != null)
+      frame.contentAsString() should be(body)
+    }
+
+    within(5, SECONDS) {
+      allocated_bytes should be(0L)
+    }
+  }
+
+  test("Heap bypassed retained messages are released when removed") {
+    val stomp = new Stomp("localhost", port).connectFuture().await()
+
+    val set = new StompFrame(SEND)
+    set.addHeader(DESTINATION, ascii("/topic/heap.retained"))
+    set.addHeader(ascii("retain"), ascii("set"))
+    set.content(ascii(body))
+    stomp.request(set).await()
+
+    // The topic holds on to the retained body.
+    allocated_bytes should be > (0L)
+
+    // New subscribers get a copy of the retained message.
+    connect()
+    subscribe("heap/retained")
+    val msg = client.connection.receive(5, SECONDS)
+    expect(true, "mqtt receive timeout")(msg != null)
+    new String(msg.getPayload, "UTF-8").endsWith(body) should be(true)
+    msg.ack()
+
+    val remove = new StompFrame(SEND)
+    remove.addHeader(DESTINATION, ascii("/topic/heap.retained"))
+    remove.addHeader(ascii("retain"), ascii("remove"))
+    stomp.request(remove).await()
+
+    within(5, SECONDS) {
+      allocated_bytes should be(0L)
+    }
+  }
+}
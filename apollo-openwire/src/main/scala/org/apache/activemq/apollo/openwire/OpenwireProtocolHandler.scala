@@ -890,6 +890,8 @@ class OpenwireProtocolHandler extends ProtocolHandler {
         ack_handler.track(msg.getMessageId, delivery.ack, session, delivery.size)
         dispatch.setDestination(msg.getDestination)
         dispatch.setMessage(msg)
+        // balances the retain done when the session accepted the delivery.
+        delivery.message.release()
       }
       messages_sent += 1
       dispatch
@@ -1062,6 +1064,7 @@ class OpenwireProtocolHandler extends ProtocolHandler {
           if( delivery.ack!=null ) {
             delivery.ack(Undelivered, delivery.uow)
           }
+          delivery.message.release()
         })
         if( info.getDestination.isTemporary ) {
           host.dispatch_queue {
@@ -1106,15 +1109,15 @@ class OpenwireProtocolHandler extends ProtocolHandler {
     object ack_handler {
 
       // TODO: Need to validate all the range ack cases...
-      var consumer_acks = ListBuffer[(MessageId,TrackedAck)]()
+      var consumer_acks = new UnackedIndex[MessageId,TrackedAck]()
 
       def close = {
         queue.assertExecuting()
-        consumer_acks.foreach { case(_, tack) =>
-          if( tack.ack !=null ) {
-            tack.ack(Delivered, null)
-          }
+        val batch = new AckBatch
+        consumer_acks.foreach { (_, tack) =>
+          batch += tack.ack
         }
+        batch.ack(Delivered, null)
         consumer_acks = null
       }
 
@@ -1126,44 +1129,35 @@ class OpenwireProtocolHandler extends ProtocolHandler {
             ack(Undelivered, null)
           }
         } else {
-          consumer_acks += msgid -> new TrackedAck(ack, session, size)
+          consumer_acks.put(msgid, new TrackedAck(ack, session, size))
         }
       }
 
       def credit(messageAck: MessageAck):Unit = {
         queue.assertExecuting()
         val msgid: MessageId = messageAck.getLastMessageId
+
+        def credit(delivery:TrackedAck) = {
+          // only credit once...
+          if( !delivery.credited ) {
+            delivery.credited = true;
+            session_manager.delivered(delivery.session, delivery.size)
+            ack_source.merge(1)
+          }
+        }
+
         if( messageAck.getAckType == MessageAck.INDIVIDUAL_ACK_TYPE) {
-          for( (id, delivery) <- consumer_acks.find(_._1 == msgid) ) {
-            if ( !delivery.credited ) {
-              delivery.credited = true;
-              session_manager.delivered(delivery.session, delivery.size)
-              ack_source.merge(1)
-            }
+          val delivery = consumer_acks.get(msgid)
+          if( delivery!=null ) {
+            credit(delivery)
           }
         } else {
-
-          val acked = if( !consumer_acks.isEmpty && consumer_acks.headOption.get._1 == msgid ) {
-            Seq(consumer_acks.headOption.get)
-          } else {
-            var found = false
-            val (acked, _) = consumer_acks.partition{ case (id, ack)=>
-              if( id == msgid ) {
-                found = true
-                true
-              } else {
-                !found
-              }
-            }
-            acked
+          val found = consumer_acks.foreach_through(msgid) { (_, delivery) =>
+            credit(delivery)
           }
-
-          for( (id, delivery) <- acked ) {
-            // only credit once...
-            if( !delivery.credited ) {
-              delivery.credited = true;
-              session_manager.delivered(delivery.session, delivery.size)
-              ack_source.merge(1)
+          if( !found ) {
+            consumer_acks.foreach { (_, delivery) =>
+              credit(delivery)
             }
           }
         }
@@ -1186,42 +1180,24 @@ class OpenwireProtocolHandler extends ProtocolHandler {
 
         val msgid = messageAck.getLastMessageId
         if( messageAck.getAckType == MessageAck.INDIVIDUAL_ACK_TYPE) {
-          consumer_acks = consumer_acks.filterNot{ case (id, delivery)=>
-            if( id == msgid) {
-              if( delivery.ack!=null ) {
-                delivery.ack(Consumed, uow)
-              }
-              true
-            } else {
-              false
-            }
+          val delivery = consumer_acks.remove(msgid)
+          if( delivery!=null && delivery.ack!=null ) {
+            delivery.ack(Consumed, uow)
           }
         } else {
-          val acked = if( !consumer_acks.isEmpty && consumer_acks.headOption.get._1 == msgid ) {
-            Seq(consumer_acks.remove(0))
-          } else {
-            // session acks ack all previously received messages..
-            var found = false
-            val (acked, not_acked) = consumer_acks.partition{ case (id, ack)=>
-              if( id == msgid ) {
-                found = true
-                true
-              } else {
-                !found
-              }
-            }
-            if( !found ) {
-              trace("%s: ACK failed, invalid message id: %s, dest: %s".format(security_context.remote_address, msgid, addresses.mkString(",")))
-            }
-            consumer_acks = not_acked
-            acked
+          // session acks ack all previously received messages..
+          val batch = new AckBatch
+          val found = consumer_acks.remove_through(msgid) { (_, delivery) =>
+            batch += delivery.ack
           }
-
-          acked.foreach{case (id, delivery)=>
-            if( delivery.ack!=null ) {
-              delivery.ack(consumed, uow)
+          if( !found ) {
+            trace("%s: ACK failed, invalid message id: %s, dest: %s".format(security_context.remote_address, msgid, addresses.mkString(",")))
+            consumer_acks.foreach { (_, delivery) =>
+              batch += delivery.ack
             }
+            consumer_acks.clear
           }
+          batch.ack(consumed, uow)
         }
 
       }
@@ -22,13 +22,12 @@ import Stomp._
 
 import BufferConversions._
 import _root_.scala.collection.JavaConversions._
-import java.io.{DataOutput, IOException}
+import java.io.{OutputStream, DataOutput, IOException}
 import org.fusesource.hawtdispatch.transport._
 import _root_.org.fusesource.hawtbuf._
 import org.apache.activemq.apollo.util._
 import org.apache.activemq.apollo.broker.store.{DirectBuffer, MessageRecord}
 import java.lang.String
-import collection.mutable.ListBuffer
 
 class StompProtocolException(message:String) extends IOException(message)
 
@@ -42,12 +41,9 @@ object StompCodec extends Log {
     val rc = new MessageRecord
     rc.codec = PROTOCOL
 
-    if( frame.content.isInstanceOf[ZeroCopyContent] ) {
-      rc.direct_buffer = frame.content.asInstanceOf[ZeroCopyContent].zero_copy_buffer
-    }
-
-    def buffer_size = if (rc.direct_buffer!=null) { frame.size - (rc.direct_buffer.size - 1) } else { frame.size }
-    val os = new ByteArrayOutputStream(buffer_size)
+    // Bodies held off heap are stored inline since not all the stores
+    // can persist direct buffers.
+    val os = new ByteArrayOutputStream(frame.size)
 
     frame.action.writeTo(os)
     os.write(NEWLINE)
@@ -65,8 +61,8 @@ object StompCodec extends Log {
     // we can optimize a little if the headers and content are in the same buffer..
     if( frame.are_headers_in_content_buffer && frame.contiguous ) {
 
-      val offset = frame.headers.head._1.offset;
-      val buffer1 = frame.headers.head._1;
+      val buffer1 = frame.first_header_name;
+      val offset = buffer1.offset;
       val buffer2 = frame.content.asInstanceOf[BufferContent].content;
       val length = (buffer2.offset-buffer1.offset)+buffer2.length
       os.write( buffer1.data, offset, length)
@@ -79,9 +75,7 @@ object StompCodec extends Log {
         os.write(NEWLINE)
       }
       os.write(NEWLINE)
-      if ( rc.direct_buffer==null ) {
-        frame.content.writeTo(os)
-      }
+      frame.content.writeTo(os)
     }
     rc.buffer = os.toBuffer
     rc
@@ -107,8 +101,7 @@ object StompCodec extends Log {
 
     val action = read_line
 
-    val headers = new HeaderMapBuffer()
-    var contentLength:AsciiBuffer = null
+    val index = new StompHeaderIndex
 
     var line = read_line
     while( line.length() > 0 ) {
@@ -117,12 +110,9 @@ object StompCodec extends Log {
           if( seperatorIndex<0 ) {
               throw new StompProtocolException("Header line missing separator.")
           }
-          var name = line.slice(0, seperatorIndex)
-          var value = line.slice(seperatorIndex + 1, line.length)
-          headers.add((name, value))
-          if (end_check && contentLength==null && name == CONTENT_LENGTH ) {
-            contentLength = value
-          }
+          val name = line.slice(0, seperatorIndex).ascii
+          val value = line.slice(seperatorIndex + 1, line.length).ascii
+          index.put(name, value)
       } catch {
           case e:Exception=>
             throw new StompProtocolException("Unable to parse header line [" + Log.escape(line) + "]")
@@ -131,6 +121,7 @@ object StompCodec extends Log {
     }
 
     if ( end_check ) {
+      val contentLength = index.get(CONTENT_LENGTH)
       buffer.length = if (contentLength != null) {
         val length = try {
           contentLength.toString.toInt
@@ -152,9 +143,9 @@ object StompCodec extends Log {
     }
 
     if( direct_buffer==null ) {
-      new StompFrame(action, headers.toList, BufferContent(buffer), true)
+      new StompFrame(action, null, BufferContent(buffer), true).with_index(index)
     } else {
-      new StompFrame(action, headers.toList, ZeroCopyContent(direct_buffer), true)
+      new StompFrame(action, null, ZeroCopyContent(direct_buffer), true).with_index(index)
     }
   }
 
@@ -170,7 +161,10 @@ class StompCodec extends AbstractProtocolCodec {
 
   protected def encode(command: AnyRef) = command match {
     case buffer:Buffer=> buffer.writeTo(nextWriteBuffer.asInstanceOf[DataOutput])
-    case frame:StompFrame=> encode(frame, nextWriteBuffer);
+    case frame:StompFrame=>
+      encode(frame, nextWriteBuffer);
+      // the content is no longer needed once it's in the write buffer.
+      frame.release
   }
 
   def encode(frame:StompFrame, os:DataOutput) = {
@@ -190,8 +184,8 @@ class StompCodec extends AbstractProtocolCodec {
     // we can optimize a little if the headers and content are in the same buffer..
     if( frame.are_headers_in_content_buffer && frame.contiguous) {
 
-      val offset = frame.headers.head._1.offset;
-      val buffer1 = frame.headers.head._1;
+      val buffer1 = frame.first_header_name;
+      val offset = buffer1.offset;
       val buffer2 = frame.content.asInstanceOf[BufferContent].content;
       val length = (buffer2.offset-buffer1.offset)+buffer2.length
       os.write( buffer1.data, offset, length)
@@ -207,9 +201,12 @@ class StompCodec extends AbstractProtocolCodec {
       os.write(NEWLINE)
 
       frame.content match {
-//        case x:ZeroCopyContent=>
-//          assert(next_write_direct==null)
-//          next_write_direct = x.zero_copy_buffer
+        case x:ZeroCopyContent=>
+          x.writeTo(new OutputStream {
+            def write(b: Int) = os.write(b)
+            override def write(b: Array[Byte], off: Int, len: Int) = os.write(b, off, len)
+          })
+          END_OF_FRAME_BUFFER.writeTo(os)
         case x:BufferContent=>
           x.content.writeTo(os)
           END_OF_FRAME_BUFFER.writeTo(os)
@@ -245,9 +242,27 @@ class StompCodec extends AbstractProtocolCodec {
     }
   }
 
+  /**
+   * Slices out part of a header line as an AsciiBuffer without creating
+   * intermediate buffers.
+   */
+  private def header_part(line:Buffer, start:Int, end:Int):AsciiBuffer = {
+    val data = line.data
+    var s = line.offset + start
+    var e = line.offset + end
+    if (trim) {
+      while( s < e && Character.isWhitespace(data(s).toInt) ) {
+        s += 1
+      }
+      while( e > s && Character.isWhitespace(data(e-1).toInt) ) {
+        e -= 1
+      }
+    }
+    new AsciiBuffer(data, s, e - s)
+  }
+
   private def read_headers(command: AsciiBuffer, c:Boolean): AbstractProtocolCodec.Action = new AbstractProtocolCodec.Action {
-    var contentLength:AsciiBuffer = _
-    val headers = new ListBuffer[(AsciiBuffer, AsciiBuffer)]()
+    val index = new StompHeaderIndex
     var contiguous = c;
 
     def apply: AnyRef = {
@@ -263,7 +278,7 @@ class StompCodec extends AbstractProtocolCodec {
         }
 
         if (line.length > 0) {
-          if (max_headers != -1 && headers.size > max_headers) {
+          if (max_headers != -1 && index.size > max_headers) {
             throw new StompProtocolException("The maximum number of headers was exceeded")
           }
           try {
@@ -271,29 +286,19 @@ class StompCodec extends AbstractProtocolCodec {
             if (seperatorIndex < 0) {
               throw new StompProtocolException("Header line missing separator [" +  Log.escape(line.ascii) + "]")
             }
-            var name: Buffer = line.slice(0, seperatorIndex)
-            if (trim) {
-              name = name.trim
-            }
+            val name = header_part(line, 0, seperatorIndex)
             if( name.length() == 0 ) {
               throw new StompProtocolException("Header line header name is empty: [" +  Log.escape(line.ascii) + "]")
             }
-            var value: Buffer = line.slice(seperatorIndex + 1, line.length)
-            if (trim) {
-              value = value.trim
-            }
-            var entry = (name.ascii, value.ascii)
-            if (contentLength==null && entry._1 == CONTENT_LENGTH) {
-              contentLength = entry._2
-            }
-            headers.add(entry)
+            val value = header_part(line, seperatorIndex + 1, line.length)
+            index.put(name, value)
           } catch {
             case e: Exception => {
               throw new StompProtocolException("Unable to parser header line [" +  Log.escape(line.ascii) + "]")
             }
           }
         } else {
-          val h = headers.toList
+          val contentLength = index.get(CONTENT_LENGTH)
           if (contentLength != null) {
             var length = try {
               contentLength.toString.toInt
@@ -304,9 +309,9 @@ class StompCodec extends AbstractProtocolCodec {
             if (max_data_length != -1 && length > max_data_length) {
               throw new StompProtocolException("The maximum data length was exceeded")
             }
-            nextDecodeAction = read_binary_body(command, h, length, contiguous)
+            nextDecodeAction = read_binary_body(command, index, length, contiguous)
           } else {
-            nextDecodeAction = read_text_body(command, h, contiguous)
+            nextDecodeAction = read_text_body(command, index, contiguous)
           }
           return nextDecodeAction.apply()
         }
@@ -315,7 +320,7 @@ class StompCodec extends AbstractProtocolCodec {
     }
   }
 
-  private def read_binary_body(command: AsciiBuffer, headers:HeaderMap, contentLength: Int, contiguous:Boolean): AbstractProtocolCodec.Action = {
+  private def read_binary_body(command: AsciiBuffer, index:StompHeaderIndex, contentLength: Int, contiguous:Boolean): AbstractProtocolCodec.Action = {
     return new AbstractProtocolCodec.Action {
       def apply: AnyRef = {
         var content = readBytes(contentLength + 1)
@@ -326,7 +331,7 @@ class StompCodec extends AbstractProtocolCodec {
           nextDecodeAction = read_action
           content.moveTail(-1)
           val body = if( content.length() == 0) NilContent else BufferContent(content)
-          return new StompFrame(command, headers, body, contiguous)
+          return new StompFrame(command, null, body, contiguous).with_index(index)
         }
         else {
           return null
@@ -335,7 +340,7 @@ class StompCodec extends AbstractProtocolCodec {
     }
   }
 
-  private def read_text_body(command: AsciiBuffer, headers:HeaderMap, contiguous:Boolean): AbstractProtocolCodec.Action = {
+  private def read_text_body(command: AsciiBuffer, index:StompHeaderIndex, contiguous:Boolean): AbstractProtocolCodec.Action = {
     return new AbstractProtocolCodec.Action {
       def apply: AnyRef = {
         var content: Buffer = readUntil(0.asInstanceOf[Byte])
@@ -343,7 +348,7 @@ class StompCodec extends AbstractProtocolCodec {
           nextDecodeAction = read_action
           content.moveTail(-1)
           val body = if( content.length() == 0) NilContent else BufferContent(content)
-          return new StompFrame(command, headers, body, contiguous)
+          return new StompFrame(command, null, body, contiguous).with_index(index)
         }
         else {
           return null
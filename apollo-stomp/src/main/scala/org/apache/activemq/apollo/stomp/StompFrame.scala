@@ -21,7 +21,8 @@ import collection.mutable.ListBuffer
 import java.lang.{String, Class}
 import org.apache.activemq.apollo.broker._
 import java.io.OutputStream
-import org.apache.activemq.apollo.broker.store.DirectBuffer
+import org.apache.activemq.apollo.broker.store.{DirectBufferAllocator, DirectBuffer}
+import java.nio.ByteBuffer
 import org.apache.activemq.apollo.dto.DestinationDTO
 
 /**
@@ -63,21 +64,20 @@ case class StompFrameMessage(frame:StompFrame) extends Message {
   var message_group_buffer:AsciiBuffer = null
   override def message_group = if( message_group_buffer==null ) null else message_group_buffer.toString
 
-  for( header <- (frame.updated_headers ::: frame.headers).reverse ) {
-    header match {
-      case (MESSAGE_ID, value) =>
-        id = value
-      case (PRIORITY, value) =>
-        priority = java.lang.Integer.parseInt(value).toByte
-      case (EXPIRES, value) =>
-        expiration = java.lang.Long.parseLong(value)
-      case (PERSISTENT, value) =>
-        persistent = java.lang.Boolean.parseBoolean(value)
-      case (MESSAGE_GROUP, value) =>
-        message_group_buffer = value
-      case _ =>
-    }
+  id = frame.header(MESSAGE_ID)
+  frame.header(PRIORITY) match {
+    case null =>
+    case value => priority = java.lang.Integer.parseInt(value).toByte
+  }
+  frame.header(EXPIRES) match {
+    case null =>
+    case value => expiration = java.lang.Long.parseLong(value)
   }
+  frame.header(PERSISTENT) match {
+    case null =>
+    case value => persistent = java.lang.Boolean.parseBoolean(value)
+  }
+  message_group_buffer = frame.header(MESSAGE_GROUP)
 
 
   def getBodyAs[T](toType : Class[T]) = {
@@ -95,7 +95,18 @@ case class StompFrameMessage(frame:StompFrame) extends Message {
           null
         }
       case x:ZeroCopyContent =>
-        null
+        val content = x.buffer
+        if( toType == classOf[String] ) {
+          content.utf8
+        } else if (toType == classOf[Buffer]) {
+          content
+        } else if (toType == classOf[AsciiBuffer]) {
+          content.ascii
+        } else if (toType == classOf[UTF8Buffer]) {
+          content.utf8
+        } else {
+          null
+        }
       case NilContent =>
         if( toType == classOf[String] ) {
           ""
@@ -170,6 +181,17 @@ case class StompFrameMessage(frame:StompFrame) extends Message {
  */
 object StompFrame extends Sizer[StompFrame] {
   def size(value:StompFrame) = value.size
+
+  private def find(headers:HeaderMap, name:AsciiBuffer):AsciiBuffer = {
+    var i = headers
+    while( !i.isEmpty ) {
+      if( i.head._1 == name ) {
+        return i.head._2
+      }
+      i = i.tail
+    }
+    null
+  }
 }
 
 /**
@@ -211,17 +233,26 @@ case class BufferContent(content:Buffer) extends StompContent {
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
 case class ZeroCopyContent(zero_copy_buffer:DirectBuffer) extends StompContent {
+  // the direct buffer also holds the frame's null terminator.
   def length = zero_copy_buffer.size-1
 
   def writeTo(os:OutputStream) = {
-    val buff = new Array[Byte](1024*4)
-    var remaining = zero_copy_buffer.size-1
-    while( remaining> 0 ) {
-      val c = remaining.min(buff.length)
-      zero_copy_buffer.read(os)
-      os.write(buff, 0, c)
-      remaining -= c
-    }
+    zero_copy_buffer.read(new OutputStream {
+      var remaining = ZeroCopyContent.this.length
+      def write(b: Int) = {
+        if( remaining > 0 ) {
+          os.write(b)
+          remaining -= 1
+        }
+      }
+      override def write(b: Array[Byte], off: Int, len: Int) = {
+        val count = len.min(remaining)
+        if( count > 0 ) {
+          os.write(b, off, count)
+          remaining -= count
+        }
+      }
+    })
   }
 
   def buffer:Buffer = {
@@ -243,20 +274,46 @@ case class ZeroCopyContent(zero_copy_buffer:DirectBuffer) extends StompContent {
  *
  * @author <a href="http://hiramchirino.com">chirino</a>
  */
-case class StompFrame(action:AsciiBuffer, headers:HeaderMap=Nil, content:StompContent=NilContent, contiguous:Boolean=false, updated_headers:HeaderMap=Nil) {
+case class StompFrame(action:AsciiBuffer, original_headers:HeaderMap=Nil, content:StompContent=NilContent, contiguous:Boolean=false, updated_headers:HeaderMap=Nil) {
+
+  /**
+   * The well known headers found in headers.  Set by the codec when it
+   * decodes the frame, in which case the frame is created without
+   * original_headers and the index holds all the headers.
+   */
+  var index:StompHeaderIndex = null
+
+  private var header_list = original_headers
+
+  /**
+   * The headers the frame was created with.  The list is built from the index
+   * the first time it's needed for frames the codec created.
+   */
+  def headers:HeaderMap = {
+    if( header_list == null ) {
+      header_list = index.to_list
+    }
+    header_list
+  }
+
+  private def has_headers = if( header_list == null ) index.size > 0 else !header_list.isEmpty
+
+  private[stomp] def first_header_name = if( header_list == null ) index.name(0) else header_list.head._1
+
+  private def last_header_value = if( header_list == null ) index.value(index.size-1) else header_list.last._2
 
   def size_of_updated_headers = {
     size_of(updated_headers)
   }
 
   def size_of_original_headers = {
-    if( headers.isEmpty ) {
+    if( !has_headers ) {
       0
     } else {
       // if all the headers were part of the same input buffer.. size can be calculated by
       // subtracting positions in the buffer.
-      val firstBuffer = headers.head._1
-      val lastBuffer =  headers.last._2
+      val firstBuffer = first_header_name
+      val lastBuffer =  last_header_value
       if( firstBuffer.data eq lastBuffer.data ) {
         (lastBuffer.offset-firstBuffer.offset)+lastBuffer.length+1
       } else {
@@ -276,9 +333,9 @@ case class StompFrame(action:AsciiBuffer, headers:HeaderMap=Nil, content:StompCo
     rc
   }
 
-  def are_headers_in_content_buffer = !headers.isEmpty && 
+  def are_headers_in_content_buffer = has_headers &&
           content.isInstanceOf[BufferContent] &&
-          ( headers.head._1.data eq content.asInstanceOf[BufferContent].content.data )
+          ( first_header_name.data eq content.asInstanceOf[BufferContent].content.data )
 
   def size:Int = {
     if( contiguous ) {
@@ -295,18 +352,65 @@ case class StompFrame(action:AsciiBuffer, headers:HeaderMap=Nil, content:StompCo
     size_of_original_headers + 1 + content.length
   }
 
-  def header(name:AsciiBuffer) = {
-    updated_headers.filter( _._1 == name ).headOption.orElse(
-      headers.filter( _._1 == name ).headOption
-    ).map(_._2).getOrElse(null)
+  def with_index(value:StompHeaderIndex) = {
+    index = value
+    this
   }
 
-  def append_headers(value:HeaderMap) = StompFrame(action, headers, content, contiguous, value ::: updated_headers)
+  /**
+   * Copies keep using the index unless they replace the original headers.
+   */
+  def copy(action:AsciiBuffer=action, original_headers:HeaderMap=original_headers, content:StompContent=content, contiguous:Boolean=contiguous, updated_headers:HeaderMap=updated_headers) = {
+    val rc = StompFrame(action, original_headers, content, contiguous, updated_headers)
+    if( original_headers eq this.original_headers ) {
+      rc.with_index(index)
+    } else {
+      rc
+    }
+  }
+
+  def header(name:AsciiBuffer):AsciiBuffer = {
+    var rc = StompFrame.find(updated_headers, name)
+    if( rc == null ) {
+      rc = if( index != null ) {
+        index.get(name)
+      } else {
+        StompFrame.find(headers, name)
+      }
+    }
+    rc
+  }
+
+  def append_headers(value:HeaderMap) = copy(updated_headers = value ::: updated_headers)
 
   def retain = content.retain
   def release = content.release
 }
 
+object ZeroCopyContent {
+
+  /**
+   * Moves the content into a buffer allocated by the allocator.
+   */
+  def apply(allocator:DirectBufferAllocator, content:Buffer):ZeroCopyContent = {
+    val rc = allocator.alloc(content.length+1)
+    try {
+      val src = ByteBuffer.allocate(content.length+1)
+      src.put(content.data, content.offset, content.length)
+      src.put(0.toByte)
+      src.flip
+      while( src.hasRemaining ) {
+        rc.write(src, src.position)
+      }
+    } catch {
+      case e:Throwable =>
+        rc.release
+        throw e
+    }
+    ZeroCopyContent(rc)
+  }
+}
+
 object Stomp {
 
   val PROTOCOL = "stomp"
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.stomp
+
+import org.fusesource.hawtbuf.AsciiBuffer
+import Stomp._
+
+object StompHeaderIndex {
+
+  /**
+   * The headers which get looked up on most frames.
+   */
+  val NAMES = Array(
+    DESTINATION, RECEIPT_REQUESTED, CONTENT_LENGTH, CONTENT_TYPE, TRANSACTION,
+    MESSAGE_ID, SUBSCRIPTION, ID, ACK_HEADER, CREDIT, PERSISTENT, REPLY_TO,
+    EXPIRES, PRIORITY, MESSAGE_GROUP, RETAIN, CORRELATION_ID, TTL, TYPE
+  )
+
+  // Where the header pairs start in the fields of an index.
+  private val FIRST_PAIR = NAMES.length
+
+  // Enough for the headers of most frames without growing the fields.
+  private val INITIAL_PAIRS = 8
+
+  // The first and last bytes of the names above are enough to tell them apart.
+  private def hash(name:AsciiBuffer) = {
+    val data = name.data
+    (data(name.offset) + 18 * data(name.offset + name.length - 1)) & 63
+  }
+
+  private val SLOTS = {
+    val rc = Array.fill(64)(-1)
+    for( i <- 0 until NAMES.length ) {
+      val h = hash(NAMES(i))
+      assert(rc(h) == -1, "header hash collision: "+NAMES(i))
+      rc(h) = i
+    }
+    rc
+  }
+
+  /**
+   * @return the position of the header in NAMES or -1 if it's not a well known header.
+   */
+  def index_of(name:AsciiBuffer):Int = {
+    if( name.length == 0 ) {
+      -1
+    } else {
+      val i = SLOTS(hash(name))
+      if( i >= 0 && NAMES(i) == name ) i else -1
+    }
+  }
+
+}
+
+/**
+ * The headers of a decoded frame kept in one flat array so that decoding
+ * does not need to build a header list.  The first slots of the array hold
+ * the values of the well known headers so they can be looked up without a
+ * scan, the rest hold the name and value pairs in the order they were
+ * decoded.  Like a scan, the first occurrence of a header wins.
+ */
+class StompHeaderIndex {
+  import StompHeaderIndex._
+
+  private var fields = new Array[AsciiBuffer](FIRST_PAIR + 2 * INITIAL_PAIRS)
+  private var pairs = 0
+
+  /**
+   * @return the number of headers added.
+   */
+  def size = pairs
+
+  def name(i:Int) = fields(FIRST_PAIR + 2 * i)
+  def value(i:Int) = fields(FIRST_PAIR + 2 * i + 1)
+
+  def put(name:AsciiBuffer, value:AsciiBuffer):Unit = {
+    val pos = FIRST_PAIR + 2 * pairs
+    if( pos == fields.length ) {
+      fields = java.util.Arrays.copyOf(fields, pos + 2 * pairs)
+    }
+    fields(pos) = name
+    fields(pos + 1) = value
+    pairs += 1
+    val i = index_of(name)
+    if( i >= 0 && fields(i) == null ) {
+      fields(i) = value
+    }
+  }
+
+  /**
+   * @return the header value or null if it is not set.
+   */
+  def get(name:AsciiBuffer):AsciiBuffer = {
+    val i = index_of(name)
+    if( i >= 0 ) {
+      fields(i)
+    } else {
+      var pos = FIRST_PAIR
+      val end = FIRST_PAIR + 2 * pairs
+      while( pos < end ) {
+        if( fields(pos) == name ) {
+          return fields(pos + 1)
+        }
+        pos += 2
+      }
+      null
+    }
+  }
+
+  /**
+   * @return the headers as a list, in the order they were added.
+   */
+  def to_list:HeaderMap = {
+    var rc:HeaderMap = Nil
+    var i = pairs - 1
+    while( i >= 0 ) {
+      rc ::= (name(i), value(i))
+      i -= 1
+    }
+    rc
+  }
+
+}
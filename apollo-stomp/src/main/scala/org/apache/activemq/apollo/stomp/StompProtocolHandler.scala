@@ -325,15 +325,15 @@ class StompProtocolHandler extends ProtocolHandler {
     class TrackedAck(var credit:Option[(Session[Delivery], Int)], val ack:(DeliveryResult, StoreUOW)=>Unit)
 
     class SessionAckHandler extends AckHandler{
-      var consumer_acks = ListBuffer[(AsciiBuffer, TrackedAck)]()
+      var consumer_acks = new UnackedIndex[AsciiBuffer, TrackedAck]()
 
       def close = {
         queue.assertExecuting()
-        consumer_acks.foreach { case(_, tack) =>
-          if( tack.ack !=null ) {
-            tack.ack(Delivered, null)
-          }
+        val batch = new AckBatch
+        consumer_acks.foreach { (_, tack) =>
+          batch += tack.ack
         }
+        batch.ack(Delivered, null)
         consumer_acks = null
       }
 
@@ -350,7 +350,7 @@ class StompProtocolHandler extends ProtocolHandler {
             connection_ack_handlers += ( msgid -> this )
           }
           if( initial_credit_window.auto_credit) {
-            consumer_acks += msgid -> new TrackedAck(Some((session, size)), ack )
+            consumer_acks.put(msgid, new TrackedAck(Some((session, size)), ack))
           } else {
 //            session_manager.delivered(session, size)
           }
@@ -361,28 +361,22 @@ class StompProtocolHandler extends ProtocolHandler {
         queue.assertExecuting()
         if( initial_credit_window.auto_credit ) {
 
-          val acked = if( !consumer_acks.isEmpty && consumer_acks.headOption.get._1 == msgid ) {
-            Seq(consumer_acks.headOption.get)
-          } else {
-            var found = false
-            val (acked, _) = consumer_acks.partition{ case (id, ack)=>
-              if( id == msgid ) {
-                found = true
-                true
-              } else {
-                !found
-              }
-            }
-            acked
-          }
-
-          for( (id, delivery) <- acked ) {
+          def credit(delivery:TrackedAck) = {
             for( credit <- delivery.credit ) {
 //              session_manager.delivered(credit._1, credit._2)
               credit_window_source.merge((1, credit._2))
               delivery.credit = None
             }
           }
+
+          val found = consumer_acks.foreach_through(msgid) { (_, delivery) =>
+            credit(delivery)
+          }
+          if( !found ) {
+            consumer_acks.foreach { (_, delivery) =>
+              credit(delivery)
+            }
+          }
         } else {
           if( credit_value!=null ) {
             credit_window_source.merge((credit_value._1, credit_value._2))
@@ -394,31 +388,20 @@ class StompProtocolHandler extends ProtocolHandler {
         queue.assertExecuting()
         assert(consumer_acks !=null)
 
-        val acked = if( !consumer_acks.isEmpty && consumer_acks.headOption.get._1 == msgid ) {
-          Seq(consumer_acks.remove(0))
-        } else {
-          // session acks ack all previously received messages..
-          var found = false
-          val (acked, not_acked) = consumer_acks.partition{ case (id, ack)=>
-            if( id == msgid ) {
-              found = true
-              true
-            } else {
-              !found
-            }
-          }
-          if( !found ) {
-            trace("%s: ACK failed, invalid message id: %s, dest: %s".format(security_context.remote_address, msgid, addresses.mkString(",")))
-          }
-          consumer_acks = not_acked
-          acked
-        }
+        val batch = new AckBatch
 
-        acked.foreach{case (id, delivery)=>
-          if( delivery.ack!=null ) {
-            delivery.ack(consumed, uow)
+        // session acks ack all previously received messages..
+        val found = consumer_acks.remove_through(msgid) { (_, delivery) =>
+          batch += delivery.ack
+        }
+        if( !found ) {
+          trace("%s: ACK failed, invalid message id: %s, dest: %s".format(security_context.remote_address, msgid, addresses.mkString(",")))
+          consumer_acks.foreach { (_, delivery) =>
+            batch += delivery.ack
           }
+          consumer_acks.clear
         }
+        batch.ack(consumed, uow)
 
         if( protocol_version eq V1_0 ) {
           connection_ack_handlers.remove(msgid)
@@ -431,15 +414,15 @@ class StompProtocolHandler extends ProtocolHandler {
     }
 
     class MessageAckHandler extends AckHandler {
-      var consumer_acks = HashMap[AsciiBuffer, TrackedAck]()
+      var consumer_acks = new UnackedIndex[AsciiBuffer, TrackedAck]()
 
       def close = {
         queue.assertExecuting()
-        consumer_acks.foreach { case(_, tack) =>
-          if( tack.ack !=null ) {
-            tack.ack(Delivered, null)
-          }
+        val batch = new AckBatch
+        consumer_acks.foreach { (_, tack) =>
+          batch += tack.ack
         }
+        batch.ack(Delivered, null)
         consumer_acks = null
       }
 
@@ -456,7 +439,7 @@ class StompProtocolHandler extends ProtocolHandler {
             connection_ack_handlers += ( msgid -> this )
           }
           if( initial_credit_window.auto_credit ) {
-            consumer_acks += msgid -> new TrackedAck(Some((session, size)), ack)
+            consumer_acks.put(msgid, new TrackedAck(Some((session, size)), ack))
           } else {
 //            session_manager.delivered(session, size)
           }
@@ -466,7 +449,7 @@ class StompProtocolHandler extends ProtocolHandler {
       def credit(msgid: AsciiBuffer, credit_value: (Int, Int)):Unit = {
         queue.assertExecuting()
         if( initial_credit_window.auto_credit ) {
-          for( delivery <- consumer_acks.get(msgid)) {
+          for( delivery <- Option(consumer_acks.get(msgid)) ) {
             for( credit <- delivery.credit ) {
 //              session_manager.delivered(credit._1, credit._2)
               credit_window_source.merge((1, credit._2))
@@ -484,11 +467,11 @@ class StompProtocolHandler extends ProtocolHandler {
         queue.assertExecuting()
         assert(consumer_acks !=null)
         consumer_acks.remove(msgid) match {
-          case Some(delivery) =>
+          case null => async_die("ACK failed, invalid message id: %s".format(msgid))
+          case delivery =>
             if( delivery.ack!=null ) {
               delivery.ack(consumed, uow)
             }
-          case None => async_die("ACK failed, invalid message id: %s".format(msgid))
         }
 
         if( protocol_version eq V1_0 ) {
@@ -519,6 +502,7 @@ class StompProtocolHandler extends ProtocolHandler {
         if( delivery.ack != null ) {
           delivery.ack(Expired, null)
         }
+        delivery.message.release
         None
       } else {
         val message = delivery.message
@@ -579,6 +563,7 @@ class StompProtocolHandler extends ProtocolHandler {
       credit_window_filter.disable
       sink_manager.close(consumer_sink, (frame)=>{
         // No point in sending the frame down to the socket..
+        frame.release
       })
       super.dispose()
     }
@@ -680,6 +665,7 @@ class StompProtocolHandler extends ProtocolHandler {
           if( delivery.ack!=null ) {
             delivery.ack(Undelivered, delivery.uow)
           }
+          delivery.message.release
         })
         release
       }
@@ -756,6 +742,7 @@ class StompProtocolHandler extends ProtocolHandler {
   }
 
   lazy val buffer_size = Option(config.buffer_size).map(MemoryPropertyEditor.parse(_).toInt).getOrElse(broker.auto_tuned_send_receiver_buffer_size*10)
+  lazy val send_batch_size = Option(config.send_batch_size).map(MemoryPropertyEditor.parse(_).toInt).getOrElse(1024*64)
 
   override def set_connection(connection: BrokerConnection) = {
     super.set_connection(connection)
@@ -967,15 +954,25 @@ class StompProtocolHandler extends ProtocolHandler {
         if( delay ) {
           waiting_on = ()=>"die delay"
           queue.after(die_delay, TimeUnit.MILLISECONDS) {
-            connection.stop(NOOP)
+            stop_connection
           }
         } else {
-          connection.stop(NOOP)
+          stop_connection
         }
       }
     }
   }
 
+  private def stop_connection = {
+    // The frames which never made it to the socket may hold off heap bodies.
+    if( connection_sink!=null ) {
+      import collection.JavaConversions._
+      connection_sink.overflow.foreach(_.release)
+      connection_sink.clear
+    }
+    connection.stop(NOOP)
+  }
+
 
   override def on_transport_command(command:AnyRef):Unit = {
     if( dead ) {
@@ -1033,7 +1030,7 @@ class StompProtocolHandler extends ProtocolHandler {
               case NACK =>
                 on_stomp_nack(frame)
               case DISCONNECT =>
-                disconnect(send_receipt(frame.headers)!=null)
+                disconnect(send_receipt(frame)!=null)
               case _ =>
                 die("Invalid STOMP frame command: "+frame.action);
             }
@@ -1195,17 +1192,17 @@ class StompProtocolHandler extends ProtocolHandler {
   def on_stomp_send(frame:StompFrame) = {
     messages_received += 1
 
-    get(frame.headers, DESTINATION) match {
-      case None=>
+    frame.header(DESTINATION) match {
+      case null=>
         frame.release
         die("destination not set.")
 
-      case Some(dest)=>
+      case dest=>
 
-        get(frame.headers, TRANSACTION) match {
-          case None=>
+        frame.header(TRANSACTION) match {
+          case null=>
             perform_send(frame)
-          case Some(txid)=>
+          case txid=>
             get_or_create_tx_queue(txid).add (new TransactionAction(){
               override def on_commit(uow: StoreUOW) {
                 perform_send(frame, uow)
@@ -1249,6 +1246,45 @@ class StompProtocolHandler extends ProtocolHandler {
 
     var routing_items = 0
 
+    // Persistent sends to this route which are not part of a transaction share
+    // a unit of work until the batch fills up, the route gets full or we are
+    // done processing the frames we have read.  Batches are kept per route so
+    // that a blocked destination does not hold back the receipts of the others.
+    var send_batch:StoreUOW = null
+    var send_batch_bytes = 0
+
+    /**
+     * @return a retained reference to the current send batch uow or null if
+     *         sends are not being batched.
+     */
+    def send_batch_uow(size:Int):StoreUOW = {
+      if( send_batch_size <= 0 || host.store == null ) {
+        return null
+      }
+      if( send_batch == null ) {
+        send_batch = host.store.create_uow
+        send_batch_bytes = 0
+        defer {
+          close_send_batch
+        }
+      }
+      val rc = send_batch
+      rc.retain
+      send_batch_bytes += size
+      if( send_batch_bytes >= send_batch_size ) {
+        close_send_batch
+      }
+      rc
+    }
+
+    def close_send_batch = {
+      if( send_batch != null ) {
+        val uow = send_batch
+        send_batch = null
+        uow.release
+      }
+    }
+
     override def offer(delivery: Delivery): Boolean = {
       if( full )
         return false
@@ -1316,7 +1352,7 @@ class StompProtocolHandler extends ProtocolHandler {
   var producer_routes = new java.util.HashMap[AsciiBuffer, StompProducerRoute]()
 
   def perform_send(frame:StompFrame, uow:StoreUOW=null): Unit = {
-    val dest = get(frame.headers, DESTINATION).get
+    val dest = frame.header(DESTINATION)
     producer_routes.get(dest) match {
       case null =>
         // Deep copy to avoid holding onto a 64k buffer
@@ -1386,14 +1422,14 @@ class StompProtocolHandler extends ProtocolHandler {
 //    }
   }
 
-  def updated_headers(addresses: Array[SimpleAddress], headers:HeaderMap) = {
+  def updated_headers(addresses: Array[SimpleAddress], frame:StompFrame) = {
     var rc:HeaderMap=Nil
 
     // Do we need to re-write the destination names?
     if( addresses.find(_.id.startsWith("temp.")).isDefined ) {
       rc ::= (DESTINATION -> encode_header(encode_address(addresses)))
     }
-    get(headers, REPLY_TO).foreach { value=>
+    Option(frame.header(REPLY_TO)).foreach { value=>
       // we may need to translate local temp destination names to broker destination names
       if( value.indexOf(TEMP_QUEUE)>=0 || value.indexOf(TEMP_TOPIC)>=0 ) {
         try {
@@ -1408,15 +1444,15 @@ class StompProtocolHandler extends ProtocolHandler {
     }
 
     // Do we need to add an expires header?
-    for( ttl <- get( headers, TTL) ) {
-      if( get( headers, EXPIRES)==None ) {
+    for( ttl <- Option(frame.header(TTL)) ) {
+      if( frame.header(EXPIRES)==null ) {
         val expiration = Broker.now + java.lang.Long.parseLong(ttl.toString)
         rc ::= (EXPIRES -> ascii(expiration.toString))
       }
     }
 
     // Do we need to add the message id?
-    if( get( headers, MESSAGE_ID) == None ) {
+    if( frame.header(MESSAGE_ID) == null ) {
       message_id_counter += 1
       rc ::= (MESSAGE_ID -> ascii(session_id+message_id_counter))
     }
@@ -1455,18 +1491,19 @@ class StompProtocolHandler extends ProtocolHandler {
     rc
   }
 
-  def send_via_route(addresses: Array[SimpleAddress], route:StompProducerRoute, frame:StompFrame, uow:StoreUOW) = {
+  def send_via_route(addresses: Array[SimpleAddress], route:StompProducerRoute, received:StompFrame, uow:StoreUOW) = {
     var storeBatch:StoreUOW=null
+    val frame = bypass_heap(received)
 
     // User might be asking for ack that we have processed the message..
     val receipt = frame.header(RECEIPT_REQUESTED)
 
     // We may need to add some headers..
-    var message = updated_headers(addresses, frame.headers) match {
+    var message = updated_headers(addresses, frame) match {
       case Nil=>
-        StompFrameMessage(StompFrame(MESSAGE, frame.headers, frame.content, frame.contiguous))
+        StompFrameMessage(frame.copy(action=MESSAGE))
       case updated_headers =>
-        StompFrameMessage(StompFrame(MESSAGE, frame.headers, frame.content, frame.contiguous, updated_headers))
+        StompFrameMessage(frame.copy(action=MESSAGE, updated_headers=updated_headers))
     }
 
     val delivery = new Delivery
@@ -1474,8 +1511,13 @@ class StompProtocolHandler extends ProtocolHandler {
     delivery.expiration = message.expiration
     delivery.persistent = message.persistent
     delivery.size = message.frame.size
-    delivery.uow = uow
-    get(frame.headers, RETAIN).foreach { retain =>
+    val batch_uow = if( uow==null && delivery.persistent ) {
+      route.send_batch_uow(delivery.size)
+    } else {
+      null
+    }
+    delivery.uow = if( batch_uow!=null ) batch_uow else uow
+    Option(frame.header(RETAIN)).foreach { retain =>
       delivery.retain = retain match {
         case SET => RetainSet
         case REMOVE => RetainRemove
@@ -1493,13 +1535,37 @@ class StompProtocolHandler extends ProtocolHandler {
     }
 
     route.offer(delivery)
+    if( route.full ) {
+      // don't make the sends which follow wait for this one to drain.
+      route.close_send_batch
+    }
     if( route.full && !route.suspended ) {
       // but once it gets full.. suspend, so that we get more stomp messages
       // until it's not full anymore.
       route.suspended = true
       suspend_read("blocked sending to: "+route.addresses.mkString(", "))
     }
+    if( batch_uow!=null ) {
+      batch_uow.release
+    }
     frame.release
+    if( frame ne received ) {
+      received.release
+    }
+  }
+
+  /**
+   * Moves large message bodies into the virtual host's direct buffer
+   * allocator so that queued messages do not fill up the JVM heap.
+   */
+  def bypass_heap(frame:StompFrame):StompFrame = {
+    val allocator = host.direct_buffer_allocator
+    frame.content match {
+      case x:BufferContent if allocator!=null && x.length >= host.heap_bypass =>
+        frame.copy(content=ZeroCopyContent(allocator, x.content))
+      case _ =>
+        frame
+    }
   }
 
   def deep_copy(headers:HeaderMap) = {
@@ -1666,17 +1732,17 @@ class StompProtocolHandler extends ProtocolHandler {
   }
 
   def on_stomp_ack(frame:StompFrame):Unit = {
-    on_stomp_ack(frame.headers, Consumed)
+    on_stomp_ack(frame, Consumed)
   }
 
   def on_stomp_nack(frame:StompFrame):Unit = {
-    on_stomp_ack(frame.headers, Poisoned)
+    on_stomp_ack(frame, Poisoned)
   }
 
-  def on_stomp_ack(headers:HeaderMap, consumed:DeliveryResult):Unit = {
-    val credit = get(headers, CREDIT) match {
-      case None => null
-      case Some(value) =>
+  def on_stomp_ack(frame:StompFrame, consumed:DeliveryResult):Unit = {
+    val credit = frame.header(CREDIT) match {
+      case null => null
+      case value =>
         value.toString.split(",").toList match {
           case x :: Nil =>
             (x.toInt, 0)
@@ -1688,25 +1754,25 @@ class StompProtocolHandler extends ProtocolHandler {
     }
 
     val (messageId,handler) = if( (protocol_version eq V1_0) || (protocol_version eq V1_1) ) {
-      val messageId = get(headers, MESSAGE_ID).getOrElse(null)
+      val messageId = frame.header(MESSAGE_ID)
       if( credit==null && messageId==null) {
         die("message id header not set")
       }
 
-      val subscription_id = get(headers, SUBSCRIPTION);
+      val subscription_id = frame.header(SUBSCRIPTION);
       val handler = subscription_id match {
-        case None=>
+        case null=>
           if( !(protocol_version eq V1_0) ) {
             die("The subscription header is required")
           }
           connection_ack_handlers.get(messageId).orElse(die("Not expecting an ACK/NACK for message id '%s'".format(messageId)))
-        case Some(id) =>
+        case id =>
           consumers.get(id).map(_.ack_handler).orElse(die("The subscription '%s' does not exist".format(id)))
       }
 
       (messageId,handler)
     } else {
-      val id = get(headers, ID).getOrElse(null)
+      val id = frame.header(ID)
       if( credit==null && id==null) {
         die("id header not set")
       }
@@ -1717,10 +1783,10 @@ class StompProtocolHandler extends ProtocolHandler {
     handler.foreach{ handler=>
       handler.credit(messageId, credit)
       if( messageId!=null ) {
-        get(headers, TRANSACTION) match {
-          case None=>
+        frame.header(TRANSACTION) match {
+          case null=>
             handler.perform_ack(consumed, messageId, null)
-          case Some(txid)=>
+          case txid=>
             handler.consumer.retain()
             get_or_create_tx_queue(txid).add (new TransactionAction(){
               override def on_commit(uow: StoreUOW) {
@@ -1736,7 +1802,7 @@ class StompProtocolHandler extends ProtocolHandler {
             })
         }
       }
-      send_receipt(headers)
+      send_receipt(frame)
     }
   }
 
@@ -1774,6 +1840,15 @@ class StompProtocolHandler extends ProtocolHandler {
     }
   }
 
+  def send_receipt(frame:StompFrame):StompFrame = {
+    frame.header(RECEIPT_REQUESTED) match {
+      case null=>
+        null
+      case receipt=>
+        send_receipt(receipt)
+    }
+  }
+
   def send_receipt(receipt:AsciiBuffer):StompFrame = {
     dispatchQueue.assertExecuting()
     val frame = StompFrame(RECEIPT, List((RECEIPT_ID, receipt)))
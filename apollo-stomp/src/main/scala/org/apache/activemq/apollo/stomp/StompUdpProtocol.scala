@@ -108,7 +108,7 @@ class StompUdpProtocol extends UdpProtocol {
           sc.password = value.toString
           headers = headers.filterNot( _._1 == PASSCODE)
         }
-        (sc, frame.copy(headers=headers))
+        (sc, frame.copy(original_headers=headers))
       } else {
         (sc, frame)
       }
@@ -107,6 +107,9 @@ public class StompDTO extends ProtocolDTO {
     @XmlAttribute(name="buffer_size")
     public String buffer_size;
 
+    @XmlAttribute(name="send_batch_size")
+    public String send_batch_size;
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -129,6 +132,8 @@ public class StompDTO extends ProtocolDTO {
             return false;
         if (buffer_size != null ? !buffer_size.equals(stompDTO.buffer_size) : stompDTO.buffer_size != null)
             return false;
+        if (send_batch_size != null ? !send_batch_size.equals(stompDTO.send_batch_size) : stompDTO.send_batch_size != null)
+            return false;
         if (destination_separator != null ? !destination_separator.equals(stompDTO.destination_separator) : stompDTO.destination_separator != null)
             return false;
         if (die_delay != null ? !die_delay.equals(stompDTO.die_delay) : stompDTO.die_delay != null) return false;
@@ -181,6 +186,7 @@ public class StompDTO extends ProtocolDTO {
         result = 31 * result + (regex_wildcard_end != null ? regex_wildcard_end.hashCode() : 0);
         result = 31 * result + (die_delay != null ? die_delay.hashCode() : 0);
         result = 31 * result + (buffer_size != null ? buffer_size.hashCode() : 0);
+        result = 31 * result + (send_batch_size != null ? send_batch_size.hashCode() : 0);
         return result;
     }
 }
@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.stomp.test
+
+import org.apache.activemq.apollo.util.FunSuiteSupport
+import org.apache.activemq.apollo.stomp.{StompHeaderIndex, StompCodec}
+import org.apache.activemq.apollo.stomp.Stomp._
+import org.scalatest.matchers.ShouldMatchers
+import org.fusesource.hawtbuf.Buffer._
+
+class StompHeaderIndexTest extends FunSuiteSupport with ShouldMatchers {
+
+  test("well known headers are found without a scan") {
+    for( i <- 0 until StompHeaderIndex.NAMES.length ) {
+      StompHeaderIndex.index_of(ascii(StompHeaderIndex.NAMES(i).toString)) should be (i)
+    }
+    StompHeaderIndex.index_of(ascii("custom")) should be (-1)
+    StompHeaderIndex.index_of(ascii("")) should be (-1)
+  }
+
+  test("decoded frames use the index and the first header wins") {
+    val frame = StompCodec.decode_frame(ascii("SEND\ndestination:/queue/a\nreceipt:1\ncustom:x\ndestination:/queue/b\n\nhello\u0000"))
+    frame.index should not be (null)
+    frame.header(DESTINATION) should be (ascii("/queue/a"))
+    frame.header(RECEIPT_REQUESTED) should be (ascii("1"))
+    frame.header(ascii("custom")) should be (ascii("x"))
+    frame.header(TRANSACTION) should be (null)
+
+    val updated = frame.append_headers(List((DESTINATION, ascii("/queue/c"))))
+    updated.header(DESTINATION) should be (ascii("/queue/c"))
+    updated.header(RECEIPT_REQUESTED) should be (ascii("1"))
+  }
+
+  test("decoded frames only build the header list when asked") {
+    val names = (1 to 20).map("h"+_)
+    val frame = StompCodec.decode_frame(ascii("SEND\n"+names.map(x=> x+":"+x+"\n").mkString+"\nhello\u0000"))
+    frame.original_headers should be (null)
+    frame.header(ascii("h20")) should be (ascii("h20"))
+    frame.headers.map(_._1.toString) should be (names.toList)
+
+    val copy = frame.copy(action=MESSAGE)
+    copy.index should be theSameInstanceAs (frame.index)
+    copy.headers.map(_._2.toString) should be (names.toList)
+  }
+
+}
@@ -595,6 +595,28 @@ class StompParallelTest extends StompTestSupport with BrokerParallelTestExecutio
     sub1_counter should be(4)
   }
 
+  test("Consumers which ack in batches larger than their adaptive buffer do not stall") {
+    connect("1.1")
+    val dest = next_id("/queue/buffered.batch")
+    subscribe("0", dest, "client")
+
+    val body = "x" * 1024
+    for (i <- 0 until 300) {
+      async_send(dest, body)
+    }
+
+    // each batch of 100 1k messages is more than the 16k the buffer
+    // can grow to and the client only acks the last message of a batch,
+    // so the queue has to stop capping it while it waits for the rest.
+    for (batch <- 0 until 3) {
+      var ack:(Boolean)=>Unit = null
+      for (i <- 0 until 100) {
+        ack = assert_received(body)
+      }
+      ack(true)
+    }
+  }
+
   test("Message groups are sticky to a consumer") {
 
     val dest = next_id("/queue/msggroups")
@@ -653,6 +675,110 @@ class StompParallelTest extends StompTestSupport with BrokerParallelTestExecutio
   }
 
 
+  val message_group_regex = """(?s).*\nmessage_group:([^\n]+)\n.*""".r
+  val subscription_regex = """(?s).*\nsubscription:([^\n]+)\n.*""".r
+
+  // receives messages until none arrive for the timeout.
+  def receive_until_idle(timeout:Int=1000) = {
+    val rc = mutable.ListBuffer[String]()
+    try {
+      while( true ) {
+        val frame = client.receive(timeout)
+        frame should startWith("MESSAGE\n")
+        rc += frame
+      }
+    } catch {
+      case e:SocketTimeoutException =>
+    }
+    rc.toList
+  }
+
+  test("Message groups only move to a joining consumer or off a leaving one") {
+    val dest = next_id("/queue/msggroups")
+    connect("1.1")
+    subscribe("1", dest)
+    subscribe("2", dest)
+
+    val groups = (0 until 26).map(i => ('a' + i).toChar.toString)
+
+    // maps every group to the subscription which received its message.
+    def owners = {
+      for( group <- groups ) { async_send(dest, "data", "message_group:"+group+"\n") }
+      val rc = mutable.HashMap[String, String]()
+      for( i <- 0 until groups.size ) {
+        val (frame, _) = receive_message()
+        val message_group_regex(group) = frame
+        val subscription_regex(sub) = frame
+        rc.put(group, sub)
+      }
+      rc
+    }
+
+    val before = owners
+
+    subscribe("3", dest)
+    val joined = owners
+    joined.values.toSet should contain ("3")
+    for( group <- groups ) {
+      if( joined(group) != before(group) ) {
+        joined(group) should be ("3")
+      }
+    }
+
+    unsubscribe("3")
+    val left = owners
+    left.values.toSet should not contain ("3")
+    for( group <- groups if joined(group) != "3" ) {
+      left(group) should be (joined(group))
+    }
+  }
+
+  test("A moving message group is not dispatched until its in-flight messages are acked or nacked") {
+    val dest = next_id("/queue/msggroups")
+    connect("1.1")
+    subscribe("1", dest, "client-individual")
+
+    val groups = (0 until 26).map(i => ('a' + i).toChar.toString)
+    val first_acks = mutable.HashMap[String, (Boolean)=>Unit]()
+    for( group <- groups ) { async_send(dest, "first-"+group, "message_group:"+group+"\n") }
+    for( group <- groups ) {
+      first_acks.put(group, assert_received("first-"+group, "1"))
+    }
+
+    // the groups which move to the new subscription still have
+    // their first message in flight on the old one.
+    subscribe("2", dest, "client-individual")
+    for( group <- groups ) { async_send(dest, "second-"+group, "message_group:"+group+"\n") }
+
+    val stayed = receive_until_idle().map { frame =>
+      val subscription_regex(sub) = frame
+      sub should be ("1")
+      frame should include("\n\nsecond-")
+      val message_group_regex(group) = frame
+      group
+    }
+    val moved = groups.filterNot(stayed.contains(_))
+    moved should not be ('empty)
+
+    // ack the first half and nack the second half of the moved groups,
+    // the nacked messages have to be redelivered ahead of the next ones.
+    val (acked, nacked) = moved.splitAt(moved.size / 2)
+    acked.foreach(first_acks(_)(true))
+    nacked.foreach(first_acks(_)(false))
+
+    val received = receive_until_idle().map { frame =>
+      val subscription_regex(sub) = frame
+      sub should be ("2")
+      frame.substring(frame.indexOf("\n\n") + 2)
+    }
+    for( group <- acked ) {
+      received.filter(_.endsWith("-"+group)) should be (List("second-"+group))
+    }
+    for( group <- nacked ) {
+      received.filter(_.endsWith("-"+group)) should be (List("first-"+group, "second-"+group))
+    }
+  }
+
   test("Queues do NOT load balance across exclusive subscribers") {
     connect("1.1")
 
@@ -1643,6 +1769,104 @@ class StompParallelTest extends StompTestSupport with BrokerParallelTestExecutio
   }
 
 
+  test("Shared fan out topics deliver to every subscriber") {
+    val dest = next_id("/topic/fanout.all-")
+    connect("1.1")
+    for( sub <- 1 to 3 ) {
+      subscribe(sub.toString, dest)
+    }
+    topic_uses_fan_out(dest.stripPrefix("/topic/")) should be (true)
+
+    for( i <- 1 to 10 ) {
+      async_send(dest, i)
+    }
+
+    val received = mutable.HashMap[String, mutable.ListBuffer[String]]()
+    for( i <- 1 to 30 ) {
+      val (frame, _) = receive_message()
+      val subscription_regex(sub) = frame
+      received.getOrElseUpdate(sub, mutable.ListBuffer()) += frame.substring(frame.indexOf("\n\n")+2)
+    }
+    for( sub <- 1 to 3 ) {
+      received(sub.toString).toList should be ((1 to 10).map(_.toString).toList)
+    }
+  }
+
+  test("A blocked subscriber of a shared fan out topic stops the producers") {
+    val dest = next_id("/topic/fanout.block-")
+
+    // a subscription which will block quickly..
+    connect("1.1")
+    subscribe("0", dest, "client", headers="credit:1,0\n")
+    topic_uses_fan_out(dest.stripPrefix("/topic/")) should be (true)
+
+    val message_count = 40
+    val sent = new AtomicInteger(0)
+    val body = "x"*1024*100
+    Broker.BLOCKABLE_THREAD_POOL {
+      for( i <- 1 to message_count ) {
+        val client = connect("1.1", new StompClient)
+        async_send(dest, body, c=client)
+        disconnect(client)
+        sent.incrementAndGet()
+      }
+    }
+
+    // the fan out's credit window fills up and the producers stall.
+    Thread.sleep(2000)
+    val stalled = sent.get
+    stalled should be < (message_count)
+    Thread.sleep(1000)
+    sent.get should be (stalled)
+
+    // draining the subscription lets them continue.
+    for( i <- 1 to message_count ) {
+      assert_received(body)(true)
+    }
+    within(5, SECONDS) {
+      sent.get should be (message_count)
+    }
+  }
+
+  test("Slow subscribers of a shared fan out topic get queued") {
+    val dest = next_id("/topic/fanout_queued.slow-")
+    connect("1.1")
+    subscribe("0", dest, "client", headers="credit:1,0\n")
+    topic_uses_fan_out(dest.stripPrefix("/topic/")) should be (true)
+
+    // the producer does not get blocked by the slow subscriber.
+    val message_count = 100
+    val sender = connect("1.1", new StompClient)
+    for( i <- 1 to message_count ) {
+      async_send(dest, "%01024d".format(i), c=sender)
+    }
+    sync_send(dest, "DONE", c=sender)
+    close(sender)
+
+    for( i <- 1 to message_count ) {
+      assert_received("%01024d".format(i))(true)
+    }
+    assert_received("DONE")(true)
+  }
+
+  test("Durable subscriptions on a shared fan out topic keep messages while disconnected") {
+    val dest = next_id("/topic/fanout.durable-")
+    val id = next_id("fanout-dsub-")
+    connect("1.1")
+    subscribe(id, dest, persistent = true)
+    topic_uses_fan_out(dest.stripPrefix("/topic/")) should be (true)
+    close()
+
+    connect("1.1")
+    for( i <- 1 to 10 ) {
+      async_send(dest, i)
+    }
+    subscribe(id, dest, persistent = true, sync = false)
+    for( i <- 1 to 10 ) {
+      assert_received(i, id)
+    }
+  }
+
   test("STOMP flow control.") {
     val dest = next_id("/queue/quota.flow_control")
 
@@ -1672,6 +1896,41 @@ class StompParallelTest extends StompTestSupport with BrokerParallelTestExecutio
 
   }
 
+  test("A blocked destination does not hold back the send receipts of other destinations") {
+    skip_if_not_using_store
+    val blocked = next_id("quota.send_batch_blocked-")
+    val free = next_id("/queue/send_batch_free-")
+
+    // Setup the producer routes to both destinations.
+    connect("1.1")
+    sync_send(free, "warmup", "persistent:true\n")
+    sync_send("/queue/"+blocked, "warmup", "persistent:true\n")
+
+    // Fill the blocked queue past its quota.
+    val filler = connect("1.1", new StompClient)
+    for( i <- 1 to 12 ) {
+      async_send("/queue/"+blocked, "x"*1024, "persistent:true\n", c=filler)
+    }
+    within(5, SECONDS) {
+      queue_status(blocked).metrics.queue_size should be > (10*1024L)
+    }
+
+    // Pipeline a send to the free queue with one to the blocked queue.
+    client.write(
+      "SEND\n" +
+      "destination:" + free + "\n" +
+      "persistent:true\n" +
+      "receipt:free\n" +
+      "\n" +
+      "free\u0000\n" +
+      "SEND\n" +
+      "destination:/queue/" + blocked + "\n" +
+      "persistent:true\n" +
+      "\n" +
+      "blocked")
+    wait_for_receipt("free", timeout=5000)
+  }
+
   for( kind <- Array("/queue/", "/topic/", "/topic/queued.")) {
     test("Transaction commit order on "+kind) {
 
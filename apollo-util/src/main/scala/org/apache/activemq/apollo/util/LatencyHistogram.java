@@ -0,0 +1,215 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, log-linear histogram for recording latencies in the
+ * style of HdrHistogram.  Values below <code>2^sub_bucket_bits</code> are
+ * counted exactly, larger values land in buckets whose width doubles with
+ * every power of two so the relative error of any reported value stays
+ * below <code>1/2^(sub_bucket_bits-1)</code>.
+ * <p/>
+ * Recording is lock free and may be done concurrently from any thread.
+ * Values larger than the highest trackable value are clamped to it.
+ */
+public class LatencyHistogram {
+
+    /** One hour in nanoseconds. */
+    public static final long DEFAULT_HIGHEST_TRACKABLE = TimeUnit.HOURS.toNanos(1);
+    /** Keeps the relative error under 1.6%. */
+    public static final int DEFAULT_SUB_BUCKET_BITS = 7;
+
+    private final long highest_trackable;
+    private final int sub_bucket_bits;
+    private final int sub_bucket_count;
+    private final int sub_bucket_half;
+    private final AtomicLongArray counts;
+
+    private final AtomicLong total_count = new AtomicLong();
+    private final AtomicLong total_sum = new AtomicLong();
+    private final AtomicLong min_value = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max_value = new AtomicLong(0);
+
+    public LatencyHistogram() {
+        this(DEFAULT_HIGHEST_TRACKABLE, DEFAULT_SUB_BUCKET_BITS);
+    }
+
+    public LatencyHistogram(long highest_trackable, int sub_bucket_bits) {
+        if (highest_trackable < 2) {
+            throw new IllegalArgumentException("highest_trackable must be at least 2");
+        }
+        if (sub_bucket_bits < 1 || sub_bucket_bits > 16) {
+            throw new IllegalArgumentException("sub_bucket_bits must be between 1 and 16");
+        }
+        this.highest_trackable = highest_trackable;
+        this.sub_bucket_bits = sub_bucket_bits;
+        this.sub_bucket_count = 1 << sub_bucket_bits;
+        this.sub_bucket_half = sub_bucket_count >> 1;
+        this.counts = new AtomicLongArray(index_of(highest_trackable) + 1);
+    }
+
+    private int index_of(long value) {
+        if (value < sub_bucket_count) {
+            return (int) value;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(value) - sub_bucket_bits;
+        int sub_bucket = (int) (value >>> bucket);
+        return sub_bucket_count + (bucket - 1) * sub_bucket_half + (sub_bucket - sub_bucket_half);
+    }
+
+    private long lowest_value_at(int index) {
+        if (index < sub_bucket_count) {
+            return index;
+        }
+        int offset = index - sub_bucket_count;
+        int bucket = offset / sub_bucket_half + 1;
+        long sub_bucket = offset % sub_bucket_half + sub_bucket_half;
+        return sub_bucket << bucket;
+    }
+
+    private long highest_value_at(int index) {
+        if (index < sub_bucket_count) {
+            return index;
+        }
+        int bucket = (index - sub_bucket_count) / sub_bucket_half + 1;
+        return lowest_value_at(index) + (1L << bucket) - 1;
+    }
+
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    public void record(long value, long count) {
+        if (count <= 0) {
+            return;
+        }
+        if (value < 0) {
+            value = 0;
+        } else if (value > highest_trackable) {
+            value = highest_trackable;
+        }
+        counts.addAndGet(index_of(value), count);
+        total_count.addAndGet(count);
+        total_sum.addAndGet(value * count);
+
+        long current;
+        while (value < (current = min_value.get())) {
+            if (min_value.compareAndSet(current, value)) {
+                break;
+            }
+        }
+        while (value > (current = max_value.get())) {
+            if (max_value.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds all the values recorded in another histogram to this one.  Both
+     * histograms must have been created with the same settings.
+     */
+    public void add(LatencyHistogram other) {
+        if (other.counts.length() != counts.length() || other.sub_bucket_bits != sub_bucket_bits) {
+            throw new IllegalArgumentException("histograms do not have the same settings");
+        }
+        for (int i = 0; i < counts.length(); i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        total_count.addAndGet(other.total_count.get());
+        total_sum.addAndGet(other.total_sum.get());
+        long other_min = other.min_value.get();
+        long current;
+        while (other_min < (current = min_value.get())) {
+            if (min_value.compareAndSet(current, other_min)) {
+                break;
+            }
+        }
+        long other_max = other.max_value.get();
+        while (other_max > (current = max_value.get())) {
+            if (max_value.compareAndSet(current, other_max)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return a new histogram with the same settings and values as this one.
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram rc = new LatencyHistogram(highest_trackable, sub_bucket_bits);
+        rc.add(this);
+        return rc;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total_count.set(0);
+        total_sum.set(0);
+        min_value.set(Long.MAX_VALUE);
+        max_value.set(0);
+    }
+
+    public long count() {
+        return total_count.get();
+    }
+
+    public long min() {
+        return total_count.get() == 0 ? 0 : min_value.get();
+    }
+
+    public long max() {
+        return max_value.get();
+    }
+
+    public double mean() {
+        long count = total_count.get();
+        return count == 0 ? 0 : ((double) total_sum.get()) / count;
+    }
+
+    /**
+     * @param percentile a value between 0 and 100.
+     * @return the highest value that is equivalent (within the histogram's
+     *         precision) to the value at the requested percentile.
+     */
+    public long percentile(double percentile) {
+        long count = total_count.get();
+        if (count == 0) {
+            return 0;
+        }
+        percentile = Math.min(Math.max(percentile, 0), 100);
+        long target = Math.max(1, (long) Math.ceil((percentile / 100.0) * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highest_value_at(i), max());
+            }
+        }
+        return max();
+    }
+
+}
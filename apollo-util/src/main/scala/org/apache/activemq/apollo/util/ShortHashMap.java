@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map keyed by primitive shorts.  Unlike a
+ * HashMap&lt;Short, V&gt; it does not box the keys or allocate an entry
+ * object per mapping, which makes it a good fit for tracking protocol
+ * message ids on a hot path.
+ * <p/>
+ * Uses linear probing with backward shift deletion so no tombstones
+ * accumulate.  Null values are not supported.  Not thread safe.
+ *
+ * @param <V>
+ */
+public class ShortHashMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private short[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public ShortHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ShortHashMap(int expected) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new short[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(short key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int index_of(short key) {
+        int i = slot(key);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(short key) {
+        return index_of(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(short key) {
+        int i = index_of(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    /**
+     * @return the previous value mapped to the key or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(short key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not supported");
+        }
+        int i = slot(key);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                V prev = (V) values[i];
+                values[i] = value;
+                return prev;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        if (size * 2 > values.length) {
+            rehash(values.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return the value that was removed or null if the key was not mapped.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(short key) {
+        int i = index_of(key);
+        if (i < 0) {
+            return null;
+        }
+        V prev = (V) values[i];
+        size--;
+
+        // Shift back any following entries of the probe sequence so that
+        // lookups never hit a gap before reaching their key.
+        int gap = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null) {
+                break;
+            }
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+        return prev;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(values, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * @return a snapshot of the values held in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<V> values() {
+        ArrayList<V> rc = new ArrayList<V>(size);
+        for (Object value : values) {
+            if (value != null) {
+                rc.add((V) value);
+            }
+        }
+        return rc;
+    }
+
+    private void rehash(int capacity) {
+        short[] old_keys = keys;
+        Object[] old_values = values;
+        allocate(capacity);
+        for (int i = 0; i < old_values.length; i++) {
+            if (old_values[i] != null) {
+                int j = slot(old_keys[i]);
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = old_keys[i];
+                values[j] = old_values[i];
+            }
+        }
+    }
+}
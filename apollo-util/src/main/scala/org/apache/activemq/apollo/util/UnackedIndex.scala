@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.util
+
+/**
+ * <p>
+ * Tracks the deliveries sent to a consumer which have not been acked yet in
+ * the order they were sent.  Entries are kept in a ring buffer indexed by
+ * their delivery sequence and a hash map locates the sequence of an id, so
+ * acking one delivery is O(1) and acking all the deliveries up to an id is
+ * O(number of acked deliveries).
+ * </p>
+ * <p>
+ * Not thread safe, it should only be accessed from the consumer's dispatch
+ * queue.
+ * </p>
+ */
+class UnackedIndex[K <: AnyRef, V <: AnyRef](initial_capacity:Int=16) {
+
+  private var capacity = Integer.highestOneBit((initial_capacity max 2) - 1) << 1
+  private var keys = new Array[AnyRef](capacity)
+  private var values = new Array[AnyRef](capacity)
+  // sequence of the oldest slot in use.
+  private var head = 0L
+  // sequence the next entry will get.
+  private var tail = 0L
+  private val index = new java.util.HashMap[K, java.lang.Long]()
+
+  private def slot(seq:Long) = (seq & (capacity-1)).toInt
+
+  def size = index.size
+  def isEmpty = index.isEmpty
+  def contains(key:K) = index.containsKey(key)
+
+  def put(key:K, value:V):Unit = {
+    if( index.containsKey(key) ) {
+      remove(key)
+    }
+    if( tail - head == capacity ) {
+      make_room
+    }
+    val s = slot(tail)
+    keys(s) = key
+    values(s) = value
+    index.put(key, tail)
+    tail += 1
+  }
+
+  def get(key:K):V = {
+    val seq = index.get(key)
+    if( seq == null ) {
+      null.asInstanceOf[V]
+    } else {
+      values(slot(seq.longValue)).asInstanceOf[V]
+    }
+  }
+
+  /**
+   * @return the oldest key or null if empty.
+   */
+  def head_key:K = if( isEmpty ) null.asInstanceOf[K] else keys(slot(head)).asInstanceOf[K]
+
+  def remove(key:K):V = {
+    val seq = index.remove(key)
+    if( seq == null ) {
+      null.asInstanceOf[V]
+    } else {
+      val s = slot(seq.longValue)
+      val rc = values(s).asInstanceOf[V]
+      keys(s) = null
+      values(s) = null
+      skip_removed
+      rc
+    }
+  }
+
+  /**
+   * Removes all the entries up to and including the key, oldest first.
+   *
+   * @return false if the key was not found in which case nothing is removed.
+   */
+  def remove_through(key:K)(func:(K, V)=>Unit):Boolean = {
+    val seq = index.get(key)
+    if( seq == null ) {
+      false
+    } else {
+      val last = seq.longValue
+      var i = head
+      while( i <= last ) {
+        val s = slot(i)
+        val k = keys(s).asInstanceOf[K]
+        if( k != null ) {
+          val v = values(s).asInstanceOf[V]
+          keys(s) = null
+          values(s) = null
+          index.remove(k)
+          func(k, v)
+        }
+        i += 1
+      }
+      head = last + 1
+      skip_removed
+      true
+    }
+  }
+
+  /**
+   * Visits all the entries up to and including the key, oldest first.
+   *
+   * @return false if the key was not found in which case nothing is visited.
+   */
+  def foreach_through(key:K)(func:(K, V)=>Unit):Boolean = {
+    val seq = index.get(key)
+    if( seq == null ) {
+      false
+    } else {
+      val last = seq.longValue
+      var i = head
+      while( i <= last ) {
+        val s = slot(i)
+        val k = keys(s).asInstanceOf[K]
+        if( k != null ) {
+          func(k, values(s).asInstanceOf[V])
+        }
+        i += 1
+      }
+      true
+    }
+  }
+
+  def foreach(func:(K, V)=>Unit):Unit = {
+    var i = head
+    while( i < tail ) {
+      val s = slot(i)
+      val k = keys(s).asInstanceOf[K]
+      if( k != null ) {
+        func(k, values(s).asInstanceOf[V])
+      }
+      i += 1
+    }
+  }
+
+  def clear = {
+    java.util.Arrays.fill(keys, null)
+    java.util.Arrays.fill(values, null)
+    index.clear()
+    head = tail
+  }
+
+  private def skip_removed = {
+    while( head < tail && keys(slot(head)) == null ) {
+      head += 1
+    }
+  }
+
+  /**
+   * Called when the ring is full.  Entries acked out of order leave holes
+   * in the ring, when they make up half of it, the live entries are packed
+   * together instead of growing the ring so that a delivery which never
+   * gets acked does not make the ring grow forever.
+   */
+  private def make_room = {
+    val packing = index.size * 2 <= capacity
+    val new_capacity = if( packing ) capacity else capacity << 1
+    val new_keys = new Array[AnyRef](new_capacity)
+    val new_values = new Array[AnyRef](new_capacity)
+    var seq = head
+    var i = head
+    while( i < tail ) {
+      val s = slot(i)
+      val k = keys(s)
+      if( k != null ) {
+        val ns = (seq & (new_capacity-1)).toInt
+        new_keys(ns) = k
+        new_values(ns) = values(s)
+        if( packing ) {
+          index.put(k.asInstanceOf[K], seq)
+        }
+        seq += 1
+      } else if( !packing ) {
+        seq += 1
+      }
+      i += 1
+    }
+    capacity = new_capacity
+    keys = new_keys
+    values = new_values
+    tail = seq
+  }
+
+}
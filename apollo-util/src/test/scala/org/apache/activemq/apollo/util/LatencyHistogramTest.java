@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test()
+    public void testPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(0);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            long expected = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long actual = histogram.percentile(p);
+            assertTrue(actual >= expected);
+            assertTrue((actual - expected) <= expected / 64 + 1);
+        }
+        assertEquals(values.length, histogram.count());
+        assertEquals(values[0], histogram.min());
+        assertEquals(values[values.length - 1], histogram.max());
+        assertEquals(values[values.length - 1], histogram.percentile(100));
+    }
+
+    @Test()
+    public void testAddAndReset() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            a.record(i);
+            b.record(i + 100);
+        }
+        a.add(b);
+        assertEquals(200, a.count());
+        assertEquals(1, a.min());
+        assertEquals(200, a.max());
+        assertEquals(100.5, a.mean(), 0.001);
+
+        a.reset();
+        assertEquals(0, a.count());
+        assertEquals(0, a.min());
+        assertEquals(0, a.percentile(50));
+    }
+
+    @Test()
+    public void testClampsToHighestTrackable() {
+        LatencyHistogram histogram = new LatencyHistogram(1000, 7);
+        histogram.record(-5);
+        histogram.record(5000);
+        assertEquals(0, histogram.min());
+        assertEquals(1000, histogram.max());
+    }
+
+}
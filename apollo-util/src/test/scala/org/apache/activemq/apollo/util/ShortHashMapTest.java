@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.util;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ShortHashMapTest {
+
+    @Test()
+    public void testAgainstHashMap() {
+        ShortHashMap<Integer> testMap = new ShortHashMap<Integer>();
+        HashMap<Short, Integer> refMap = new HashMap<Short, Integer>();
+        Random random = new Random(0);
+
+        for (int i = 0; i < 200000; i++) {
+            short key = (short) (0x8000 | random.nextInt(2000));
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(refMap.put(key, i), testMap.put(key, i));
+                    break;
+                case 1:
+                    assertEquals(refMap.remove(key), testMap.remove(key));
+                    break;
+                default:
+                    assertEquals(refMap.get(key), testMap.get(key));
+            }
+            assertEquals(refMap.size(), testMap.size());
+        }
+
+        for (Short key : refMap.keySet()) {
+            assertEquals(refMap.get(key), testMap.get(key));
+        }
+        assertEquals(refMap.size(), testMap.values().size());
+
+        testMap.clear();
+        assertTrue(testMap.isEmpty());
+        assertNull(testMap.get((short) 0));
+    }
+
+}
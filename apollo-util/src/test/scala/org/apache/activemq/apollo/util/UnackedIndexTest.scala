@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.apollo.util
+
+import org.scalatest.matchers.ShouldMatchers
+import collection.mutable.ListBuffer
+
+class UnackedIndexTest extends FunSuiteSupport with ShouldMatchers {
+
+  def keys(index:UnackedIndex[String, String]) = {
+    val rc = ListBuffer[String]()
+    index.foreach((k, v) => rc += k)
+    rc.toList
+  }
+
+  test("individual and cumulative acks") {
+    val index = new UnackedIndex[String, String](4)
+    for( i <- 0 until 10 ) {
+      index.put("m"+i, "v"+i)
+    }
+    index.size should be (10)
+    index.get("m3") should be ("v3")
+
+    index.remove("m3") should be ("v3")
+    index.remove("m3") should be (null)
+    index.get("m3") should be (null)
+
+    val acked = ListBuffer[String]()
+    index.remove_through("m5")((k, v) => acked += k) should be (true)
+    acked.toList should be (List("m0", "m1", "m2", "m4", "m5"))
+    index.head_key should be ("m6")
+    keys(index) should be (List("m6", "m7", "m8", "m9"))
+
+    index.remove_through("m5")((k, v) => acked += k) should be (false)
+  }
+
+  test("ring does not grow when old entries are never acked") {
+    val index = new UnackedIndex[String, String](4)
+    index.put("stuck", "x")
+    for( i <- 0 until 10000 ) {
+      index.put("m"+i, "v"+i)
+      index.remove("m"+i) should be ("v"+i)
+    }
+    index.size should be (1)
+    keys(index) should be (List("stuck"))
+
+    index.put("last", "y")
+    val visited = ListBuffer[String]()
+    index.foreach_through("last")((k, v) => visited += k) should be (true)
+    visited.toList should be (List("stuck", "last"))
+    index.size should be (2)
+  }
+
+}
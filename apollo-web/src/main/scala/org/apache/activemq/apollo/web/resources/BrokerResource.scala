@@ -125,6 +125,10 @@ class BrokerResource() extends Resource {
         result.version = Broker.version
         result.connection_counter = broker.connection_id_counter.get()
         result.connected = broker.connections.size
+        result.memory_budget = broker.swap_coordinator.budget
+        result.memory_used = broker.swap_coordinator.used
+        result.over_budget_queues = broker.swap_coordinator.over_budget_queues
+        result.swap_requests = broker.swap_coordinator.swap_requests
         broker.virtual_hosts.values.foreach{ host=>
           result.virtual_hosts.add( host.id )
         }
@@ -292,7 +296,7 @@ class BrokerResource() extends Resource {
     metrics.map( x=> Success(aggregate_dest_metrics(x.flatMap(_.success_option)) ))
   }
 
-  def get_queue_metrics(host:VirtualHost):FutureResult[AggregateDestMetricsDTO] = host.get_queue_metrics
+  def get_queue_metrics(host:VirtualHost):FutureResult[AggregateDestMetricsDTO] = host.get_cached_queue_metrics
 
   def get_topic_metrics(broker:Broker):FutureResult[AggregateDestMetricsDTO] = {
     val metrics = sync_all(broker.virtual_hosts.values) { host =>
@@ -310,7 +314,28 @@ class BrokerResource() extends Resource {
     metrics.map( x=> Success(aggregate_dest_metrics(x.flatMap(_.success_option)) ))
   }
 
-  def get_dsub_metrics(host:VirtualHost):FutureResult[AggregateDestMetricsDTO] = host.get_dsub_metrics
+  def get_dsub_metrics(host:VirtualHost):FutureResult[AggregateDestMetricsDTO] = host.get_cached_dsub_metrics
+
+  @GET
+  @Path("/latency")
+  @ApiOperation(value = "Returns a DeliveryLatencyDTO holding the merged latency histograms of all the virtual hosts")
+  def get_latency(): DeliveryLatencyDTO = {
+    with_broker { broker =>
+      monitoring(broker) {
+        broker.get_latency.map(_.map_success(_.to_dto(broker.latency_sample_rate)))
+      }
+    }
+  }
+
+  @POST @Path("/action/latency-sample-rate/{rate}")
+  @ApiOperation(value = "Sets the rate at which delivery latencies are sampled, 1 out of every {rate} messages.  0 disables sampling.")
+  def post_latency_sample_rate(@PathParam("rate") rate : Int) = ok {
+    with_broker { broker =>
+      admining(broker) {
+        broker.latency_sample_rate = rate.max(0)
+      }
+    }
+  }
 
 
   @GET @Path("/virtual-hosts")
@@ -403,12 +428,22 @@ class BrokerResource() extends Resource {
   def virtual_host_dest_metrics(@PathParam("id") id : String): AggregateDestMetricsDTO = {
     with_virtual_host(id) { host =>
       monitoring(host) {
-        host.get_dest_metrics
+        host.get_cached_dest_metrics
       }
     }
   }
 
 
+  @GET @Path("/virtual-hosts/{id}/latency")
+  @ApiOperation(value = "Gets the latency histograms of all the queues on the virtual host")
+  def virtual_host_latency(@PathParam("id") id : String): DeliveryLatencyDTO = {
+    with_virtual_host(id) { host =>
+      monitoring(host) {
+        host.get_latency.map(_.map_success(_.to_dto(host.broker.latency_sample_rate)))
+      }
+    }
+  }
+
   @GET @Path("/virtual-hosts/{id}/store")
   @ApiOperation(value = "Gets metrics about the status of the message store used by the {host} virtual host.")
   def store(@PathParam("id") id : String):StoreStatusDTO = {
@@ -482,6 +517,8 @@ class BrokerResource() extends Resource {
     }
   }
 
+  private def total_pages(x:Int,y:Int) = if(x==0) 1 else { x/y + (if ( x%y == 0 ) 0 else 1) }
+
   def narrow[T](kind:Class[T], x:Iterable[Result[T, Throwable]], f:java.util.List[String], q:String, p:java.lang.Integer, ps:java.lang.Integer, o:java.util.List[String]) = {
     import collection.JavaConversions._
     try {
@@ -509,7 +546,6 @@ class BrokerResource() extends Resource {
 
 
 
-      def total_pages(x:Int,y:Int) = if(x==0) 1 else { x/y + (if ( x%y == 0 ) 0 else 1) }
       rc.total_pages = total_pages(query_result.getWhereResults.length, rc.page_size)
       rc.total_rows = query_result.getWhereResults.length
       rc.headers = headers
@@ -522,22 +558,62 @@ class BrokerResource() extends Resource {
     }
   }
 
+  /**
+   * Gets the status of just one page of the destinations in a domain by
+   * walking the domain's id index.  The query and order by clauses only
+   * apply to the rows of the page.  Counting the destinations which match a
+   * prefix means walking all of them, so the totals of prefixed listings are
+   * reported as -1.
+   */
+  def indexed_page[D <: DomainDestination, T](kind:Class[T], domain:LocalRouter#Domain[D], f:java.util.List[String], q:String,
+                                              p:java.lang.Integer, ps:java.lang.Integer, o:java.util.List[String],
+                                              cursor:String, prefix:String)(status: (D)=>FutureResult[T]):FutureResult[DataPageDTO] = {
+    val page_size = if( ps !=null ) ps.intValue() else 100
+    val page = if( p !=null && cursor==null ) p.intValue() else 0
+    if( page_size <= 0 || page < 0 ) {
+      result(BAD_REQUEST, "Invalid page or page size")
+    }
+    val values = domain.destinations_after(cursor, prefix).drop(page*page_size).take(page_size).toList
+    val total = if( prefix==null ) domain.destination_index.size else -1
+    Future.all(values.map(status)).map { records =>
+      narrow(kind, records, f, q, 0, page_size, o).map_success { rc =>
+        rc.page = page
+        rc.total_rows = total
+        rc.total_pages = if( total < 0 ) -1 else total_pages(total, page_size)
+        if( values.size == page_size ) {
+          rc.next_cursor = values.last.id
+        }
+        rc
+      }
+    }
+  }
+
+  /**
+   * Listings which ask for a cursor or prefix are paged through the id index,
+   * the others keep getting the status of every destination.
+   */
+  private def use_index(cursor:String, prefix:String) = cursor!=null || prefix!=null
+
   @GET @Path("/virtual-hosts/{id}/topics")
   @ApiOperation(value = "Gets a list of all the topics that exist on the broker.")
   @Produces(Array(APPLICATION_JSON))
   def topics(@PathParam("id") id : String, @QueryParam("f") f:java.util.List[String],
-            @QueryParam("q") q:String, @QueryParam("p") p:java.lang.Integer, @QueryParam("ps") ps:java.lang.Integer, @QueryParam("o") o:java.util.List[String] ):DataPageDTO = {
+            @QueryParam("q") q:String, @QueryParam("p") p:java.lang.Integer, @QueryParam("ps") ps:java.lang.Integer, @QueryParam("o") o:java.util.List[String],
+            @QueryParam("cursor") cursor:String, @QueryParam("prefix") prefix:String ):DataPageDTO = {
     with_virtual_host(id) { host =>
       val router: LocalRouter = host
-      val records = Future.all {
-        router.local_topic_domain.destination_by_id.values.map { value  =>
-          monitoring(value) {
-            value.status(false, false)
-          }
+      def status(value:Topic) = monitoring(value) {
+        value.status(false, false)
+      }
+      if( use_index(cursor, prefix) ) {
+        indexed_page(classOf[TopicStatusDTO], router.local_topic_domain, f, q, p, ps, o, cursor, prefix)(status)
+      } else {
+        val records = Future.all {
+          router.local_topic_domain.destination_by_id.values.map(status)
         }
+        val rc:FutureResult[DataPageDTO] = records.map(narrow(classOf[TopicStatusDTO], _, f, q, p, ps, o))
+        rc
       }
-      val rc:FutureResult[DataPageDTO] = records.map(narrow(classOf[TopicStatusDTO], _, f, q, p, ps, o))
-      rc
     }
   }
 
@@ -646,17 +722,26 @@ class BrokerResource() extends Resource {
   @ApiOperation(value = "Gets a list of all the queues that exist on the broker.")
   @Produces(Array(APPLICATION_JSON))
   def queues(@PathParam("id") id : String, @QueryParam("f") f:java.util.List[String],
-            @QueryParam("q") q:String, @QueryParam("p") p:java.lang.Integer, @QueryParam("ps") ps:java.lang.Integer, @QueryParam("o") o:java.util.List[String] ):DataPageDTO = {
+            @QueryParam("q") q:String, @QueryParam("p") p:java.lang.Integer, @QueryParam("ps") ps:java.lang.Integer, @QueryParam("o") o:java.util.List[String],
+            @QueryParam("cursor") cursor:String, @QueryParam("prefix") prefix:String ):DataPageDTO = {
     with_virtual_host(id) { host =>
       val router: LocalRouter = host
-      val values: Iterable[Queue] = router.local_queue_domain.destination_by_id.values
+      if( use_index(cursor, prefix) ) {
+        indexed_page(classOf[QueueStatusDTO], router.local_queue_domain, f, q, p, ps, o, cursor, prefix) { value =>
+          sync(value) {
+            status(value, false, false, false)
+          }
+        }
+      } else {
+        val values: Iterable[Queue] = router.local_queue_domain.destination_by_id.values
 
-      val records = sync_all(values) { value =>
-        status(value, false, false , false)
-      }
+        val records = sync_all(values) { value =>
+          status(value, false, false, false)
+        }
 
-      val rc:FutureResult[DataPageDTO] = records.map(narrow(classOf[QueueStatusDTO], _, f, q, p, ps, o))
-      rc
+        val rc:FutureResult[DataPageDTO] = records.map(narrow(classOf[QueueStatusDTO], _, f, q, p, ps, o))
+        rc
+      }
     }
   }
 
@@ -774,17 +859,26 @@ class BrokerResource() extends Resource {
   @ApiOperation(value = "Gets a list of all the durable subscriptions that exist on the broker.")
   @Produces(Array(APPLICATION_JSON))
   def durable_subscriptions(@PathParam("id") id : String, @QueryParam("f") f:java.util.List[String],
-            @QueryParam("q") q:String, @QueryParam("p") p:java.lang.Integer, @QueryParam("ps") ps:java.lang.Integer, @QueryParam("o") o:java.util.List[String] ):DataPageDTO = {
+            @QueryParam("q") q:String, @QueryParam("p") p:java.lang.Integer, @QueryParam("ps") ps:java.lang.Integer, @QueryParam("o") o:java.util.List[String],
+            @QueryParam("cursor") cursor:String, @QueryParam("prefix") prefix:String ):DataPageDTO = {
     with_virtual_host(id) { host =>
       val router: LocalRouter = host
-      val values: Iterable[Queue] = router.local_dsub_domain.destination_by_id.values
+      if( use_index(cursor, prefix) ) {
+        indexed_page(classOf[QueueStatusDTO], router.local_dsub_domain, f, q, p, ps, o, cursor, prefix) { value =>
+          sync(value) {
+            status(value, false, false, false)
+          }
+        }
+      } else {
+        val values: Iterable[Queue] = router.local_dsub_domain.destination_by_id.values
 
-      val records = sync_all(values) { value =>
-        status(value, false, false, false)
-      }
+        val records = sync_all(values) { value =>
+          status(value, false, false, false)
+        }
 
-      val rc:FutureResult[DataPageDTO] = records.map(narrow(classOf[QueueStatusDTO], _, f, q, p, ps, o))
-      rc
+        val rc:FutureResult[DataPageDTO] = records.map(narrow(classOf[QueueStatusDTO], _, f, q, p, ps, o))
+        rc
+      }
     }
   }
 